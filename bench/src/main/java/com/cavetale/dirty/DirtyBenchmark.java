@@ -0,0 +1,146 @@
+package com.cavetale.dirty;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagCompound;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the conversion and serialization hot paths on
+ * synthetic trees.  Run with the GC profiler for allocation rates:
+ * java -jar target/benchmarks.jar -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DirtyBenchmark {
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+    private static final String[] CLASS_NAMES = {
+        "JigsawStructure", "MineshaftStructure", "OceanMonumentStructure", "NetherFortressStructure",
+        "WoodlandMansionStructure", "BuriedTreasureStructure", "SwampHutStructure", "StrongholdStructure",
+    };
+
+    @Param
+    public NbtTrees.Shape shape;
+    private NBTTagCompound tag;
+    private Object map;
+    private String json;
+    private String typedJson;
+    private byte[] binary;
+
+    @Setup
+    public void setup() {
+        tag = NbtTrees.make(shape, 1L);
+        map = Dirty.fromTag(tag);
+        json = GSON.toJson(map);
+        typedJson = Dirty.toJson(tag, JsonOption.TYPED);
+        binary = NbtBinary.encode(List.of(tag), false);
+    }
+
+    @Benchmark
+    public Object fromTag() {
+        return Dirty.fromTag(tag);
+    }
+
+    @Benchmark
+    public Object fromTagCanonical() {
+        return Dirty.fromTagCanonical(tag);
+    }
+
+    @Benchmark
+    public Object toTag() {
+        return Dirty.toTag(map);
+    }
+
+    @Benchmark
+    public Object singleKeyEager() {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> result = (Map<String, Object>) Dirty.fromTag(tag);
+        return result.get("id");
+    }
+
+    @Benchmark
+    public Object singleKeyView() {
+        return Dirty.viewTag(tag).get("id");
+    }
+
+    @Benchmark
+    public Object singleKeyPath() {
+        return NbtPath.compile("id").get(tag);
+    }
+
+    @Benchmark
+    public String gsonToJson() {
+        return GSON.toJson(Dirty.fromTag(tag));
+    }
+
+    @Benchmark
+    public String writeJson() {
+        return Dirty.toJson(tag);
+    }
+
+    @Benchmark
+    public Object gsonFromJson() {
+        return Dirty.toTag(GSON.fromJson(json, Map.class));
+    }
+
+    /**
+     * The same plain JSON as gsonFromJson.
+     */
+    @Benchmark
+    public NBTBase readJson() throws IOException {
+        return NbtJsonReader.read(new JsonReader(new StringReader(json)));
+    }
+
+    /**
+     * JSON with type hints, which round trips exactly.
+     */
+    @Benchmark
+    public NBTBase readTypedJson() throws IOException {
+        return NbtJsonReader.read(new JsonReader(new StringReader(typedJson)));
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return NbtBinary.encode(List.of(tag), false);
+    }
+
+    @Benchmark
+    public byte[] binaryEncodeDeflate() {
+        return NbtBinary.encode(List.of(tag), true);
+    }
+
+    @Benchmark
+    public Object binaryDecode() {
+        return NbtBinary.decode(binary);
+    }
+
+    @Benchmark
+    public Object camelToSnakeCase() {
+        String[] result = new String[CLASS_NAMES.length];
+        for (int i = 0; i < CLASS_NAMES.length; i += 1) {
+            result[i] = Util.camelToSnakeCase(CLASS_NAMES[i]);
+        }
+        return result;
+    }
+}
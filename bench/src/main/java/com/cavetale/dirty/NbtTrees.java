@@ -0,0 +1,174 @@
+package com.cavetale.dirty;
+
+import java.util.Random;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLong;
+import net.minecraft.nbt.NBTTagLongArray;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
+
+/**
+ * Synthetic NBT trees shaped like the real thing.  Only NBT classes
+ * are used, so no server has to be bootstrapped.  Public for the
+ * classes JMH generates in another package.
+ */
+public final class NbtTrees {
+    public enum Shape {
+        SMALL_ITEM,
+        WRITTEN_BOOK,
+        SHULKER_BOX,
+        VILLAGER,
+        BIG_ARRAYS;
+    }
+
+    private NbtTrees() { }
+
+    static NBTTagCompound make(Shape shape, long seed) {
+        Random random = new Random(seed);
+        switch (shape) {
+        case SMALL_ITEM: return smallItem(random, 0);
+        case WRITTEN_BOOK: return writtenBook(random);
+        case SHULKER_BOX: return shulkerBox(random);
+        case VILLAGER: return villager(random);
+        case BIG_ARRAYS: return bigArrays(random);
+        default: throw new IllegalArgumentException(shape.name());
+        }
+    }
+
+    private static NBTTagString string(String value) {
+        return NBTTagString.a(value);
+    }
+
+    private static NBTTagCompound smallItem(Random random, int slot) {
+        NBTTagCompound item = new NBTTagCompound();
+        item.a("id", string("minecraft:diamond_sword"));
+        item.a("Count", NBTTagByte.a((byte) 1));
+        item.a("Slot", NBTTagByte.a((byte) slot));
+        NBTTagCompound tag = new NBTTagCompound();
+        tag.a("Damage", NBTTagInt.a(random.nextInt(1561)));
+        tag.a("RepairCost", NBTTagInt.a(3));
+        NBTTagList enchantments = new NBTTagList();
+        for (String id : new String[] {"minecraft:sharpness", "minecraft:unbreaking", "minecraft:mending"}) {
+            NBTTagCompound enchantment = new NBTTagCompound();
+            enchantment.a("id", string(id));
+            enchantment.a("lvl", NBTTagShort.a((short) (1 + random.nextInt(5))));
+            enchantments.add(enchantment);
+        }
+        tag.a("Enchantments", enchantments);
+        NBTTagCompound display = new NBTTagCompound();
+        display.a("Name", string("{\"text\":\"Blade " + random.nextInt(1000) + "\",\"italic\":false}"));
+        NBTTagList lore = new NBTTagList();
+        lore.add(string("{\"text\":\"Forged in the deep\",\"color\":\"gray\"}"));
+        lore.add(string("{\"text\":\"Owner: Someone\",\"color\":\"dark_gray\"}"));
+        display.a("Lore", lore);
+        tag.a("display", display);
+        item.a("tag", tag);
+        return item;
+    }
+
+    private static NBTTagCompound writtenBook(Random random) {
+        NBTTagCompound item = new NBTTagCompound();
+        item.a("id", string("minecraft:written_book"));
+        item.a("Count", NBTTagByte.a((byte) 1));
+        NBTTagCompound tag = new NBTTagCompound();
+        tag.a("author", string("Author"));
+        tag.a("title", string("A Long Story"));
+        NBTTagList pages = new NBTTagList();
+        for (int i = 0; i < 50; i += 1) {
+            StringBuilder sb = new StringBuilder("{\"text\":\"");
+            for (int j = 0; j < 200; j += 1) sb.append((char) ('a' + random.nextInt(26)));
+            pages.add(string(sb.append("\"}").toString()));
+        }
+        tag.a("pages", pages);
+        item.a("tag", tag);
+        return item;
+    }
+
+    private static NBTTagCompound shulkerBox(Random random) {
+        NBTTagCompound item = new NBTTagCompound();
+        item.a("id", string("minecraft:shulker_box"));
+        item.a("Count", NBTTagByte.a((byte) 1));
+        NBTTagList items = new NBTTagList();
+        for (int i = 0; i < 27; i += 1) items.add(smallItem(random, i));
+        NBTTagCompound blockEntityTag = new NBTTagCompound();
+        blockEntityTag.a("id", string("minecraft:shulker_box"));
+        blockEntityTag.a("Items", items);
+        NBTTagCompound tag = new NBTTagCompound();
+        tag.a("BlockEntityTag", blockEntityTag);
+        item.a("tag", tag);
+        return item;
+    }
+
+    private static NBTBase doubles(Random random, int count) {
+        NBTTagList list = new NBTTagList();
+        for (int i = 0; i < count; i += 1) list.add(NBTTagDouble.a(random.nextDouble() * 1000.0));
+        return list;
+    }
+
+    private static NBTBase floats(Random random, int count) {
+        NBTTagList list = new NBTTagList();
+        for (int i = 0; i < count; i += 1) list.add(NBTTagFloat.a(random.nextFloat() * 360.0f));
+        return list;
+    }
+
+    private static NBTTagCompound villager(Random random) {
+        NBTTagCompound entity = new NBTTagCompound();
+        entity.a("id", string("minecraft:villager"));
+        entity.a("Pos", doubles(random, 3));
+        entity.a("Motion", doubles(random, 3));
+        entity.a("Rotation", floats(random, 2));
+        entity.a("UUID", new NBTTagIntArray(new int[] {random.nextInt(), random.nextInt(),
+                                                        random.nextInt(), random.nextInt()}));
+        entity.a("Health", NBTTagFloat.a(20.0f));
+        entity.a("Xp", NBTTagInt.a(random.nextInt(250)));
+        entity.a("LastRestock", NBTTagLong.a(random.nextLong()));
+        NBTTagCompound villagerData = new NBTTagCompound();
+        villagerData.a("level", NBTTagInt.a(5));
+        villagerData.a("profession", string("minecraft:weaponsmith"));
+        villagerData.a("type", string("minecraft:plains"));
+        entity.a("VillagerData", villagerData);
+        NBTTagList recipes = new NBTTagList();
+        for (int i = 0; i < 10; i += 1) {
+            NBTTagCompound recipe = new NBTTagCompound();
+            recipe.a("buy", smallItem(random, 0));
+            recipe.a("sell", smallItem(random, 0));
+            recipe.a("maxUses", NBTTagInt.a(12));
+            recipe.a("uses", NBTTagInt.a(random.nextInt(12)));
+            recipe.a("priceMultiplier", NBTTagFloat.a(0.2f));
+            recipe.a("rewardExp", NBTTagByte.a((byte) 1));
+            recipes.add(recipe);
+        }
+        NBTTagCompound offers = new NBTTagCompound();
+        offers.a("Recipes", recipes);
+        entity.a("Offers", offers);
+        NBTTagList gossips = new NBTTagList();
+        for (int i = 0; i < 20; i += 1) {
+            NBTTagCompound gossip = new NBTTagCompound();
+            gossip.a("Type", string("minor_positive"));
+            gossip.a("Value", NBTTagInt.a(random.nextInt(100)));
+            gossip.a("Target", new NBTTagIntArray(new int[] {random.nextInt(), random.nextInt(),
+                                                             random.nextInt(), random.nextInt()}));
+            gossips.add(gossip);
+        }
+        entity.a("Gossips", gossips);
+        return entity;
+    }
+
+    private static NBTTagCompound bigArrays(Random random) {
+        NBTTagCompound result = new NBTTagCompound();
+        int[] ints = new int[4096];
+        for (int i = 0; i < ints.length; i += 1) ints[i] = random.nextInt();
+        long[] longs = new long[4096];
+        for (int i = 0; i < longs.length; i += 1) longs[i] = random.nextLong();
+        result.a("ints", new NBTTagIntArray(ints));
+        result.a("longs", new NBTTagLongArray(longs));
+        return result;
+    }
+}
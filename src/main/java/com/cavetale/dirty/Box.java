@@ -24,4 +24,14 @@ public final class Box {
         if (bz == Integer.MIN_VALUE || bz == Integer.MAX_VALUE) return null;
         return new Box(List.of(ax, ay, az), List.of(bx, by, bz));
     }
+
+    /**
+     * Check if a block position is inside this box, borders
+     * included.
+     */
+    public boolean contains(int x, int y, int z) {
+        return x >= min.get(0) && x <= max.get(0)
+            && y >= min.get(1) && y <= max.get(1)
+            && z >= min.get(2) && z <= max.get(2);
+    }
 }
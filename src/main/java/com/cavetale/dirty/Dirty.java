@@ -1,11 +1,22 @@
 package com.cavetale.dirty;
 
-import com.google.gson.Gson;
-import java.lang.reflect.Field;
+import com.cavetale.dirty.DirtyMetrics.Call;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 import lombok.NonNull;
 import net.minecraft.core.BlockPosition;
 import net.minecraft.nbt.NBTBase;
@@ -25,6 +36,7 @@ import net.minecraft.server.level.WorldServer;
 import net.minecraft.world.entity.Entity;
 import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.level.block.entity.TileEntity;
+import net.minecraft.world.level.block.entity.TileEntityTypes;
 import net.minecraft.world.level.chunk.Chunk;
 import net.minecraft.world.level.levelgen.structure.Structure;
 import net.minecraft.world.level.levelgen.structure.StructureBoundingBox;
@@ -42,7 +54,22 @@ import org.bukkit.craftbukkit.v1_19_R1.inventory.CraftItemStack;
  * modify, store.
  */
 public final class Dirty {
-    private static Field fieldCraftItemStackHandle = null;
+    private static final int SKULL_TEMPLATE_LIMIT = 4096;
+    private static final Map<SkullTexture, NBTTagCompound> SKULL_TEMPLATES = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SkullTexture, NBTTagCompound> eldest) {
+                return size() > SKULL_TEMPLATE_LIMIT;
+            }
+        };
+    private static final ItemSerializationCache ITEM_CACHE = new ItemSerializationCache(1_000_000L);
+    private static final ClassValue<String> STRUCTURE_NAMES = new ClassValue<>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            String name = type.getSimpleName();
+            if (name.endsWith("Structure")) name = name.substring(0, name.length() - 9);
+            return Util.camelToSnakeCase(name);
+        }
+    };
     private Dirty() { }
 
     /**
@@ -54,18 +81,22 @@ public final class Dirty {
      * Array, List, Map.
      */
     public static Object fromTag(NBTBase value) {
+        return DirtyMetrics.timed(Call.FROM_TAG, () -> fromTag0(value));
+    }
+
+    static Object fromTag0(NBTBase value) {
         if (value == null) {
             return null;
         } else if (value instanceof NBTTagCompound nbtTagCompound) {
             Map<String, Object> result = new HashMap<>();
             for (Map.Entry<String, NBTBase> entry : nbtTagCompound.x.entrySet()) {
-                result.put(entry.getKey(), fromTag(entry.getValue()));
+                result.put(entry.getKey(), fromTag0(entry.getValue()));
             }
             return result;
         } else if (value instanceof NBTTagList nbtTagList) {
             List<Object> result = new ArrayList<>();
             for (int i = 0; i < nbtTagList.size(); i += 1) {
-                result.add(fromTag(nbtTagList.get(i)));
+                result.add(fromTag0(nbtTagList.get(i)));
             }
             return result;
         } else if (value instanceof NBTTagString nbtTagString) {
@@ -94,22 +125,54 @@ public final class Dirty {
         }
     }
 
+    /**
+     * Like fromTag, but the result is canonical: maps and lists are
+     * immutable and sized to their contents, keys are interned, and
+     * equal subtrees and strings are shared with earlier results.
+     * Use this for tags which are kept around in large numbers.
+     *
+     * Arrays are copies and not shared, since they are mutable.
+     *
+     * @param value The NBT value.
+     * @return value A raw value, as in fromTag, but immutable.
+     */
+    public static Object fromTagCanonical(NBTBase value) {
+        return DirtyMetrics.timed(Call.FROM_TAG_CANONICAL, () -> TagCanonicalizer.canonical(value));
+    }
+
+    /**
+     * Empty the table of shared subtrees used by fromTagCanonical.
+     */
+    public static void clearCanonicalTable() {
+        TagCanonicalizer.clear();
+    }
+
     /**
      * Turn any JSON object into an NBT.  Works recursively on
-     * Maps and Lists.
+     * Maps and Lists.  Views, see viewTag, are not converted but
+     * return their backing NBT, or a copy of it if the view is nested
+     * in a Map or List, so no NBT ends up with two parents.
      *
      * @param value The raw value, such as Number, Boolean, String, Array, List, Map.
      * @return An NBT structure.
      */
     public static Object toTag(Object value) {
+        return DirtyMetrics.timed(Call.TO_TAG, () -> toTag0(value));
+    }
+
+    static Object toTag0(Object value) {
         if (value == null) {
             return null;
+        } else if (value instanceof TagView tagView) {
+            return tagView.tag;
+        } else if (value instanceof TagView.ListView listView) {
+            return listView.list;
         } else if (value instanceof Map) {
             NBTTagCompound tag = new NBTTagCompound();
             @SuppressWarnings("unchecked")
             Map<String, Object> map = (Map<String, Object>) value;
             for (Map.Entry<String, Object> e : map.entrySet()) {
-                tag.a(e.getKey(), (NBTBase) toTag(e.getValue())); // set
+                tag.a(e.getKey(), TagView.unview(e.getValue())); // set
             }
             return tag;
         } else if (value instanceof List) {
@@ -117,7 +180,7 @@ public final class Dirty {
             @SuppressWarnings("unchecked")
             List<Object> list = (List<Object>) value;
             for (Object e : (List<Object>) list) {
-                tag.add((NBTBase) toTag(e));
+                tag.add(TagView.unview(e));
             }
             return tag;
         } else if (value instanceof String string) {
@@ -148,16 +211,125 @@ public final class Dirty {
         }
     }
 
-    private static Field getFieldCraftItemStackHandle() {
-        if (fieldCraftItemStackHandle == null) {
-            try {
-                fieldCraftItemStackHandle = CraftItemStack.class.getDeclaredField("handle");
-            } catch (NoSuchFieldException nsfe) {
-                nsfe.printStackTrace();
-                fieldCraftItemStackHandle = null;
-            }
+    /**
+     * Turn an NBT into a typed value.  Arrays are copied.
+     *
+     * @param value The NBT value.
+     * @return The typed value, or null if value is null.
+     */
+    public static NbtValue toValue(NBTBase value) {
+        return toValue(value, NbtValue.ArrayMode.COPY);
+    }
+
+    /**
+     * Turn an NBT into a typed value.
+     *
+     * @param value The NBT value.
+     * @param arrayMode Whether byte, int, and long arrays are copied
+     * or shared with the NBT.
+     * @return The typed value, or null if value is null.
+     */
+    public static NbtValue toValue(NBTBase value, NbtValue.ArrayMode arrayMode) {
+        return DirtyMetrics.timed(Call.TO_VALUE, () -> NbtValues.toValue(value, arrayMode));
+    }
+
+    /**
+     * Turn a typed compound into NBT.  Arrays are copied.
+     */
+    public static NBTTagCompound toNbt(NbtValue.CompoundTag value) {
+        return (NBTTagCompound) toNbt(value, NbtValue.ArrayMode.COPY);
+    }
+
+    /**
+     * Turn a typed value into NBT.
+     *
+     * @param value The typed value.
+     * @param arrayMode Whether byte, int, and long arrays are copied
+     * or shared with the result.
+     * @return The NBT value, or null if value is null.
+     */
+    public static NBTBase toNbt(NbtValue value, NbtValue.ArrayMode arrayMode) {
+        return DirtyMetrics.timed(Call.TO_NBT, () -> NbtValues.toNbt(value, arrayMode));
+    }
+
+    /**
+     * Write an NBT value as JSON directly, without building the
+     * container tree of fromTag first.  The result is the same as
+     * serializing fromTag(value) with Gson.
+     *
+     * @param value The NBT value, may be null.
+     * @param out The configured JsonWriter.
+     */
+    public static void writeJson(NBTBase value, JsonWriter out) throws IOException {
+        DirtyMetrics.timed(Call.WRITE_JSON, () -> {
+                NbtJsonWriter.COMPACT.write(value, out);
+                return value;
+            });
+    }
+
+    /**
+     * Write an NBT value as JSON directly.
+     *
+     * @param value The NBT value, may be null.
+     * @param out The output.
+     * @param options The JSON options.
+     */
+    public static void writeJson(NBTBase value, Appendable out, JsonOption... options) throws IOException {
+        DirtyMetrics.timed(Call.WRITE_JSON, () -> {
+                NbtJsonWriter.of(options).write(value, out);
+                return value;
+            });
+    }
+
+    /**
+     * Turn an NBT value into a JSON string directly.
+     *
+     * @param value The NBT value, may be null.
+     * @param options The JSON options.
+     * @return The JSON string.
+     */
+    public static String toJson(NBTBase value, JsonOption... options) {
+        return DirtyMetrics.timed(Call.TO_JSON, () -> toJson0(value, options));
+    }
+
+    static String toJson0(NBTBase value, JsonOption... options) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            NbtJsonWriter.of(options).write(value, sb);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Read JSON directly into NBT.  Type hints in compound keys, as
+     * written with JsonOption.TYPED, are honored.  Otherwise,
+     * integral numbers become int or long, and the rest double.
+     *
+     * @param in The JsonReader.
+     * @return The NBT value, or null if the JSON is null.
+     */
+    public static NBTBase readJson(JsonReader in) throws IOException {
+        return DirtyMetrics.timed(Call.READ_JSON, () -> NbtJsonReader.read(in));
+    }
+
+    /**
+     * Read a JSON string directly into NBT.
+     * @see #readJson(JsonReader)
+     */
+    public static NBTBase readJson(String json) {
+        return DirtyMetrics.timed(Call.READ_JSON, () -> readJson0(json));
+    }
+
+    static NBTBase readJson0(String json) {
+        try {
+            JsonReader in = new JsonReader(new StringReader(json));
+            in.setLenient(true);
+            return NbtJsonReader.read(in);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
         }
-        return fieldCraftItemStackHandle;
     }
 
     /**
@@ -166,19 +338,69 @@ public final class Dirty {
      * modified.
      */
     public static Map<String, Object> getItemTag(org.bukkit.inventory.ItemStack bukkitItem) {
-        try {
-            if (!(bukkitItem instanceof CraftItemStack)) return null;
-            CraftItemStack obcItem = (CraftItemStack) bukkitItem;
-            getFieldCraftItemStackHandle().setAccessible(true);
-            ItemStack nmsItem = (ItemStack) fieldCraftItemStackHandle.get(obcItem);
-            if (nmsItem == null) return null;
-            NBTTagCompound tag = nmsItem.u(); // getTag
-            @SuppressWarnings("unchecked")
-            Map<String, Object> map = (Map<String, Object>) fromTag(tag);
-            return map;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        return DirtyMetrics.timed(Call.GET_ITEM_TAG, () -> {
+                NBTTagCompound tag = getItemNbt0(bukkitItem);
+                @SuppressWarnings("unchecked")
+                Map<String, Object> map = (Map<String, Object>) fromTag0(tag);
+                return map;
+            });
+    }
+
+    /**
+     * Get an item's tag as NBT.  This is the live tag of the item,
+     * not a copy.
+     */
+    public static NBTTagCompound getItemNbt(org.bukkit.inventory.ItemStack bukkitItem) {
+        if (!(bukkitItem instanceof CraftItemStack)) return null;
+        return DirtyMetrics.timed(Call.GET_ITEM_NBT, () -> getItemNbt0(bukkitItem));
+    }
+
+    static NBTTagCompound getItemNbt0(org.bukkit.inventory.ItemStack bukkitItem) {
+        if (!(bukkitItem instanceof CraftItemStack craftItemStack)) return null;
+        ItemStack nmsItem = NmsAccess.getHandle(craftItemStack);
+        return nmsItem != null ? NmsAccess.getTag(nmsItem) : null;
+    }
+
+    /**
+     * Get a Map view of an NBT compound.  Nothing is copied up
+     * front; values are converted like fromTag when accessed, child
+     * compounds and lists become views themselves.  Changes to the
+     * view write through to the compound.
+     *
+     * Passing a view to toTag, or any method that calls it, yields
+     * the backing compound without conversion.
+     *
+     * @param tag The compound.
+     * @return The view, or null if tag is null.
+     */
+    public static Map<String, Object> viewTag(NBTTagCompound tag) {
+        return tag != null ? new TagView(tag) : null;
+    }
+
+    /**
+     * Get a view of an item's live tag.  Writes change the item
+     * immediately, no setItemTag required.
+     * @return The view, or null if the item has no tag.
+     */
+    public static Map<String, Object> viewItemTag(org.bukkit.inventory.ItemStack bukkitItem) {
+        return viewTag(getItemNbt(bukkitItem));
+    }
+
+    /**
+     * Get a view of a freshly saved entity tag.  To apply changes,
+     * pass the view to setEntityTag.
+     */
+    public static Map<String, Object> viewEntityTag(org.bukkit.entity.Entity entity) {
+        return viewTag(getEntityNbt(entity));
+    }
+
+    /**
+     * Get a view of a freshly saved block tag.  To apply changes,
+     * pass the view to setBlockTag.
+     * @return The view, or null if there is no tile entity.
+     */
+    public static Map<String, Object> viewBlockTag(org.bukkit.block.Block bukkitBlock) {
+        return viewTag(getBlockNbt(bukkitBlock));
     }
 
     /**
@@ -187,23 +409,101 @@ public final class Dirty {
      * below.
      */
     public static Map<String, Object> serializeItem(org.bukkit.inventory.ItemStack bukkitItem) {
+        return DirtyMetrics.timed(Call.SERIALIZE_ITEM, () -> {
+                NBTTagCompound tag = saveItemNbt0(bukkitItem);
+                @SuppressWarnings("unchecked")
+                Map<String, Object> map = (Map<String, Object>) fromTag0(tag);
+                return map;
+            });
+    }
+
+    /**
+     * Completely serialize an item into a canonical, immutable
+     * structure.  See fromTagCanonical.
+     */
+    public static Map<String, Object> serializeItemCanonical(org.bukkit.inventory.ItemStack bukkitItem) {
+        return DirtyMetrics.timed(Call.SERIALIZE_ITEM_CANONICAL, () -> {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> map = (Map<String, Object>) TagCanonicalizer.canonical(saveItemNbt0(bukkitItem));
+                return map;
+            });
+    }
+
+    /**
+     * Completely serialize an item into a typed compound, including
+     * `id` and `Count`.  See deserializeItem(NbtValue.CompoundTag).
+     */
+    public static NbtValue.CompoundTag serializeItemValue(org.bukkit.inventory.ItemStack bukkitItem) {
+        return (NbtValue.CompoundTag) toValue(saveItemNbt(bukkitItem), NbtValue.ArrayMode.SHARE);
+    }
+
+    /**
+     * Get an item's tag as a typed compound.  Arrays are copied, so
+     * changes do not affect the item.
+     * @return The compound, or null if the item has no tag.
+     */
+    public static NbtValue.CompoundTag getItemValue(org.bukkit.inventory.ItemStack bukkitItem) {
+        return (NbtValue.CompoundTag) toValue(getItemNbt(bukkitItem));
+    }
+
+    /**
+     * Like serializeItem, but memoized.  The result is immutable and
+     * shared with other callers.
+     */
+    public static Map<String, Object> serializeItemCached(org.bukkit.inventory.ItemStack bukkitItem) {
+        return DirtyMetrics.timed(Call.SERIALIZE_ITEM_CACHED, () -> ITEM_CACHE.serializeItem(bukkitItem));
+    }
+
+    /**
+     * Like getItemTag, but memoized.  The result is immutable and
+     * shared with other callers.
+     */
+    public static Map<String, Object> getItemTagCached(org.bukkit.inventory.ItemStack bukkitItem) {
+        return DirtyMetrics.timed(Call.GET_ITEM_TAG_CACHED, () -> ITEM_CACHE.getItemTag(bukkitItem));
+    }
+
+    /**
+     * Get the cache behind serializeItemCached and getItemTagCached,
+     * for its counters.
+     */
+    public static ItemSerializationCache getItemCache() {
+        return ITEM_CACHE;
+    }
+
+    /**
+     * Completely serialize an item to JSON, including `id` and
+     * `Count`.  Type hints are always written, so deserializeItem
+     * restores the exact same NBT.
+     */
+    public static String serializeItemJson(org.bukkit.inventory.ItemStack bukkitItem, JsonOption... options) {
+        return DirtyMetrics.timed(Call.SERIALIZE_ITEM_JSON, () -> {
+                NBTTagCompound tag = saveItemNbt0(bukkitItem);
+                boolean pretty = false;
+                for (JsonOption option : options) {
+                    if (option == JsonOption.PRETTY) pretty = true;
+                }
+                return pretty
+                    ? toJson0(tag, JsonOption.TYPED, JsonOption.PRETTY)
+                    : toJson0(tag, JsonOption.TYPED);
+            });
+    }
+
+    /**
+     * Completely save an item as NBT, including `id` and `Count`.
+     * @return A new compound.
+     */
+    public static NBTTagCompound saveItemNbt(org.bukkit.inventory.ItemStack bukkitItem) {
         if (bukkitItem == null) throw new NullPointerException("bukkitItem cannot be null");
-        try {
-            ItemStack nmsItem;
-            if (bukkitItem instanceof CraftItemStack) {
-                CraftItemStack obcItem = (CraftItemStack) bukkitItem;
-                nmsItem = (ItemStack) fieldCraftItemStackHandle.get(obcItem);
-            } else {
-                nmsItem = CraftItemStack.asNMSCopy(bukkitItem);
-            }
-            NBTTagCompound tag = new NBTTagCompound();
-            nmsItem.b(tag); // save
-            @SuppressWarnings("unchecked")
-            Map<String, Object> map = (Map<String, Object>) fromTag(tag);
-            return map;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        return DirtyMetrics.timed(Call.SAVE_ITEM_NBT, () -> saveItemNbt0(bukkitItem));
+    }
+
+    static NBTTagCompound saveItemNbt0(org.bukkit.inventory.ItemStack bukkitItem) {
+        ItemStack nmsItem = bukkitItem instanceof CraftItemStack craftItemStack
+            ? NmsAccess.getHandle(craftItemStack)
+            : CraftItemStack.asNMSCopy(bukkitItem);
+        NBTTagCompound tag = new NBTTagCompound();
+        if (nmsItem != null) NmsAccess.save(nmsItem, tag);
+        return tag;
     }
 
     /**
@@ -213,7 +513,9 @@ public final class Dirty {
      */
     public static org.bukkit.inventory.ItemStack deserializeItem(Map<String, Object> json) {
         if (json == null) throw new NullPointerException("json cannot be null");
-        return ItemStack.a((NBTTagCompound) toTag(json)).asBukkitMirror();
+        return DirtyMetrics.timed(Call.DESERIALIZE_ITEM, () -> {
+                return ItemStack.a((NBTTagCompound) toTag0(json)).asBukkitMirror(); // of
+            });
     }
 
     /**
@@ -223,9 +525,180 @@ public final class Dirty {
      */
     public static org.bukkit.inventory.ItemStack deserializeItem(String json) {
         if (json == null) throw new NullPointerException("json cannot be null");
-        @SuppressWarnings("unchecked")
-        Map<String, Object> map = (Map<String, Object>) new Gson().fromJson(json, Map.class);
-        return ItemStack.a((NBTTagCompound) toTag(map)).asBukkitMirror();
+        try {
+            return DirtyMetrics.timed(Call.DESERIALIZE_ITEM, () -> {
+                    JsonReader in = new JsonReader(new StringReader(json));
+                    in.setLenient(true);
+                    return ItemStack.a(NbtJsonReader.readCompound(in)).asBukkitMirror(); // of
+                });
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Deserialize a full item from a typed compound, as made by
+     * serializeItemValue.
+     * @param value The compound.
+     * @return The item.
+     */
+    public static org.bukkit.inventory.ItemStack deserializeItem(NbtValue.CompoundTag value) {
+        if (value == null) throw new NullPointerException("value cannot be null");
+        return DirtyMetrics.timed(Call.DESERIALIZE_ITEM, () -> {
+                NBTTagCompound tag = (NBTTagCompound) NbtValues.toNbt(value, NbtValue.ArrayMode.COPY);
+                return ItemStack.a(tag).asBukkitMirror(); // of
+            });
+    }
+
+    /**
+     * Completely serialize many items, such as the contents of an
+     * inventory.  The items are saved on the calling thread, then
+     * converted in parallel, including the contents of nested
+     * containers like shulker boxes.  Small inputs are converted on
+     * the calling thread.  See serializeItemsAsync to not wait.
+     * @param bukkitItems The items.  Null entries are allowed.
+     * @return The results in order, with null for null items.
+     */
+    public static List<Map<String, Object>> serializeItems(List<org.bukkit.inventory.ItemStack> bukkitItems) {
+        return DirtyMetrics.timed(Call.SERIALIZE_ITEMS, () -> ItemBatch.fromTags(saveItemNbts(bukkitItems)));
+    }
+
+    private static List<NBTTagCompound> saveItemNbts(List<org.bukkit.inventory.ItemStack> bukkitItems) {
+        List<NBTTagCompound> tags = new ArrayList<>(bukkitItems.size());
+        for (org.bukkit.inventory.ItemStack item : bukkitItems) {
+            tags.add(item != null ? saveItemNbt0(item) : null);
+        }
+        return tags;
+    }
+
+    /**
+     * Deserialize many items, the reverse of serializeItems.  The
+     * maps are converted in parallel, the items are created on the
+     * calling thread.
+     * @param json The item structures.  Null entries are allowed.
+     * @return The items in order, with null for null entries.
+     */
+    public static List<org.bukkit.inventory.ItemStack> deserializeItems(List<Map<String, Object>> json) {
+        if (json == null) throw new NullPointerException("json cannot be null");
+        return DirtyMetrics.timed(Call.DESERIALIZE_ITEMS, () -> {
+                List<NBTTagCompound> tags = ItemBatch.toTags(json);
+                List<org.bukkit.inventory.ItemStack> result = new ArrayList<>(tags.size());
+                for (NBTTagCompound tag : tags) {
+                    result.add(tag != null ? ItemStack.a(tag).asBukkitMirror() : null); // of
+                }
+                return result;
+            });
+    }
+
+    /**
+     * Deserialize many items from one stream.  The input may be a
+     * JSON array of items, or newline delimited items (NDJSON), or
+     * any mix of the two.
+     * @param reader The reader.
+     * @return The items in order.
+     */
+    public static List<org.bukkit.inventory.ItemStack> deserializeItems(Reader reader) throws IOException {
+        if (reader == null) throw new NullPointerException("reader cannot be null");
+        return DirtyMetrics.timed(Call.DESERIALIZE_ITEMS, () -> {
+                List<org.bukkit.inventory.ItemStack> result = new ArrayList<>();
+                JsonReader in = new JsonReader(reader);
+                in.setLenient(true);
+                while (in.peek() != JsonToken.END_DOCUMENT) {
+                    if (in.peek() == JsonToken.BEGIN_ARRAY) {
+                        in.beginArray();
+                        while (in.hasNext()) {
+                            result.add(ItemStack.a(NbtJsonReader.readCompound(in)).asBukkitMirror()); // of
+                        }
+                        in.endArray();
+                    } else {
+                        result.add(ItemStack.a(NbtJsonReader.readCompound(in)).asBukkitMirror()); // of
+                    }
+                }
+                return result;
+            });
+    }
+
+    /**
+     * Compute the structural hash of a tag.  Equal tags have equal
+     * hashes regardless of key order.  See NbtHash.
+     */
+    public static NbtHash hashTag(NBTBase value) {
+        return DirtyMetrics.timed(Call.HASH_TAG, () -> NbtHash.of(value));
+    }
+
+    /**
+     * Compute the structural hash of a full item, including `id` and
+     * `Count`.  Equal items have equal hashes, and unequal ones differ
+     * with overwhelming probability, unless crafted to collide.
+     * ItemStore references start from it.
+     */
+    public static NbtHash hashItem(org.bukkit.inventory.ItemStack bukkitItem) {
+        return DirtyMetrics.timed(Call.HASH_ITEM, () -> NbtHash.of(saveItemNbt0(bukkitItem)));
+    }
+
+    /**
+     * Encode a full item in the compact binary format.
+     * @param bukkitItem The item.
+     * @param compress Deflate the result.
+     * @return The bytes.
+     */
+    public static byte[] encodeItem(org.bukkit.inventory.ItemStack bukkitItem, boolean compress) {
+        return DirtyMetrics.timed(Call.ENCODE_ITEM, () -> {
+                return NbtBinary.encode(List.of(saveItemNbt0(bukkitItem)), compress);
+            });
+    }
+
+    /**
+     * Decode a full item from the compact binary format.
+     * @param data The bytes, as produced by encodeItem.
+     * @return The item.
+     */
+    public static org.bukkit.inventory.ItemStack decodeItem(byte[] data) {
+        return DirtyMetrics.timed(Call.DECODE_ITEM, () -> {
+                List<NBTTagCompound> tags = NbtBinary.decode(data);
+                if (tags.size() != 1 || tags.get(0) == null) {
+                    throw new IllegalArgumentException("Dirty.decodeItem: Expected one item, got " + tags.size());
+                }
+                return ItemStack.a(tags.get(0)).asBukkitMirror(); // of
+            });
+    }
+
+    /**
+     * Encode all items of a container, compressed, in the compact
+     * binary format.  Keys and strings are stored once for the whole
+     * container.  Null and air slots are preserved as null.
+     * @param items The items.
+     * @return The bytes.
+     */
+    public static byte[] encodeInventory(org.bukkit.inventory.ItemStack[] items) {
+        return encodeInventory(items, true);
+    }
+
+    public static byte[] encodeInventory(org.bukkit.inventory.ItemStack[] items, boolean compress) {
+        return DirtyMetrics.timed(Call.ENCODE_INVENTORY, () -> {
+                List<NBTTagCompound> tags = new ArrayList<>(items.length);
+                for (org.bukkit.inventory.ItemStack item : items) {
+                    tags.add(item == null || item.getType().isAir() ? null : saveItemNbt0(item));
+                }
+                return NbtBinary.encode(tags, compress);
+            });
+    }
+
+    /**
+     * Decode all items of a container.
+     * @param data The bytes, as produced by encodeInventory.
+     * @return The items, with null for empty slots.
+     */
+    public static org.bukkit.inventory.ItemStack[] decodeInventory(byte[] data) {
+        return DirtyMetrics.timed(Call.DECODE_INVENTORY, () -> {
+                List<NBTTagCompound> tags = NbtBinary.decode(data);
+                org.bukkit.inventory.ItemStack[] result = new org.bukkit.inventory.ItemStack[tags.size()];
+                for (int i = 0; i < result.length; i += 1) {
+                    NBTTagCompound tag = tags.get(i);
+                    if (tag != null) result[i] = ItemStack.a(tag).asBukkitMirror(); // of
+                }
+                return result;
+            });
     }
 
     /**
@@ -238,77 +711,305 @@ public final class Dirty {
      */
     public static org.bukkit.inventory.ItemStack
         setItemTag(org.bukkit.inventory.ItemStack bukkitItem, Map<String, Object> json) {
-        try {
-            CraftItemStack obcItem;
-            ItemStack nmsItem;
-            if (bukkitItem instanceof CraftItemStack) {
-                obcItem = (CraftItemStack) bukkitItem;
-                getFieldCraftItemStackHandle().setAccessible(true);
-                nmsItem = (ItemStack) fieldCraftItemStackHandle.get(obcItem);
-            } else {
-                nmsItem = CraftItemStack.asNMSCopy(bukkitItem);
-                obcItem = CraftItemStack.asCraftMirror(nmsItem);
-            }
-            // if (!nmsItem.hasTag()) {
-            //     nmsItem.setTag(new NBTTagCompound());
-            // }
-            NBTTagCompound tag = (NBTTagCompound) toTag(json);
-            nmsItem.c(tag); // setTag
-            return obcItem;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        return DirtyMetrics.timed(Call.SET_ITEM_TAG, () -> {
+                CraftItemStack obcItem;
+                ItemStack nmsItem;
+                if (bukkitItem instanceof CraftItemStack) {
+                    obcItem = (CraftItemStack) bukkitItem;
+                    nmsItem = NmsAccess.getHandle(obcItem);
+                } else {
+                    nmsItem = CraftItemStack.asNMSCopy(bukkitItem);
+                    obcItem = CraftItemStack.asCraftMirror(nmsItem);
+                }
+                // if (!nmsItem.hasTag()) {
+                //     nmsItem.setTag(new NBTTagCompound());
+                // }
+                NmsAccess.setTag(nmsItem, (NBTTagCompound) toTag0(json));
+                return obcItem;
+            });
     }
 
     public static Map<String, Object> getBlockTag(org.bukkit.block.Block bukkitBlock) {
+        return DirtyMetrics.timed(Call.GET_BLOCK_TAG, () -> {
+                NBTTagCompound tag = getBlockNbt0(bukkitBlock);
+                @SuppressWarnings("unchecked")
+                Map<String, Object> map = tag != null ? (Map<String, Object>) fromTag0(tag) : null;
+                return map;
+            });
+    }
+
+    /**
+     * Save a block's tile entity as NBT.
+     * @return A new compound, or null if there is no tile entity.
+     */
+    public static NBTTagCompound getBlockNbt(org.bukkit.block.Block bukkitBlock) {
+        return DirtyMetrics.timed(Call.GET_BLOCK_NBT, () -> getBlockNbt0(bukkitBlock));
+    }
+
+    static NBTTagCompound getBlockNbt0(org.bukkit.block.Block bukkitBlock) {
         CraftWorld craftWorld = (CraftWorld) bukkitBlock.getWorld();
         BlockPosition pos = new BlockPosition(bukkitBlock.getX(),
                                               bukkitBlock.getY(),
                                               bukkitBlock.getZ());
         WorldServer worldServer = craftWorld.getHandle();
-        TileEntity tileEntity = worldServer.c_(pos); // getTileEntity
-        if (tileEntity == null) return null;
-        NBTTagCompound tag = tileEntity.o(); // saveWithoutMetadata
-        @SuppressWarnings("unchecked")
-        Map<String, Object> map = (Map<String, Object>) fromTag(tag);
-        return map;
+        TileEntity tileEntity = NmsAccess.getTileEntity(worldServer, pos);
+        return tileEntity != null ? NmsAccess.save(tileEntity) : null;
+    }
+
+    /**
+     * Save a block's tile entity into a typed compound.
+     * @return The compound, or null if there is no tile entity.
+     */
+    public static NbtValue.CompoundTag getBlockValue(org.bukkit.block.Block bukkitBlock) {
+        return (NbtValue.CompoundTag) toValue(getBlockNbt(bukkitBlock), NbtValue.ArrayMode.SHARE);
+    }
+
+    /**
+     * Load a block's tile entity from a typed compound.
+     * @return true if there was a tile entity, false otherwise.
+     */
+    public static boolean setBlockValue(org.bukkit.block.Block bukkitBlock, NbtValue.CompoundTag value) {
+        NBTTagCompound loaded = DirtyMetrics.timed(Call.SET_BLOCK_TAG, () -> {
+                CraftWorld craftWorld = (CraftWorld) bukkitBlock.getWorld();
+                BlockPosition pos = new BlockPosition(bukkitBlock.getX(),
+                                                      bukkitBlock.getY(),
+                                                      bukkitBlock.getZ());
+                TileEntity tileEntity = NmsAccess.getTileEntity(craftWorld.getHandle(), pos);
+                if (tileEntity == null) return null;
+                NBTTagCompound tag = (NBTTagCompound) NbtValues.toNbt(value, NbtValue.ArrayMode.COPY);
+                NmsAccess.load(tileEntity, tag);
+                return tag;
+            });
+        return loaded != null;
     }
 
     public static Map<String, Object> getBlockTag(org.bukkit.block.BlockState bukkitBlockState) {
+        return DirtyMetrics.timed(Call.GET_BLOCK_TAG, () -> {
+                NBTTagCompound tag = getBlockNbt0(bukkitBlockState);
+                @SuppressWarnings("unchecked")
+                Map<String, Object> map = tag != null ? (Map<String, Object>) fromTag0(tag) : null;
+                return map;
+            });
+    }
+
+    public static NBTTagCompound getBlockNbt(org.bukkit.block.BlockState bukkitBlockState) {
         if (!(bukkitBlockState instanceof CraftBlockEntityState)) return null;
-        CraftBlockEntityState cbes = (CraftBlockEntityState) bukkitBlockState;
-        NBTTagCompound tag = cbes.getSnapshotNBT();
-        @SuppressWarnings("unchecked")
-        Map<String, Object> map = (Map<String, Object>) fromTag(tag);
-        return map;
+        return DirtyMetrics.timed(Call.GET_BLOCK_NBT, () -> getBlockNbt0(bukkitBlockState));
+    }
+
+    static NBTTagCompound getBlockNbt0(org.bukkit.block.BlockState bukkitBlockState) {
+        return bukkitBlockState instanceof CraftBlockEntityState cbes
+            ? cbes.getSnapshotNBT()
+            : null;
+    }
+
+    /**
+     * Get the tags of all tile entities in a chunk in one pass.  The
+     * cost scales with the number of tile entities, not with the
+     * volume of the chunk.
+     * @param bukkitChunk The chunk.
+     * @param type The tile entity type to filter by, or null for all.
+     * @return A map from block to tag, in chunk iteration order.
+     */
+    public static Map<org.bukkit.block.Block, NBTTagCompound>
+        getBlockNbts(org.bukkit.Chunk bukkitChunk, TileEntityTypes<?> type) {
+        return DirtyMetrics.timed(Call.GET_BLOCK_NBTS, () -> getBlockNbts0(bukkitChunk, type));
+    }
+
+    static Map<org.bukkit.block.Block, NBTTagCompound>
+        getBlockNbts0(org.bukkit.Chunk bukkitChunk, TileEntityTypes<?> type) {
+        Map<org.bukkit.block.Block, NBTTagCompound> result = new LinkedHashMap<>();
+        collectBlockNbts(bukkitChunk, type, null, result);
+        return result;
+    }
+
+    /**
+     * Get the tags of all tile entities within a box in one pass per
+     * chunk.  Chunks which are not loaded are skipped.
+     * @param world The world.
+     * @param box The box.
+     * @param type The tile entity type to filter by, or null for all.
+     * @return A map from block to tag.
+     */
+    public static Map<org.bukkit.block.Block, NBTTagCompound>
+        getBlockNbts(org.bukkit.World world, Box box, TileEntityTypes<?> type) {
+        return DirtyMetrics.timed(Call.GET_BLOCK_NBTS, () -> getBlockNbts0(world, box, type));
+    }
+
+    static Map<org.bukkit.block.Block, NBTTagCompound>
+        getBlockNbts0(org.bukkit.World world, Box box, TileEntityTypes<?> type) {
+        Map<org.bukkit.block.Block, NBTTagCompound> result = new LinkedHashMap<>();
+        for (int cz = box.min.get(2) >> 4; cz <= box.max.get(2) >> 4; cz += 1) {
+            for (int cx = box.min.get(0) >> 4; cx <= box.max.get(0) >> 4; cx += 1) {
+                if (!world.isChunkLoaded(cx, cz)) continue;
+                collectBlockNbts(world.getChunkAt(cx, cz), type, box, result);
+            }
+        }
+        return result;
+    }
+
+    public static Map<org.bukkit.block.Block, Map<String, Object>>
+        getBlockTags(org.bukkit.Chunk bukkitChunk, TileEntityTypes<?> type) {
+        return DirtyMetrics.timed(Call.GET_BLOCK_TAGS, () -> fromTags(getBlockNbts0(bukkitChunk, type)));
+    }
+
+    public static Map<org.bukkit.block.Block, Map<String, Object>> getBlockTags(org.bukkit.Chunk bukkitChunk) {
+        return DirtyMetrics.timed(Call.GET_BLOCK_TAGS, () -> fromTags(getBlockNbts0(bukkitChunk, null)));
+    }
+
+    public static Map<org.bukkit.block.Block, Map<String, Object>>
+        getBlockTags(org.bukkit.World world, Box box, TileEntityTypes<?> type) {
+        return DirtyMetrics.timed(Call.GET_BLOCK_TAGS, () -> fromTags(getBlockNbts0(world, box, type)));
+    }
+
+    public static Map<org.bukkit.block.Block, Map<String, Object>> getBlockTags(org.bukkit.World world, Box box) {
+        return DirtyMetrics.timed(Call.GET_BLOCK_TAGS, () -> fromTags(getBlockNbts0(world, box, null)));
+    }
+
+    /**
+     * Walk the chunk's own tile entity map.  The Bukkit block is only
+     * made for entries which are kept.
+     */
+    private static void collectBlockNbts(org.bukkit.Chunk bukkitChunk,
+                                         TileEntityTypes<?> type,
+                                         Box box,
+                                         Map<org.bukkit.block.Block, NBTTagCompound> result) {
+        Chunk nmsChunk = ((CraftChunk) bukkitChunk).getHandle();
+        org.bukkit.World world = bukkitChunk.getWorld();
+        for (Map.Entry<BlockPosition, TileEntity> entry : NmsAccess.getBlockEntities(nmsChunk).entrySet()) {
+            TileEntity tileEntity = entry.getValue();
+            if (type != null && NmsAccess.getType(tileEntity) != type) continue;
+            BlockPosition pos = entry.getKey();
+            int x = pos.u(); // getX
+            int y = pos.v(); // getY
+            int z = pos.w(); // getZ
+            if (box != null && !box.contains(x, y, z)) continue;
+            result.put(world.getBlockAt(x, y, z), NmsAccess.save(tileEntity));
+        }
+    }
+
+    private static <K> Map<K, Map<String, Object>> fromTags(Map<K, NBTTagCompound> tags) {
+        Map<K, Map<String, Object>> result = new LinkedHashMap<>();
+        for (Map.Entry<K, NBTTagCompound> entry : tags.entrySet()) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> map = (Map<String, Object>) fromTag0(entry.getValue());
+            result.put(entry.getKey(), map);
+        }
+        return result;
     }
 
     public static boolean setBlockTag(org.bukkit.block.Block bukkitBlock, Map<String, Object> json) {
-        CraftWorld craftWorld = (CraftWorld) bukkitBlock.getWorld();
-        BlockPosition pos = new BlockPosition(bukkitBlock.getX(),
-                                              bukkitBlock.getY(),
-                                              bukkitBlock.getZ());
-        WorldServer worldServer = craftWorld.getHandle();
-        TileEntity tileEntity = worldServer.c_(pos); // getTileEntity
-        if (tileEntity == null) return false;
-        NBTTagCompound tag = (NBTTagCompound) toTag(json);
-        tileEntity.a(tag);
-        return true;
+        NBTTagCompound loaded = DirtyMetrics.timed(Call.SET_BLOCK_TAG, () -> {
+                CraftWorld craftWorld = (CraftWorld) bukkitBlock.getWorld();
+                BlockPosition pos = new BlockPosition(bukkitBlock.getX(),
+                                                      bukkitBlock.getY(),
+                                                      bukkitBlock.getZ());
+                WorldServer worldServer = craftWorld.getHandle();
+                TileEntity tileEntity = NmsAccess.getTileEntity(worldServer, pos);
+                if (tileEntity == null) return null;
+                NBTTagCompound tag = (NBTTagCompound) toTag0(json);
+                NmsAccess.load(tileEntity, tag);
+                return tag;
+            });
+        return loaded != null;
     }
 
     public static Map<String, Object> getEntityTag(org.bukkit.entity.Entity entity) {
+        return DirtyMetrics.timed(Call.GET_ENTITY_TAG, () -> {
+                NBTTagCompound tag = getEntityNbt0(entity);
+                @SuppressWarnings("unchecked")
+                Map<String, Object> map = (Map<String, Object>) fromTag0(tag);
+                return map;
+            });
+    }
+
+    /**
+     * Save an entity into a typed compound.
+     */
+    public static NbtValue.CompoundTag getEntityValue(org.bukkit.entity.Entity entity) {
+        // The saved tag is not kept, so its arrays can be shared.
+        return (NbtValue.CompoundTag) toValue(getEntityNbt(entity), NbtValue.ArrayMode.SHARE);
+    }
+
+    /**
+     * Load an entity from a typed compound.  See setEntityTag.
+     */
+    public static void setEntityValue(org.bukkit.entity.Entity entity, NbtValue.CompoundTag value) {
+        DirtyMetrics.timed(Call.SET_ENTITY_TAG, () -> {
+                Entity nmsEntity = ((CraftEntity) entity).getHandle();
+                NBTTagCompound tag = (NBTTagCompound) NbtValues.toNbt(value, NbtValue.ArrayMode.COPY);
+                NmsAccess.load(nmsEntity, tag);
+                return tag;
+            });
+    }
+
+    /**
+     * Save an entity as NBT.
+     * @return A new compound.
+     */
+    public static NBTTagCompound getEntityNbt(org.bukkit.entity.Entity entity) {
+        return DirtyMetrics.timed(Call.GET_ENTITY_NBT, () -> getEntityNbt0(entity));
+    }
+
+    static NBTTagCompound getEntityNbt0(org.bukkit.entity.Entity entity) {
         Entity nmsEntity = ((CraftEntity) entity).getHandle();
         NBTTagCompound tag = new NBTTagCompound();
         nmsEntity.serializeEntity(tag);
-        @SuppressWarnings("unchecked")
-        Map<String, Object> map = (Map<String, Object>) fromTag(tag);
-        return map;
+        return tag;
     }
 
     public static void setEntityTag(org.bukkit.entity.Entity entity, Map<String, Object> json) {
-        Entity nmsEntity = ((CraftEntity) entity).getHandle();
-        NBTTagCompound tag = (NBTTagCompound) toTag(json);
-        nmsEntity.g(tag); // load
+        DirtyMetrics.timed(Call.SET_ENTITY_TAG, () -> {
+                Entity nmsEntity = ((CraftEntity) entity).getHandle();
+                NBTTagCompound tag = (NBTTagCompound) toTag0(json);
+                NmsAccess.load(nmsEntity, tag);
+                return tag;
+            });
+    }
+
+    /**
+     * Apply a patch to an entity.  The entity is saved, patched, and
+     * loaded again; the server only loads entities from a complete
+     * compound.  Only the changed values are converted.
+     */
+    public static void patchEntityTag(org.bukkit.entity.Entity entity, NbtPatch patch) {
+        if (patch.isEmpty()) return;
+        DirtyMetrics.timed(Call.PATCH_ENTITY_TAG, () -> {
+                Entity nmsEntity = ((CraftEntity) entity).getHandle();
+                NBTTagCompound tag = new NBTTagCompound();
+                nmsEntity.serializeEntity(tag);
+                patch.apply(tag);
+                NmsAccess.load(nmsEntity, tag);
+                return tag;
+            });
+    }
+
+    /**
+     * Apply a patch to a tile entity.  See patchEntityTag.
+     * @return true if there was a tile entity, false otherwise.
+     */
+    public static boolean patchBlockTag(org.bukkit.block.Block bukkitBlock, NbtPatch patch) {
+        CraftWorld craftWorld = (CraftWorld) bukkitBlock.getWorld();
+        BlockPosition pos = new BlockPosition(bukkitBlock.getX(),
+                                              bukkitBlock.getY(),
+                                              bukkitBlock.getZ());
+        TileEntity tileEntity = NmsAccess.getTileEntity(craftWorld.getHandle(), pos);
+        if (tileEntity == null) return false;
+        if (patch.isEmpty()) return true;
+        DirtyMetrics.timed(Call.PATCH_BLOCK_TAG, () -> {
+                NBTTagCompound tag = NmsAccess.save(tileEntity);
+                patch.apply(tag);
+                NmsAccess.load(tileEntity, tag);
+                return tag;
+            });
+        return true;
+    }
+
+    /**
+     * Compute the patch turning one compound into another.
+     */
+    public static NbtPatch diffTags(NBTTagCompound from, NBTTagCompound to) {
+        return DirtyMetrics.timed(Call.DIFF_TAGS, () -> NbtPatch.diff(from, to));
     }
 
     public static org.bukkit.inventory.ItemStack newCraftItemStack(org.bukkit.Material bukkitMaterial) {
@@ -323,20 +1024,55 @@ public final class Dirty {
 
     public static  org.bukkit.inventory.ItemStack makeSkull(@NonNull String id,
                                                             @NonNull String texture) {
-        CraftItemStack result;
-        result = (CraftItemStack) newCraftItemStack(org.bukkit.Material.PLAYER_HEAD);
-        Map<String, Object> tag = new HashMap<>();
-        Map<String, Object> skullOwnerTag = new HashMap<>();
-        Map<String, Object> propertiesTag = new HashMap<>();
-        List<Object> texturesList = new ArrayList<>();
-        Map<String, Object> texturesMap = new HashMap<>();
-        tag.put("SkullOwner", skullOwnerTag);
-        skullOwnerTag.put("Id", id);
-        skullOwnerTag.put("Properties", propertiesTag);
-        propertiesTag.put("textures", texturesList);
+        return DirtyMetrics.timed(Call.MAKE_SKULL, () -> makeSkull(skullTemplate(new SkullTexture(id, texture))));
+    }
+
+    /**
+     * Make many skulls at once.  Each distinct id and texture is
+     * turned into NBT only once and cached, every item gets a copy.
+     * @param textures The skulls to make.
+     * @return The items in the same order.
+     */
+    public static List<org.bukkit.inventory.ItemStack> makeSkulls(@NonNull Collection<SkullTexture> textures) {
+        return DirtyMetrics.timed(Call.MAKE_SKULLS, () -> {
+                List<org.bukkit.inventory.ItemStack> result = new ArrayList<>(textures.size());
+                for (SkullTexture skullTexture : textures) {
+                    result.add(makeSkull(skullTemplate(skullTexture)));
+                }
+                return result;
+            });
+    }
+
+    private static org.bukkit.inventory.ItemStack makeSkull(NBTTagCompound template) {
+        ItemStack nmsItem = CraftItemStack.asNMSCopy(new org.bukkit.inventory.ItemStack(org.bukkit.Material.PLAYER_HEAD));
+        NmsAccess.setTag(nmsItem, (NBTTagCompound) template.c()); // copy
+        return CraftItemStack.asCraftMirror(nmsItem);
+    }
+
+    /**
+     * Get the cached item tag for a skull, or build it.  The result
+     * must not be modified.
+     */
+    private static NBTTagCompound skullTemplate(SkullTexture skullTexture) {
+        synchronized (SKULL_TEMPLATES) {
+            NBTTagCompound result = SKULL_TEMPLATES.get(skullTexture);
+            if (result != null) return result;
+        }
+        NBTTagCompound texturesMap = new NBTTagCompound();
+        texturesMap.a("Value", NBTTagString.a(skullTexture.texture()));
+        NBTTagList texturesList = new NBTTagList();
         texturesList.add(texturesMap);
-        texturesMap.put("Value", texture);
-        return setItemTag(result, tag);
+        NBTTagCompound propertiesTag = new NBTTagCompound();
+        propertiesTag.a("textures", texturesList);
+        NBTTagCompound skullOwnerTag = new NBTTagCompound();
+        skullOwnerTag.a("Id", NBTTagString.a(skullTexture.id()));
+        skullOwnerTag.a("Properties", propertiesTag);
+        NBTTagCompound tag = new NBTTagCompound();
+        tag.a("SkullOwner", skullOwnerTag);
+        synchronized (SKULL_TEMPLATES) {
+            SKULL_TEMPLATES.put(skullTexture, tag);
+        }
+        return tag;
     }
 
     /**
@@ -361,27 +1097,224 @@ public final class Dirty {
      * In the future, consider adding sub-BBs.
      */
     public static List<com.cavetale.dirty.Structure> getStructures(org.bukkit.Chunk bukkitChunk) {
-        CraftChunk craftChunk = (CraftChunk) bukkitChunk;
-        Chunk nmsChunk = craftChunk.getHandle();
-        Map<Structure, StructureStart> structureMap = nmsChunk.g();
-        List<com.cavetale.dirty.Structure> result = new ArrayList<>();
-        for (Map.Entry<Structure, StructureStart> entry : structureMap.entrySet()) {
-            Structure structure = entry.getKey();
-            StructureStart structureStart = entry.getValue();
-            List<StructurePiece> structurePieceList = structureStart.i();
-            if (structurePieceList == null || structurePieceList.isEmpty()) continue;
-            String name = structure.getClass().getSimpleName();
-            if (name.endsWith("Structure")) name = name.substring(0, name.length() - 9);
-            name = Util.camelToSnakeCase(name);
-            Box box = Box.of(structureStart.a());
-            if (box == null) continue;
-            List<Box> pieces = new ArrayList<>();
-            for (StructurePiece structurePiece : structurePieceList) {
-                StructureBoundingBox structurePieceBoundingBox = structurePiece.f();
-                pieces.add(Box.of(structurePieceBoundingBox));
-            }
-            result.add(new com.cavetale.dirty.Structure(name, box, pieces));
-        }
-        return result;
+        return DirtyMetrics.timed(Call.GET_STRUCTURES, () -> {
+                CraftChunk craftChunk = (CraftChunk) bukkitChunk;
+                Chunk nmsChunk = craftChunk.getHandle();
+                Map<Structure, StructureStart> structureMap = NmsAccess.getStructures(nmsChunk);
+                List<com.cavetale.dirty.Structure> result = new ArrayList<>();
+                for (Map.Entry<Structure, StructureStart> entry : structureMap.entrySet()) {
+                    Structure structure = entry.getKey();
+                    StructureStart structureStart = entry.getValue();
+                    List<StructurePiece> structurePieceList = structureStart.i();
+                    if (structurePieceList == null || structurePieceList.isEmpty()) continue;
+                    String name = STRUCTURE_NAMES.get(structure.getClass());
+                    Box box = Box.of(structureStart.a());
+                    if (box == null) continue;
+                    List<Box> pieces = new ArrayList<>();
+                    for (StructurePiece structurePiece : structurePieceList) {
+                        StructureBoundingBox structurePieceBoundingBox = structurePiece.f();
+                        pieces.add(Box.of(structurePieceBoundingBox));
+                    }
+                    result.add(new com.cavetale.dirty.Structure(name, box, pieces));
+                }
+                return result;
+            });
+    }
+
+    /**
+     * Get all indexed structures whose bounding box contains a
+     * location.  See StructureIndex.
+     */
+    public static List<com.cavetale.dirty.Structure> structuresAt(org.bukkit.Location location) {
+        return DirtyMetrics.timed(Call.STRUCTURES_AT, () -> {
+                return StructureIndex.of(location.getWorld()).structuresAt(location);
+            });
+    }
+
+    /**
+     * Get all indexed structures whose bounding box intersects a
+     * box.  See StructureIndex.
+     */
+    public static List<com.cavetale.dirty.Structure> structuresIntersecting(org.bukkit.World world, Box box) {
+        return DirtyMetrics.timed(Call.STRUCTURES_INTERSECTING, () -> {
+                return StructureIndex.of(world).structuresIntersecting(box);
+            });
+    }
+
+    /**
+     * Set the executor for all async methods.  On Java 21 and above,
+     * a virtual thread executor may be passed here.  Null restores
+     * the default bounded pool.
+     */
+    public static void setExecutor(Executor executor) {
+        DirtyExecutor.set(executor);
+    }
+
+    /**
+     * Get an executor which runs tasks on the main thread, to
+     * deliver results of the async methods, for example via
+     * CompletableFuture::thenAcceptAsync.
+     */
+    public static Executor mainThreadExecutor(org.bukkit.plugin.Plugin plugin) {
+        return DirtyExecutor.mainThread(plugin);
+    }
+
+    /**
+     * Turn call metrics on or off.  They are on by default and cheap
+     * enough to stay on; see DirtyMetrics.
+     */
+    public static void setMetricsEnabled(boolean enabled) {
+        DirtyMetrics.setEnabled(enabled);
+    }
+
+    /**
+     * Reset all call metrics to zero.
+     */
+    public static void resetMetrics() {
+        DirtyMetrics.reset();
+    }
+
+    /**
+     * Get a human readable summary of the call metrics, one line per
+     * method which was called since the last reset, the most
+     * expensive first.
+     */
+    public static List<String> getMetricsReport() {
+        return DirtyMetrics.report();
+    }
+
+    /**
+     * Save an entity on the calling thread, which must be the main
+     * thread, and convert the result off-thread.
+     */
+    public static CompletableFuture<Map<String, Object>> getEntityTagAsync(org.bukkit.entity.Entity entity) {
+        return fromTagAsync(getEntityNbt(entity));
+    }
+
+    /**
+     * Save an item on the calling thread and convert the result
+     * off-thread.  See serializeItem.
+     */
+    public static CompletableFuture<Map<String, Object>> serializeItemAsync(org.bukkit.inventory.ItemStack bukkitItem) {
+        return fromTagAsync(saveItemNbt(bukkitItem));
+    }
+
+    /**
+     * Save many items on the calling thread and convert them in
+     * parallel off-thread.  See serializeItems.
+     */
+    public static CompletableFuture<List<Map<String, Object>>>
+        serializeItemsAsync(List<org.bukkit.inventory.ItemStack> bukkitItems) {
+        List<NBTTagCompound> tags = saveItemNbts(bukkitItems);
+        final long start = DirtyMetrics.start();
+        return CompletableFuture.supplyAsync(() -> {
+                List<Map<String, Object>> result = ItemBatch.fromTags(tags);
+                return DirtyMetrics.end(Call.SERIALIZE_ITEMS_ASYNC, start, result);
+            }, DirtyExecutor.forkJoin());
+    }
+
+    /**
+     * Save a tile entity on the calling thread, which must be the
+     * main thread, and convert the result off-thread.  Completes with
+     * null if there is no tile entity.
+     */
+    public static CompletableFuture<Map<String, Object>> getBlockTagAsync(org.bukkit.block.Block bukkitBlock) {
+        return fromTagAsync(getBlockNbt(bukkitBlock));
+    }
+
+    /**
+     * Capture the blocks, tile entities, and optionally entities
+     * within a box, over as many ticks as it takes.  Must be called
+     * on the main thread.  The future completes off-thread; cancel it
+     * to stop early.  See RegionSnapshot.
+     * @param plugin The plugin to schedule tasks for.
+     * @param world The world.
+     * @param box The box.
+     * @param withEntities Capture entities other than players.
+     * @param budgetNanos The time to spend per tick.
+     */
+    public static CompletableFuture<RegionSnapshot> captureSnapshot(org.bukkit.plugin.Plugin plugin,
+                                                                    org.bukkit.World world, Box box,
+                                                                    boolean withEntities, long budgetNanos) {
+        final long start = DirtyMetrics.start();
+        SnapshotCapture capture = new SnapshotCapture(plugin, world, box, withEntities, budgetNanos);
+        capture.start();
+        capture.future.whenComplete((snapshot, throwable) -> DirtyMetrics.end(Call.CAPTURE_SNAPSHOT, start, snapshot));
+        return capture.future;
+    }
+
+    /**
+     * Paste a snapshot into a world, over as many ticks as it takes.
+     * Must be called on the main thread.  See RegionPaste.
+     * @param plugin The plugin to schedule tasks for.
+     * @param snapshot The snapshot.
+     * @param world The world.
+     * @param x The lowest x coordinate of the target.
+     * @param y The lowest y coordinate of the target.
+     * @param z The lowest z coordinate of the target.
+     * @param withEntities Spawn the entities of the snapshot.
+     * @param captureUndo Capture the target before pasting, see
+     * RegionPaste::getUndo.
+     * @param budgetNanos The time to spend per tick.
+     * @param progress Called on the main thread as the paste
+     * progresses, or null.
+     * @return The paste, to cancel it or wait for it.
+     */
+    public static RegionPaste pasteSnapshot(org.bukkit.plugin.Plugin plugin, RegionSnapshot snapshot,
+                                            org.bukkit.World world, int x, int y, int z,
+                                            boolean withEntities, boolean captureUndo, long budgetNanos,
+                                            Consumer<RegionPaste> progress) {
+        final long start = DirtyMetrics.start();
+        RegionPaste paste = new RegionPaste(plugin, snapshot, world, x, y, z, withEntities, budgetNanos, progress);
+        paste.start(captureUndo);
+        paste.getFuture().whenComplete((done, throwable) -> DirtyMetrics.end(Call.PASTE_SNAPSHOT, start, paste));
+        return paste;
+    }
+
+    /**
+     * Search the entities and tile entities in the loaded chunks of
+     * some worlds for tags which pass a predicate, over as many ticks
+     * as it takes.  Must be called on the main thread.  See NbtSearch.
+     * @param plugin The plugin to schedule tasks for.
+     * @param worlds The worlds.
+     * @param predicate The predicate, see NbtPredicate::compile.
+     * @param entities Search entities.
+     * @param blocks Search tile entities.
+     * @param budgetNanos The time to spend per tick.
+     * @param consumer Called on the main thread with each hit, while
+     * the search is running.
+     * @return The search, to cancel it or wait for it.
+     */
+    public static NbtSearch find(org.bukkit.plugin.Plugin plugin, List<org.bukkit.World> worlds,
+                                 NbtPredicate predicate, boolean entities, boolean blocks,
+                                 long budgetNanos, Consumer<NbtSearch.Hit> consumer) {
+        final long start = DirtyMetrics.start();
+        NbtSearch search = new NbtSearch(plugin, worlds, predicate, entities, blocks, budgetNanos, consumer);
+        search.start();
+        search.getFuture().whenComplete((done, throwable) -> DirtyMetrics.end(Call.FIND, start, search));
+        return search;
+    }
+
+    /**
+     * Convert a compound off-thread.  The caller must not modify it
+     * until the future completes.
+     */
+    public static CompletableFuture<Map<String, Object>> fromTagAsync(NBTTagCompound tag) {
+        if (tag == null) return CompletableFuture.completedFuture(null);
+        final long start = DirtyMetrics.start();
+        return DirtyExecutor.supplyAsync(() -> {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> map = (Map<String, Object>) fromTag0(tag);
+                return DirtyMetrics.end(Call.FROM_TAG_ASYNC, start, map);
+            });
+    }
+
+    /**
+     * Write an NBT value as JSON off-thread.  The caller must not
+     * modify it until the future completes.
+     */
+    public static CompletableFuture<String> toJsonAsync(NBTBase value, JsonOption... options) {
+        final long start = DirtyMetrics.start();
+        return DirtyExecutor.supplyAsync(() -> DirtyMetrics.end(Call.TO_JSON_ASYNC, start, toJson0(value, options)));
     }
 }
@@ -0,0 +1,136 @@
+package com.cavetale.dirty;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Holds the executor for off-thread conversion and encoding.
+ *
+ * The default is a small bounded pool of daemon threads.  When the
+ * queue is full, a task submitted from the main thread is rejected,
+ * so the main thread never does the work it meant to hand off.  Use
+ * supplyAsync, which turns the rejection into a failed future.  Any
+ * other thread runs the task itself, which keeps memory bounded at
+ * the cost of that one call.  Callers which submit many tasks per
+ * tick, such as SnapshotCapture, limit how many they have pending.
+ */
+final class DirtyExecutor {
+    private static final int QUEUE_SIZE = 1024;
+    private static volatile Executor executor;
+    private static ExecutorService defaultExecutor;
+    private static ForkJoinPool forkJoinPool;
+
+    private DirtyExecutor() { }
+
+    static Executor get() {
+        Executor result = executor;
+        if (result != null) return result;
+        synchronized (DirtyExecutor.class) {
+            if (executor == null) {
+                defaultExecutor = createDefault();
+                executor = defaultExecutor;
+            }
+            return executor;
+        }
+    }
+
+    /**
+     * Get the pool for divide and conquer work, such as ItemBatch.
+     * It is separate from the common pool, which other plugins use,
+     * and is not replaced by set.
+     */
+    static synchronized ForkJoinPool forkJoin() {
+        if (forkJoinPool == null) {
+            AtomicInteger counter = new AtomicInteger();
+            ForkJoinPool.ForkJoinWorkerThreadFactory threadFactory = pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("Dirty-ForkJoin-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            forkJoinPool = new ForkJoinPool(defaultThreads(), threadFactory, null, false);
+        }
+        return forkJoinPool;
+    }
+
+    static synchronized void set(Executor newExecutor) {
+        executor = newExecutor;
+    }
+
+    /**
+     * Shut down the default executor and the fork-join pool, if
+     * they were ever created.  A custom executor belongs to whoever
+     * set it.
+     */
+    static synchronized void shutdown() {
+        if (forkJoinPool != null) {
+            forkJoinPool.shutdown();
+            forkJoinPool = null;
+        }
+        if (defaultExecutor == null) return;
+        defaultExecutor.shutdown();
+        if (executor == defaultExecutor) executor = null;
+        defaultExecutor = null;
+    }
+
+    private static int defaultThreads() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    private static ExecutorService createDefault() {
+        final int threads = defaultThreads();
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "Dirty-Worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        RejectedExecutionHandler rejectionHandler = (runnable, pool) -> {
+            if (pool.isShutdown() || Bukkit.isPrimaryThread()) {
+                throw new RejectedExecutionException("DirtyExecutor: Queue full");
+            }
+            runnable.run();
+        };
+        return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                                      new ArrayBlockingQueue<>(QUEUE_SIZE), threadFactory, rejectionHandler);
+    }
+
+    /**
+     * Like CompletableFuture.supplyAsync on the current executor, but
+     * a rejected task fails the future instead of throwing.
+     */
+    static <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, get());
+        } catch (RejectedExecutionException ree) {
+            return CompletableFuture.failedFuture(ree);
+        }
+    }
+
+    /**
+     * Executor which runs tasks on the main thread, immediately if
+     * already there.
+     */
+    static Executor mainThread(Plugin plugin) {
+        return runnable -> {
+            if (Bukkit.isPrimaryThread()) {
+                runnable.run();
+            } else {
+                Bukkit.getScheduler().runTask(plugin, runnable);
+            }
+        };
+    }
+}
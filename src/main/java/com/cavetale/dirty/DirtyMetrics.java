@@ -0,0 +1,402 @@
+package com.cavetale.dirty;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLongArray;
+import net.minecraft.nbt.NBTTagString;
+import org.bukkit.plugin.java.JavaPlugin;
+
+/**
+ * Call counts and latencies of the Dirty API.
+ *
+ * Every call costs two nanoTime reads and a few LongAdder increments,
+ * which stay cheap when many threads call at once.
+ * Only one call in SAMPLE_RATE, chosen at random, also counts the
+ * nodes and approximate bytes of its result and walks the stack to
+ * find the calling plugin.  Averages of those are per sampled call.
+ *
+ * While a JFR recording has the event enabled, each call also emits
+ * a com.cavetale.dirty.Call event.
+ *
+ * Dirty calling its own public methods is counted as well, so the
+ * time of getItemTag includes that of getItemNbt.  Conversions within
+ * Dirty use the uncounted fromTag0 and toTag0, so fromTag and toTag
+ * only count calls from outside, once per tree.
+ */
+final class DirtyMetrics {
+    static final int SAMPLE_RATE = 64;
+    private static final int BUCKETS = 40;
+    private static final String NO_PLUGIN = "";
+    private static volatile boolean enabled = true;
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+    private static final ClassValue<String> PLUGIN_NAMES = new ClassValue<>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            if (type == Dirty.class || type == DirtyMetrics.class) return NO_PLUGIN;
+            try {
+                return JavaPlugin.getProvidingPlugin(type).getName();
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                return NO_PLUGIN;
+            }
+        }
+    };
+
+    private DirtyMetrics() { }
+
+    /**
+     * The instrumented methods.  Overloads share one entry.
+     */
+    enum Call {
+        FROM_TAG,
+        FROM_TAG_CANONICAL,
+        TO_TAG,
+        TO_VALUE,
+        TO_NBT,
+        WRITE_JSON,
+        TO_JSON,
+        READ_JSON,
+        GET_ITEM_TAG,
+        GET_ITEM_NBT,
+        SERIALIZE_ITEM,
+        SERIALIZE_ITEM_CANONICAL,
+        SERIALIZE_ITEM_CACHED,
+        GET_ITEM_TAG_CACHED,
+        SERIALIZE_ITEM_JSON,
+        SERIALIZE_ITEMS,
+        SAVE_ITEM_NBT,
+        DESERIALIZE_ITEM,
+        DESERIALIZE_ITEMS,
+        ENCODE_ITEM,
+        DECODE_ITEM,
+        ENCODE_INVENTORY,
+        DECODE_INVENTORY,
+        HASH_TAG,
+        HASH_ITEM,
+        SET_ITEM_TAG,
+        GET_BLOCK_TAG,
+        GET_BLOCK_NBT,
+        GET_BLOCK_NBTS,
+        GET_BLOCK_TAGS,
+        SET_BLOCK_TAG,
+        GET_ENTITY_TAG,
+        GET_ENTITY_NBT,
+        SET_ENTITY_TAG,
+        PATCH_ENTITY_TAG,
+        PATCH_BLOCK_TAG,
+        DIFF_TAGS,
+        MAKE_SKULL,
+        MAKE_SKULLS,
+        GET_STRUCTURES,
+        STRUCTURES_AT,
+        STRUCTURES_INTERSECTING,
+        FROM_TAG_ASYNC,
+        TO_JSON_ASYNC,
+        SERIALIZE_ITEMS_ASYNC,
+        CAPTURE_SNAPSHOT,
+        PASTE_SNAPSHOT,
+        FIND;
+
+        final String methodName = methodName(name());
+        final LongAdder calls = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder[] histogram = new LongAdder[BUCKETS];
+        final LongAdder samples = new LongAdder();
+        final LongAdder nodes = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final Map<String, LongAdder> plugins = new ConcurrentHashMap<>();
+
+        Call() {
+            for (int i = 0; i < BUCKETS; i += 1) histogram[i] = new LongAdder();
+        }
+
+        void reset() {
+            calls.reset();
+            nanos.reset();
+            for (LongAdder bucket : histogram) bucket.reset();
+            samples.reset();
+            nodes.reset();
+            bytes.reset();
+            plugins.clear();
+        }
+    }
+
+    @Name("com.cavetale.dirty.Call")
+    @Label("Dirty Call")
+    @Category("Dirty")
+    @Description("A call of the Dirty API")
+    static final class CallEvent extends Event {
+        @Label("Method")
+        String method;
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+        @Label("Nodes")
+        @Description("NBT nodes of the result, only for sampled calls")
+        long nodes;
+        @Label("Bytes")
+        @Description("Approximate size of the result, only for sampled calls")
+        @DataAmount
+        long bytes;
+        @Label("Plugin")
+        @Description("The calling plugin, only for sampled calls")
+        String plugin;
+    }
+
+    private static final EventType CALL_EVENT_TYPE = EventType.getEventType(CallEvent.class);
+
+    /**
+     * The body of a timed call.
+     */
+    @FunctionalInterface
+    interface Body<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start timing a call.
+     * @return The start time, or 0 if metrics are disabled.
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Time a synchronous call.  Calls which throw are not counted.
+     * @param call The method.
+     * @param body The call, returning its result or whichever value
+     * best represents its size.
+     * @return The result of the body.
+     */
+    static <T, E extends Exception> T timed(Call call, Body<T, E> body) throws E {
+        final long start = start();
+        return end(call, start, body.run());
+    }
+
+    /**
+     * Finish timing a call which started elsewhere, such as on
+     * another thread.
+     * @param call The method.
+     * @param start The result of start.
+     * @param result The result of the call, or whichever argument
+     * best represents its size.
+     * @return The result, for convenience.
+     */
+    static <T> T end(Call call, long start, T result) {
+        if (start == 0L) return result;
+        final long time = System.nanoTime() - start;
+        call.calls.increment();
+        call.nanos.add(time);
+        call.histogram[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(time))].increment();
+        boolean sampled = ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0;
+        if (!sampled && !CALL_EVENT_TYPE.isEnabled()) return result;
+        CallEvent event = new CallEvent();
+        event.method = call.methodName;
+        event.nanos = time;
+        if (sampled) {
+            Size size = new Size();
+            size.add(result);
+            String plugin = callingPlugin();
+            call.samples.increment();
+            call.nodes.add(size.nodes);
+            call.bytes.add(size.bytes);
+            call.plugins.computeIfAbsent(plugin, p -> new LongAdder()).increment();
+            event.nodes = size.nodes;
+            event.bytes = size.bytes;
+            event.plugin = plugin;
+        }
+        event.commit();
+        return result;
+    }
+
+    static void reset() {
+        for (Call call : Call.values()) call.reset();
+    }
+
+    /**
+     * One line per method which was called, the most expensive
+     * first.
+     */
+    static List<String> report() {
+        List<Call> calls = new ArrayList<>();
+        for (Call call : Call.values()) {
+            if (call.calls.sum() > 0L) calls.add(call);
+        }
+        calls.sort(Comparator.comparingLong((Call c) -> c.nanos.sum()).reversed());
+        List<String> result = new ArrayList<>(calls.size());
+        for (Call call : calls) {
+            long count = call.calls.sum();
+            long total = call.nanos.sum();
+            long samples = call.samples.sum();
+            StringBuilder sb = new StringBuilder(call.methodName)
+                .append(": ").append(count).append(" calls")
+                .append(", total ").append(formatNanos(total))
+                .append(", avg ").append(formatNanos(total / count))
+                .append(", p50 <").append(formatNanos(percentile(call, count, 0.5)))
+                .append(", p99 <").append(formatNanos(percentile(call, count, 0.99)));
+            if (samples > 0L) {
+                sb.append(", ~").append(call.nodes.sum() / samples).append(" nodes")
+                    .append(", ~").append(formatBytes(call.bytes.sum() / samples));
+                List<Map.Entry<String, LongAdder>> plugins = new ArrayList<>(call.plugins.entrySet());
+                plugins.sort(Comparator.comparingLong((Map.Entry<String, LongAdder> e) -> e.getValue().sum()).reversed());
+                for (int i = 0; i < plugins.size() && i < 3; i += 1) {
+                    Map.Entry<String, LongAdder> entry = plugins.get(i);
+                    sb.append(i == 0 ? ", by " : ", ")
+                        .append(entry.getKey().isEmpty() ? "?" : entry.getKey())
+                        .append(' ').append(entry.getValue().sum() * 100L / samples).append('%');
+                }
+            }
+            result.add(sb.toString());
+        }
+        return result;
+    }
+
+    /**
+     * The upper bound of the histogram bucket containing the given
+     * fraction of all calls.
+     */
+    private static long percentile(Call call, long count, double fraction) {
+        long threshold = (long) Math.ceil(count * fraction);
+        long sum = 0L;
+        for (int i = 0; i < BUCKETS; i += 1) {
+            sum += call.histogram[i].sum();
+            if (sum >= threshold) return 1L << i;
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    private static String callingPlugin() {
+        return STACK_WALKER.walk(frames -> frames
+                                 .map(frame -> PLUGIN_NAMES.get(frame.getDeclaringClass()))
+                                 .filter(name -> !name.isEmpty())
+                                 .findFirst()
+                                 .orElse(NO_PLUGIN));
+    }
+
+    private static String methodName(String constant) {
+        StringBuilder sb = new StringBuilder(constant.length());
+        boolean upper = false;
+        for (int i = 0; i < constant.length(); i += 1) {
+            char c = constant.charAt(i);
+            if (c == '_') {
+                upper = true;
+            } else {
+                sb.append(upper ? c : Character.toLowerCase(c));
+                upper = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 10_000L) return nanos + "ns";
+        if (nanos < 10_000_000L) return (nanos / 1_000L) + "us";
+        if (nanos < 10_000_000_000L) return (nanos / 1_000_000L) + "ms";
+        return (nanos / 1_000_000_000L) + "s";
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024L) return bytes + "B";
+        if (bytes < 1024L * 1024L) return String.format(Locale.ROOT, "%.1fKiB", bytes / 1024.0);
+        return String.format(Locale.ROOT, "%.1fMiB", bytes / (1024.0 * 1024.0));
+    }
+
+    /**
+     * Node count and approximate heap size of a result.  The sizes
+     * are rough per-object estimates for a 64 bit JVM with
+     * compressed pointers, good enough to compare calls.  Objects
+     * other than NBT and containers, such as items, count as one
+     * node.
+     */
+    private static final class Size {
+        long nodes;
+        long bytes;
+
+        void add(Object value) {
+            if (value == null) {
+                return;
+            } else if (value instanceof NBTBase tag) {
+                addTag(tag);
+            } else if (value instanceof Map<?, ?> map) {
+                nodes += 1;
+                bytes += 48L + 32L * map.size();
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    bytes += 40L + String.valueOf(entry.getKey()).length();
+                    add(entry.getValue());
+                }
+            } else if (value instanceof List<?> list) {
+                nodes += 1;
+                bytes += 24L + 8L * list.size();
+                for (Object it : list) add(it);
+            } else if (value instanceof Object[] array) {
+                bytes += 16L + 4L * array.length;
+                for (Object it : array) add(it);
+            } else if (value instanceof String string) {
+                nodes += 1;
+                bytes += 40L + string.length();
+            } else if (value instanceof byte[] array) {
+                nodes += 1;
+                bytes += 16L + array.length;
+            } else if (value instanceof int[] array) {
+                nodes += 1;
+                bytes += 16L + 4L * array.length;
+            } else if (value instanceof long[] array) {
+                nodes += 1;
+                bytes += 16L + 8L * array.length;
+            } else {
+                nodes += 1;
+                bytes += 16L;
+            }
+        }
+
+        private void addTag(NBTBase tag) {
+            nodes += 1;
+            if (tag instanceof NBTTagCompound compound) {
+                bytes += 48L + 32L * compound.x.size();
+                for (Map.Entry<String, NBTBase> entry : compound.x.entrySet()) {
+                    bytes += 40L + entry.getKey().length();
+                    addTag(entry.getValue());
+                }
+            } else if (tag instanceof NBTTagList list) {
+                bytes += 40L + 4L * list.size();
+                for (int i = 0; i < list.size(); i += 1) addTag(list.get(i));
+            } else if (tag instanceof NBTTagString string) {
+                bytes += 56L + ((String) string.e_()).length(); // asString
+            } else if (tag instanceof NBTTagByteArray array) {
+                bytes += 32L + ((byte[]) array.d()).length; // getBytes
+            } else if (tag instanceof NBTTagIntArray array) {
+                bytes += 32L + 4L * ((int[]) array.f()).length; // getInts
+            } else if (tag instanceof NBTTagLongArray array) {
+                bytes += 32L + 8L * ((long[]) array.f()).length; // getLongs
+            } else {
+                bytes += 16L;
+            }
+        }
+    }
+}
@@ -1,16 +1,29 @@
 package com.cavetale.dirty;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.event.ClickEvent;
+import net.kyori.adventure.text.event.HoverEvent;
+import net.kyori.adventure.text.format.NamedTextColor;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagCompound;
 import org.bukkit.Chunk;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
@@ -20,17 +33,71 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerInteractEntityEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.java.JavaPlugin;
 
 public final class DirtyPlugin extends JavaPlugin implements Listener {
-    private static final List<String> COMMANDS = Arrays.asList("item", "block", "entity", "cancel", "structures");
+    private static final List<String> COMMANDS = Arrays.asList("item", "block", "entity", "cancel", "structures", "export", "find", "stats", "page");
+    private static final int FIND_LINES = 20;
+    private static final Gson GSON = new Gson();
     private final HashMap<UUID, EnumSet<CommandOption>> blockTool = new HashMap<>();
     private final HashMap<UUID, EnumSet<CommandOption>> entityTool = new HashMap<>();
+    private final HashMap<UUID, TagPages> tagPages = new HashMap<>();
+    private EntityExport export;
+    private NbtSearch search;
 
     @Override
     public void onEnable() {
+        try {
+            NmsAccess.check(getServer().getVersion());
+        } catch (IllegalStateException ise) {
+            getLogger().severe(ise.getMessage());
+            getServer().getPluginManager().disablePlugin(this);
+            return;
+        }
         getServer().getPluginManager().registerEvents(this, this);
+        getServer().getScheduler().runTaskTimer(this, this::expireTagPages, 1200L, 1200L);
+        for (World world : getServer().getWorlds()) {
+            loadStructureIndex(world);
+        }
+    }
+
+    @Override
+    public void onDisable() {
+        if (export != null) export.close();
+        if (search != null) search.cancel();
+        for (World world : getServer().getWorlds()) {
+            saveStructureIndex(world);
+        }
+        DirtyExecutor.shutdown();
+    }
+
+    private File getStructureIndexFile(World world) {
+        return new File(new File(getDataFolder(), "structures"), world.getName() + ".json");
+    }
+
+    private void loadStructureIndex(World world) {
+        StructureIndex index = StructureIndex.of(world);
+        try {
+            index.load(getStructureIndexFile(world));
+        } catch (IOException | RuntimeException e) {
+            getLogger().log(Level.WARNING, "Loading structure index of " + world.getName(), e);
+        }
+        for (Chunk chunk : world.getLoadedChunks()) {
+            index.ingest(Dirty.getStructures(chunk));
+        }
+    }
+
+    private void saveStructureIndex(World world) {
+        try {
+            StructureIndex.of(world).save(getStructureIndexFile(world));
+        } catch (IOException ioe) {
+            getLogger().log(Level.WARNING, "Saving structure index of " + world.getName(), ioe);
+        }
     }
 
     enum CommandOption {
@@ -40,12 +107,16 @@ public final class DirtyPlugin extends JavaPlugin implements Listener {
     @Override
     public boolean onCommand(CommandSender sender, Command command, String alias, String[] args) {
         if (args.length == 0) return false;
+        if (args[0].equals("export")) return exportCommand(sender, Arrays.copyOfRange(args, 1, args.length));
+        if (args[0].equals("find")) return findCommand(sender, Arrays.copyOfRange(args, 1, args.length));
+        if (args[0].equals("stats")) return statsCommand(sender, Arrays.copyOfRange(args, 1, args.length));
         Player player = sender instanceof Player ? (Player) sender : null;
         if (player == null) {
             getLogger().info("Player expected");
             return true;
         }
         if (!COMMANDS.contains(args[0])) return false;
+        if (args[0].equals("page")) return pageCommand(player, Arrays.copyOfRange(args, 1, args.length));
         EnumSet<CommandOption> options = EnumSet.noneOf(CommandOption.class);
         for (int i = 1; i < args.length; i += 1) {
             try {
@@ -58,8 +129,9 @@ public final class DirtyPlugin extends JavaPlugin implements Listener {
         case "item": {
             ItemStack item = player.getInventory().getItemInMainHand();
             if (item == null) item = new ItemStack(Material.AIR);
-            printTag(player, "Item TAG of " + item.getType() + ": ",
-                     Dirty.getItemTag(item), options);
+            NBTTagCompound tag = Dirty.getItemNbt(item);
+            printTag(player, "Item TAG of " + item.getType(),
+                     tag != null ? tag.c() : null, options); // copy
             return true;
         }
         case "block": {
@@ -86,30 +158,291 @@ public final class DirtyPlugin extends JavaPlugin implements Listener {
             var structures = Dirty.getStructures(chunk);
             player.sendMessage("Structures in chunk "
                                + chunk.getX() + "," + chunk.getZ()
-                               + ": " + new Gson().toJson(structures));
+                               + ": " + GSON.toJson(structures));
             for (var it : structures) {
                 player.sendMessage("Name: " + it.name);
             }
+            for (var it : Dirty.structuresAt(player.getLocation())) {
+                player.sendMessage("Inside: " + it.name);
+            }
+            return true;
+        }
+        default: return false;
+        }
+    }
+
+    private boolean exportCommand(CommandSender sender, String[] args) {
+        if (args.length == 0) return false;
+        switch (args[0]) {
+        case "entities": {
+            if (args.length > 2) return false;
+            if (export != null && !export.isFinished()) {
+                sender.sendMessage("An export is already running: " + export.getProgress());
+                return true;
+            }
+            long budgetMillis = 5L;
+            if (args.length >= 2) {
+                try {
+                    budgetMillis = Long.parseLong(args[1]);
+                } catch (NumberFormatException nfe) {
+                    budgetMillis = -1L;
+                }
+                if (budgetMillis < 1L || budgetMillis > 50L) {
+                    sender.sendMessage("Budget must be 1 to 50 milliseconds per tick: " + args[1]);
+                    return true;
+                }
+            }
+            File file = new File(new File(getDataFolder(), "exports"),
+                                 "entities-" + System.currentTimeMillis() + ".ndjson");
+            export = new EntityExport(this, file, TimeUnit.MILLISECONDS.toNanos(budgetMillis), msg -> {
+                    sender.sendMessage(msg);
+                    if (sender instanceof Player) getLogger().info(msg);
+                });
+            try {
+                export.start();
+            } catch (IOException ioe) {
+                getLogger().log(Level.SEVERE, "Export " + file, ioe);
+                sender.sendMessage("Export failed: " + ioe.getMessage());
+                export = null;
+                return true;
+            }
+            sender.sendMessage("Exporting entities to " + file);
+            return true;
+        }
+        case "status": {
+            if (args.length != 1) return false;
+            sender.sendMessage(export != null && !export.isFinished()
+                               ? export.getProgress()
+                               : "No export running.");
+            return true;
+        }
+        case "cancel": {
+            if (args.length != 1) return false;
+            if (export == null || export.isFinished()) {
+                sender.sendMessage("No export running.");
+            } else {
+                export.cancel();
+            }
+            return true;
+        }
+        default: return false;
+        }
+    }
+
+    private boolean findCommand(CommandSender sender, String[] args) {
+        if (args.length == 0) return false;
+        switch (args[0]) {
+        case "entities": case "blocks": case "all": {
+            if (args.length < 2) return false;
+            if (search != null && !search.getFuture().isDone()) {
+                sender.sendMessage("A search is already running: " + search.getProgress());
+                return true;
+            }
+            NbtPredicate predicate;
+            try {
+                predicate = NbtPredicate.compile(String.join(" ", Arrays.copyOfRange(args, 1, args.length)));
+            } catch (IllegalArgumentException iae) {
+                sender.sendMessage(iae.getMessage());
+                return true;
+            }
+            final boolean entities = !args[0].equals("blocks");
+            final boolean blocks = !args[0].equals("entities");
+            NbtSearch theSearch = Dirty.find(this, getServer().getWorlds(), predicate, entities, blocks,
+                                             TimeUnit.MILLISECONDS.toNanos(5L), hit -> printHit(sender, hit));
+            search = theSearch;
+            theSearch.getFuture().whenComplete((done, throwable) -> {
+                    String message;
+                    if (throwable == null) {
+                        message = "Find done: " + theSearch.getHits() + " hits in "
+                            + theSearch.getChunksTotal() + " chunks, "
+                            + theSearch.getTagsChecked() + " tags checked";
+                    } else if (throwable instanceof CancellationException) {
+                        message = "Find cancelled. " + theSearch.getProgress();
+                    } else {
+                        getLogger().log(Level.SEVERE, "Find " + theSearch.getPredicate(), throwable);
+                        message = "Find failed: " + throwable.getMessage();
+                    }
+                    sender.sendMessage(message);
+                });
+            sender.sendMessage("Searching " + theSearch.getChunksTotal() + " loaded chunks for " + predicate);
+            return true;
+        }
+        case "status": {
+            if (args.length != 1) return false;
+            sender.sendMessage(search != null && !search.getFuture().isDone()
+                               ? search.getProgress()
+                               : "No search running.");
+            return true;
+        }
+        case "cancel": {
+            if (args.length != 1) return false;
+            if (search == null || search.getFuture().isDone()) {
+                sender.sendMessage("No search running.");
+            } else {
+                search.cancel();
+            }
             return true;
         }
         default: return false;
         }
     }
 
-    private void printTag(Player player, String prefix, Object tag,
+    /**
+     * Print one hit of the running search, up to FIND_LINES.  Players can
+     * click it to teleport there.
+     */
+    private void printHit(CommandSender sender, NbtSearch.Hit hit) {
+        if (search.getHits() > FIND_LINES) return;
+        String text = hit.world() + " " + hit.x() + "," + hit.y() + "," + hit.z() + " " + hit.type()
+            + (hit.entity() != null ? " " + hit.entity() : "");
+        if (search.getHits() == FIND_LINES) text = text + " (more hits not shown)";
+        World world = getServer().getWorld(hit.world());
+        if (!(sender instanceof Player) || world == null) {
+            sender.sendMessage(text);
+            return;
+        }
+        String tp = "/execute in " + world.getKey() + " run tp @s " + hit.x() + " " + hit.y() + " " + hit.z();
+        sender.sendMessage(Component.text(text, NamedTextColor.YELLOW)
+                           .hoverEvent(HoverEvent.showText(Component.text(tp)))
+                           .clickEvent(ClickEvent.suggestCommand(tp)));
+    }
+
+    private boolean statsCommand(CommandSender sender, String[] args) {
+        if (args.length > 1) return false;
+        if (args.length == 1) {
+            if (!args[0].equals("reset")) return false;
+            Dirty.resetMetrics();
+            sender.sendMessage("Dirty stats reset.");
+            return true;
+        }
+        List<String> lines = Dirty.getMetricsReport();
+        if (lines.isEmpty()) {
+            sender.sendMessage("No Dirty calls recorded.");
+            return true;
+        }
+        sender.sendMessage("Dirty calls, nodes and bytes sampled 1 in " + DirtyMetrics.SAMPLE_RATE + ":");
+        for (String line : lines) {
+            sender.sendMessage(line);
+        }
+        return true;
+    }
+
+    /**
+     * Render the tag into pages off-thread, then show the first one.
+     * The tag must not be modified by anyone else in the meantime.
+     */
+    private void printTag(Player player, String title, NBTBase tag,
                           EnumSet<CommandOption> options) {
-        GsonBuilder builder = new GsonBuilder()
-            .disableHtmlEscaping();
-        if (options.contains(CommandOption.PRETTY)) {
-            builder.setPrettyPrinting();
+        if (tag == null) {
+            player.sendMessage(title + ": null");
+            return;
+        }
+        JsonOption[] jsonOptions = options.contains(CommandOption.PRETTY)
+            ? new JsonOption[] {JsonOption.PRETTY}
+            : new JsonOption[0];
+        File folder = new File(getDataFolder(), "dumps");
+        DirtyExecutor.supplyAsync(() -> TagPages.create(title, tag, folder, jsonOptions))
+            .thenAcceptAsync(pages -> {
+                    if (pages.file != null) {
+                        getLogger().info(title + " saved to " + pages.file);
+                    } else if (options.contains(CommandOption.CONSOLE)) {
+                        getLogger().info(pages.json);
+                    }
+                    if (!player.isOnline()) return;
+                    showTagPage(player, pages, 0);
+                    if (pages.file != null) {
+                        player.sendMessage("Tag too large for the console, saved to " + pages.file);
+                    } else if (options.contains(CommandOption.CONSOLE)) {
+                        player.sendMessage("Also printed to console.");
+                    }
+                }, Dirty.mainThreadExecutor(this))
+            .exceptionally(throwable -> {
+                    getLogger().log(Level.SEVERE, "printTag", throwable);
+                    return null;
+                });
+    }
+
+    private void showTagPage(Player player, TagPages pages, int index) {
+        pages.page = index;
+        pages.lastAccess = System.currentTimeMillis();
+        tagPages.put(player.getUniqueId(), pages);
+        player.sendMessage(pages.getPage(index));
+    }
+
+    private boolean pageCommand(Player player, String[] args) {
+        TagPages pages = tagPages.get(player.getUniqueId());
+        if (pages != null && pages.isExpired(System.currentTimeMillis())) {
+            tagPages.remove(player.getUniqueId());
+            pages = null;
+        }
+        if (pages == null) {
+            player.sendMessage("No tag to page through. Try /dirty item.");
+            return true;
+        }
+        if (args.length == 0) {
+            showTagPage(player, pages, pages.page);
+            return true;
+        }
+        switch (args[0]) {
+        case "back": {
+            if (args.length != 1) return false;
+            if (pages.parent == null) {
+                player.sendMessage("Already at the top.");
+            } else {
+                showTagPage(player, pages.parent, pages.parent.page);
+            }
+            return true;
+        }
+        case "open": {
+            if (args.length != 3) return false;
+            final int pagesId;
+            final int child;
+            try {
+                pagesId = Integer.parseInt(args[1]);
+                child = Integer.parseInt(args[2]);
+            } catch (NumberFormatException nfe) {
+                return false;
+            }
+            final TagPages parent = pages.find(pagesId);
+            if (parent == null) {
+                player.sendMessage("That page is no longer open.");
+                return true;
+            }
+            DirtyExecutor.supplyAsync(() -> parent.open(child))
+                .whenCompleteAsync((child, throwable) -> {
+                        if (throwable == null) {
+                            if (player.isOnline()) showTagPage(player, child, 0);
+                            return;
+                        }
+                        Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                        if (cause instanceof IllegalArgumentException) {
+                            player.sendMessage("Cannot open: " + cause.getMessage());
+                        } else {
+                            getLogger().log(Level.SEVERE, "pageCommand", cause);
+                        }
+                    }, Dirty.mainThreadExecutor(this));
+            return true;
+        }
+        default: break;
         }
-        Gson gson = builder.create();
-        String json = gson.toJson(tag);
-        player.sendMessage(prefix + json);
-        if (options.contains(CommandOption.CONSOLE)) {
-            getLogger().info(json);
-            player.sendMessage("Also printed to console.");
+        if (args.length != 1) return false;
+        int index;
+        try {
+            index = Integer.parseInt(args[0]) - 1;
+        } catch (NumberFormatException nfe) {
+            return false;
         }
+        if (index < 0 || index >= pages.pages.size()) {
+            player.sendMessage("Page must be 1 to " + pages.pages.size() + ": " + args[0]);
+            return true;
+        }
+        showTagPage(player, pages, index);
+        return true;
+    }
+
+    private void expireTagPages() {
+        long now = System.currentTimeMillis();
+        tagPages.values().removeIf(pages -> pages.isExpired(now));
     }
 
     @Override
@@ -120,6 +453,28 @@ public final class DirtyPlugin extends JavaPlugin implements Listener {
             return COMMANDS.stream().filter(i -> i.startsWith(args[0]))
                 .collect(Collectors.toList());
         }
+        if (args[0].equals("export")) {
+            if (args.length != 2) return Collections.emptyList();
+            return Stream.of("entities", "status", "cancel")
+                .filter(i -> i.startsWith(args[1]))
+                .collect(Collectors.toList());
+        }
+        if (args[0].equals("find")) {
+            if (args.length != 2) return Collections.emptyList();
+            return Stream.of("entities", "blocks", "all", "status", "cancel")
+                .filter(i -> i.startsWith(args[1]))
+                .collect(Collectors.toList());
+        }
+        if (args[0].equals("page")) {
+            if (args.length != 2) return Collections.emptyList();
+            return Stream.of("back", "open")
+                .filter(i -> i.startsWith(args[1]))
+                .collect(Collectors.toList());
+        }
+        if (args[0].equals("stats")) {
+            if (args.length != 2) return Collections.emptyList();
+            return "reset".startsWith(args[1]) ? List.of("reset") : Collections.emptyList();
+        }
         if (args.length > 1 && COMMANDS.contains(args[0]) && !"cancel".equals(args[0])) {
             return Arrays.stream(CommandOption.values())
                 .map(Enum::name)
@@ -130,6 +485,27 @@ public final class DirtyPlugin extends JavaPlugin implements Listener {
         return Collections.emptyList();
     }
 
+    @EventHandler
+    public void onChunkLoad(ChunkLoadEvent event) {
+        StructureIndex.of(event.getWorld()).ingest(Dirty.getStructures(event.getChunk()));
+    }
+
+    @EventHandler
+    public void onWorldLoad(WorldLoadEvent event) {
+        loadStructureIndex(event.getWorld());
+    }
+
+    @EventHandler
+    public void onWorldUnload(WorldUnloadEvent event) {
+        saveStructureIndex(event.getWorld());
+        StructureIndex.remove(event.getWorld());
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        tagPages.remove(event.getPlayer().getUniqueId());
+    }
+
     @EventHandler
     public void onPlayerInteract(PlayerInteractEvent event) {
         Player player = event.getPlayer();
@@ -138,8 +514,8 @@ public final class DirtyPlugin extends JavaPlugin implements Listener {
         Block block = event.getClickedBlock();
         if (block == null) return;
         event.setCancelled(true);
-        printTag(player, "Block TAG of " + block.getBlockData().getAsString() + ": ",
-                 Dirty.getBlockTag(block), options);
+        printTag(player, "Block TAG of " + block.getBlockData().getAsString(),
+                 Dirty.getBlockNbt(block), options);
     }
 
     @EventHandler
@@ -149,7 +525,7 @@ public final class DirtyPlugin extends JavaPlugin implements Listener {
         if (options == null) return;
         Entity entity = event.getRightClicked();
         event.setCancelled(true);
-        printTag(player, "Entity TAG of " + entity.getType() + ": ",
-                 Dirty.getEntityTag(entity), options);
+        printTag(player, "Entity TAG of " + entity.getType(),
+                 Dirty.getEntityNbt(entity), options);
     }
 }
@@ -0,0 +1,224 @@
+package com.cavetale.dirty;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagString;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Export all entities in loaded chunks to an NDJSON file.
+ *
+ * The main thread saves entities chunk by chunk, within a time budget
+ * per tick, and hands the tags to a writer thread via a bounded
+ * queue.  When the queue is full, capture pauses until the next tick,
+ * so memory stays bounded no matter how slow the disk is.  The writer
+ * thread encodes JSON and writes it through a buffered FileChannel.
+ */
+final class EntityExport {
+    private static final int QUEUE_SIZE = 4096;
+    private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    private static final Line END = new Line(null);
+    private final DirtyPlugin plugin;
+    private final File file;
+    private final long budgetNanos;
+    private final Consumer<String> progress;
+    private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+    private final BlockingQueue<Line> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final int totalChunks;
+    private List<Entity> pendingEntities = List.of();
+    private int pendingIndex;
+    private long entityCount;
+    private long lastReport;
+    private BukkitTask task;
+    private boolean finished;
+    private Thread writerThread;
+    private final AtomicBoolean reported = new AtomicBoolean();
+    private volatile boolean cancelled;
+    private volatile long written;
+    private volatile Throwable writeError;
+
+    private record Line(NBTTagCompound tag) { }
+
+    EntityExport(final DirtyPlugin plugin, final File file, final long budgetNanos, final Consumer<String> progress) {
+        this.plugin = plugin;
+        this.file = file;
+        this.budgetNanos = budgetNanos;
+        this.progress = progress;
+        for (World world : plugin.getServer().getWorlds()) {
+            for (Chunk chunk : world.getLoadedChunks()) chunks.add(chunk);
+        }
+        this.totalChunks = chunks.size();
+    }
+
+    void start() throws IOException {
+        file.getParentFile().mkdirs();
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                               StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        writerThread = new Thread(() -> write(channel), "Dirty-Export");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        lastReport = System.nanoTime();
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::tick, 1L, 1L);
+    }
+
+    void cancel() {
+        cancelled = true;
+        finish();
+    }
+
+    /**
+     * Cancel on plugin disable, when no more tasks may be scheduled.
+     * Waits for the writer to drain the queue and reports directly.
+     */
+    void close() {
+        cancelled = true;
+        finished = true;
+        if (task != null) task.cancel();
+        chunks.clear();
+        pendingEntities = List.of();
+        if (writerThread == null) return;
+        awaitWriter();
+        report();
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    private void tick() {
+        final long start = System.nanoTime();
+        while (!cancelled && System.nanoTime() - start < budgetNanos) {
+            if (writeError != null || !writerThread.isAlive()) {
+                progress.accept("Export failed: " + (writeError != null ? writeError : "Writer stopped"));
+                cancel();
+                return;
+            }
+            if (pendingIndex >= pendingEntities.size()) {
+                Chunk chunk = chunks.poll();
+                if (chunk == null) {
+                    finish();
+                    return;
+                }
+                if (!chunk.isLoaded()) continue;
+                pendingEntities = List.of(chunk.getEntities());
+                pendingIndex = 0;
+                continue;
+            }
+            Entity entity = pendingEntities.get(pendingIndex);
+            if (entity.isValid()) {
+                NBTTagCompound tag = Dirty.getEntityNbt0(entity);
+                tag.a("id", NBTTagString.a(entity.getType().getKey().toString())); // set
+                tag.a("world", NBTTagString.a(entity.getWorld().getName())); // set
+                if (!queue.offer(new Line(tag))) break; // Writer is behind
+                entityCount += 1;
+            }
+            pendingIndex += 1;
+        }
+        if (System.nanoTime() - lastReport >= REPORT_INTERVAL) {
+            lastReport = System.nanoTime();
+            progress.accept(getProgress());
+        }
+    }
+
+    private void finish() {
+        if (finished) return;
+        finished = true;
+        if (task != null) task.cancel();
+        chunks.clear();
+        pendingEntities = List.of();
+        // The writer drains the queue before it sees END.
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+                awaitWriter();
+                if (plugin.isEnabled()) plugin.getServer().getScheduler().runTask(plugin, this::report);
+            });
+    }
+
+    private void awaitWriter() {
+        try {
+            while (writerThread.isAlive() && !queue.offer(END, 100L, TimeUnit.MILLISECONDS)) {
+                // The writer is still draining
+            }
+            writerThread.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Report the outcome once, after the writer is done.
+     */
+    private void report() {
+        if (!reported.compareAndSet(false, true)) return;
+        progress.accept(cancelled
+                        ? "Export cancelled after " + written + " entities: " + file
+                        : "Export done: " + written + " entities: " + file);
+    }
+
+    String getProgress() {
+        int done = totalChunks - chunks.size();
+        return "Export: " + done + "/" + totalChunks + " chunks, "
+            + entityCount + " entities captured, " + written + " written, "
+            + queue.size() + " queued";
+    }
+
+    /**
+     * Writer thread main loop.
+     */
+    private void write(FileChannel channel) {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        StringBuilder sb = new StringBuilder(4096);
+        try (FileChannel out = channel) {
+            while (true) {
+                Line line = queue.take();
+                if (line == END) break;
+                sb.setLength(0);
+                NbtJsonWriter.COMPACT.write(line.tag(), sb);
+                sb.append('\n');
+                CharBuffer chars = CharBuffer.wrap(sb);
+                while (true) {
+                    CoderResult result = encoder.encode(chars, buffer, false);
+                    if (result.isOverflow()) {
+                        flush(buffer, out);
+                    } else if (result.isError()) {
+                        result.throwException();
+                    } else {
+                        break;
+                    }
+                }
+                written += 1;
+            }
+            flush(buffer, out);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            writeError = t;
+            plugin.getLogger().log(Level.SEVERE, "Export " + file, t);
+        }
+    }
+
+    private static void flush(ByteBuffer buffer, FileChannel out) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) out.write(buffer);
+        buffer.clear();
+    }
+}
@@ -0,0 +1,223 @@
+package com.cavetale.dirty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveAction;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+
+/**
+ * Converts many items between NBT and maps on the fork-join pool.
+ *
+ * The input list is split in halves down to LEAF_SIZE items.  An
+ * item whose tag.BlockEntityTag.Items holds more items, such as a
+ * shulker box, has those converted as a subtask while the rest of the
+ * item is converted in place, and the results are joined back in.
+ * Every result goes into its own slot, so the output order is the
+ * input order.  Below PARALLEL_THRESHOLD items, counting nested ones,
+ * everything runs on the calling thread.
+ */
+final class ItemBatch {
+    static final int PARALLEL_THRESHOLD = 64;
+    private static final int LEAF_SIZE = 8;
+
+    private ItemBatch() { }
+
+    /**
+     * Convert saved items to maps.  Null entries stay null.  The tags
+     * are modified temporarily, so nobody else may be using them.
+     */
+    @SuppressWarnings("unchecked")
+    static List<Map<String, Object>> fromTags(List<NBTTagCompound> tags) {
+        Object[] result = new Object[tags.size()];
+        if (countTags(tags, 0) < PARALLEL_THRESHOLD) {
+            for (int i = 0; i < result.length; i += 1) result[i] = Dirty.fromTag0(tags.get(i));
+        } else {
+            DirtyExecutor.forkJoin().invoke(new FromTags(tags, result, 0, result.length));
+        }
+        return (List<Map<String, Object>>) (List<?>) new ArrayList<>(Arrays.asList(result));
+    }
+
+    /**
+     * Convert item maps to NBT.  Null entries stay null.  The maps
+     * are not modified.
+     */
+    @SuppressWarnings("unchecked")
+    static List<NBTTagCompound> toTags(List<Map<String, Object>> maps) {
+        Object[] result = new Object[maps.size()];
+        if (countMaps(maps, 0) < PARALLEL_THRESHOLD) {
+            for (int i = 0; i < result.length; i += 1) result[i] = Dirty.toTag0(maps.get(i));
+        } else {
+            DirtyExecutor.forkJoin().invoke(new ToTags(maps, result, 0, result.length));
+        }
+        return (List<NBTTagCompound>) (List<?>) new ArrayList<>(Arrays.asList(result));
+    }
+
+    /**
+     * Count items including nested ones, but stop at the threshold.
+     */
+    private static int countTags(List<NBTTagCompound> tags, int count) {
+        for (NBTTagCompound tag : tags) {
+            if (count >= PARALLEL_THRESHOLD) break;
+            if (tag == null) continue;
+            count += 1;
+            List<NBTTagCompound> nested = nestedTags(tag);
+            if (nested != null) count = countTags(nested, count);
+        }
+        return count;
+    }
+
+    private static int countMaps(List<Map<String, Object>> maps, int count) {
+        for (Map<String, Object> map : maps) {
+            if (count >= PARALLEL_THRESHOLD) break;
+            if (map == null) continue;
+            count += 1;
+            List<Map<String, Object>> nested = nestedMaps(map);
+            if (nested != null) count = countMaps(nested, count);
+        }
+        return count;
+    }
+
+    private static NBTTagCompound blockEntityTag(NBTTagCompound item) {
+        return item.x.get("tag") instanceof NBTTagCompound tag
+            && tag.x.get("BlockEntityTag") instanceof NBTTagCompound blockEntityTag
+            ? blockEntityTag
+            : null;
+    }
+
+    /**
+     * The items in tag.BlockEntityTag.Items, or null if there are
+     * none.
+     */
+    private static List<NBTTagCompound> nestedTags(NBTTagCompound item) {
+        NBTTagCompound blockEntityTag = blockEntityTag(item);
+        if (blockEntityTag == null) return null;
+        if (!(blockEntityTag.x.get("Items") instanceof NBTTagList items) || items.isEmpty()) return null;
+        List<NBTTagCompound> result = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i += 1) {
+            if (!(items.get(i) instanceof NBTTagCompound nested)) return null;
+            result.add(nested);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> nestedMaps(Map<String, Object> item) {
+        return item.get("tag") instanceof Map<?, ?> tag
+            && tag.get("BlockEntityTag") instanceof Map<?, ?> blockEntityTag
+            && blockEntityTag.get("Items") instanceof List<?> items
+            && !items.isEmpty()
+            && items.stream().allMatch(it -> it instanceof Map)
+            ? (List<Map<String, Object>>) items
+            : null;
+    }
+
+    /**
+     * Convert one item, forking its nested items.  The Items list is
+     * taken out of the tag while the rest is converted, then put
+     * back.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> fromTag(NBTTagCompound item) {
+        if (item == null) return null;
+        List<NBTTagCompound> nested = nestedTags(item);
+        if (nested == null) return (Map<String, Object>) Dirty.fromTag0(item);
+        Object[] nestedResult = new Object[nested.size()];
+        FromTags subtask = new FromTags(nested, nestedResult, 0, nestedResult.length);
+        subtask.fork();
+        NBTTagCompound blockEntityTag = blockEntityTag(item);
+        NBTBase items = blockEntityTag.x.remove("Items");
+        Map<String, Object> result;
+        try {
+            result = (Map<String, Object>) Dirty.fromTag0(item);
+        } finally {
+            blockEntityTag.a("Items", items); // set
+        }
+        subtask.join();
+        Map<String, Object> tag = (Map<String, Object>) result.get("tag");
+        Map<String, Object> blockEntityMap = (Map<String, Object>) tag.get("BlockEntityTag");
+        blockEntityMap.put("Items", new ArrayList<>(Arrays.asList(nestedResult)));
+        return result;
+    }
+
+    /**
+     * Convert one item map, forking its nested items.  The path to
+     * the Items list is copied, so the input stays untouched.
+     */
+    @SuppressWarnings("unchecked")
+    private static NBTTagCompound toTag(Map<String, Object> item) {
+        if (item == null) return null;
+        List<Map<String, Object>> nested = nestedMaps(item);
+        if (nested == null) return (NBTTagCompound) Dirty.toTag0(item);
+        Object[] nestedResult = new Object[nested.size()];
+        ToTags subtask = new ToTags(nested, nestedResult, 0, nestedResult.length);
+        subtask.fork();
+        Map<String, Object> itemCopy = new HashMap<>(item);
+        Map<String, Object> tagCopy = new HashMap<>((Map<String, Object>) item.get("tag"));
+        Map<String, Object> blockEntityCopy = new HashMap<>((Map<String, Object>) tagCopy.get("BlockEntityTag"));
+        blockEntityCopy.remove("Items");
+        tagCopy.put("BlockEntityTag", blockEntityCopy);
+        itemCopy.put("tag", tagCopy);
+        NBTTagCompound result = (NBTTagCompound) Dirty.toTag0(itemCopy);
+        subtask.join();
+        NBTTagList items = new NBTTagList();
+        for (int i = 0; i < nestedResult.length; i += 1) {
+            NBTBase it = (NBTBase) nestedResult[i];
+            items.add(nested.get(i) instanceof TagView ? it.c() : it); // copy views, see Dirty.toTag
+        }
+        blockEntityTag(result).a("Items", items); // set
+        return result;
+    }
+
+    private static final class FromTags extends RecursiveAction {
+        private final List<NBTTagCompound> tags;
+        private final Object[] result;
+        private final int from;
+        private final int to;
+
+        FromTags(final List<NBTTagCompound> tags, final Object[] result, final int from, final int to) {
+            this.tags = tags;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_SIZE) {
+                for (int i = from; i < to; i += 1) result[i] = fromTag(tags.get(i));
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new FromTags(tags, result, from, mid), new FromTags(tags, result, mid, to));
+            }
+        }
+    }
+
+    private static final class ToTags extends RecursiveAction {
+        private final List<Map<String, Object>> maps;
+        private final Object[] result;
+        private final int from;
+        private final int to;
+
+        ToTags(final List<Map<String, Object>> maps, final Object[] result, final int from, final int to) {
+            this.maps = maps;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_SIZE) {
+                for (int i = from; i < to; i += 1) result[i] = toTag(maps.get(i));
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ToTags(maps, result, from, mid), new ToTags(maps, result, mid, to));
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.cavetale.dirty;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.world.item.ItemStack;
+import org.bukkit.Material;
+import org.bukkit.craftbukkit.v1_19_R1.inventory.CraftItemStack;
+
+/**
+ * Memoize serializeItem and getItemTag for items which are
+ * serialized over and over, such as menu templates.
+ *
+ * Entries are keyed by item type, amount, and tag contents.  A
+ * lookup hashes the live tag but copies nothing; the tag is only
+ * copied into the key on a miss.  Results are immutable, see
+ * Dirty.fromTagCanonical, and may be shared.
+ *
+ * The cache is bounded by weight, that is, the number of NBT nodes
+ * of all cached tags, and evicts least recently used entries.
+ */
+public final class ItemSerializationCache {
+    private final long maxWeight;
+    private final LinkedHashMap<Key, Value> map = new LinkedHashMap<>(256, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ItemSerializationCache(final long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Cached equivalent of Dirty.serializeItem.
+     */
+    public Map<String, Object> serializeItem(org.bukkit.inventory.ItemStack bukkitItem) {
+        if (bukkitItem == null) throw new NullPointerException("bukkitItem cannot be null");
+        return get(bukkitItem, true);
+    }
+
+    /**
+     * Cached equivalent of Dirty.getItemTag.
+     */
+    public Map<String, Object> getItemTag(org.bukkit.inventory.ItemStack bukkitItem) {
+        if (!(bukkitItem instanceof CraftItemStack)) return null;
+        return get(bukkitItem, false);
+    }
+
+    private Map<String, Object> get(org.bukkit.inventory.ItemStack bukkitItem, boolean full) {
+        ItemStack nmsItem = bukkitItem instanceof CraftItemStack craftItemStack
+            ? NmsAccess.getHandle(craftItemStack)
+            : CraftItemStack.asNMSCopy(bukkitItem);
+        NBTTagCompound tag = nmsItem != null ? NmsAccess.getTag(nmsItem) : null;
+        if (!full && tag == null) return null;
+        Key probe = new Key(bukkitItem.getType(), bukkitItem.getAmount(), tag, full);
+        synchronized (this) {
+            Value value = map.get(probe);
+            if (value != null) {
+                hits += 1;
+                return value.result;
+            }
+            misses += 1;
+        }
+        NBTTagCompound saved = full ? Dirty.saveItemNbt0(bukkitItem) : tag;
+        @SuppressWarnings("unchecked")
+        Map<String, Object> result = (Map<String, Object>) TagCanonicalizer.canonical(saved);
+        Key key = new Key(probe.type, probe.amount, tag != null ? (NBTTagCompound) tag.c() : null, full);
+        Value value = new Value(result, 1 + countNodes(saved));
+        synchronized (this) {
+            Value old = map.put(key, value);
+            if (old != null) weight -= old.weight;
+            weight += value.weight;
+            Iterator<Value> iter = map.values().iterator();
+            while (weight > maxWeight && iter.hasNext()) {
+                Value eldest = iter.next();
+                if (eldest == value) break;
+                iter.remove();
+                weight -= eldest.weight;
+                evictions += 1;
+            }
+        }
+        return result;
+    }
+
+    private static int countNodes(NBTBase value) {
+        if (value instanceof NBTTagCompound compound) {
+            int result = 1;
+            for (NBTBase child : compound.x.values()) result += countNodes(child);
+            return result;
+        } else if (value instanceof NBTTagList list) {
+            int result = 1;
+            for (int i = 0; i < list.size(); i += 1) result += countNodes(list.get(i));
+            return result;
+        } else {
+            return value != null ? 1 : 0;
+        }
+    }
+
+    public synchronized void clear() {
+        map.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized void resetCounters() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "entries=" + map.size()
+            + " weight=" + weight + "/" + maxWeight
+            + " hits=" + hits
+            + " misses=" + misses
+            + " evictions=" + evictions;
+    }
+
+    private static final class Key {
+        private final Material type;
+        private final int amount;
+        private final NBTTagCompound tag;
+        private final boolean full;
+        private final int hash;
+
+        Key(final Material type, final int amount, final NBTTagCompound tag, final boolean full) {
+            this.type = type;
+            this.amount = full ? amount : 0;
+            this.tag = tag;
+            this.full = full;
+            this.hash = Objects.hash(type, this.amount, tag, full);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key other)) return false;
+            return hash == other.hash
+                && type == other.type
+                && amount == other.amount
+                && full == other.full
+                && Objects.equals(tag, other.tag);
+        }
+    }
+
+    private static final class Value {
+        private final Map<String, Object> result;
+        private final int weight;
+
+        Value(final Map<String, Object> result, final int weight) {
+            this.result = result;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.cavetale.dirty;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.item.ItemStack;
+
+/**
+ * Content addressed store of items in a folder.  Each item is stored
+ * once under a reference derived from its NbtHash.  Storing an item
+ * which is already present costs one hash, one lookup, and one read
+ * to confirm that the stored item is really equal, as in
+ * NbtHash.equal.
+ *
+ * NbtHash is not collision resistant against crafted input, such as
+ * item names chosen by players.  So when a different item is already
+ * stored under a hash, the next one is tried, low + 1, until a free
+ * or equal one is found.  Thus within one store, equal references
+ * mean equal items, but a reference is not always the plain hash.
+ *
+ * Items live in append-only segment files, items-NNNNN.seg, each
+ * starting with the magic "DIS" and a version byte, followed by
+ * records: the reference as two longs, the length as an int, and the
+ * item in the NbtBinary format, deflated.  Segments are read through
+ * memory mappings, which are only renewed once the file has doubled
+ * in size; records appended since are read from the channel.
+ * Nothing is ever overwritten or deleted.
+ *
+ * The index from reference to record lives in memory and is rebuilt
+ * by scanning the record headers when the store is opened.  A record
+ * cut short by a crash is dropped.  The folder is locked while the
+ * store is open, so only one process can use it.
+ *
+ * Instances are thread safe.  Hashing, encoding and decoding happen
+ * outside the lock.
+ */
+public final class ItemStore implements Closeable {
+    private static final byte[] MAGIC = {'D', 'I', 'S'};
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = MAGIC.length + 1;
+    private static final int RECORD_HEADER_SIZE = 8 + 8 + 4;
+    private static final long SEGMENT_BYTES = 64L * 1024L * 1024L;
+    private final File folder;
+    private FileLock lock;
+    private final List<Segment> segments = new ArrayList<>();
+    /** Packed segment index and offset of each record. */
+    private final Map<NbtHash, Long> index = new HashMap<>();
+    private boolean closed;
+
+    private ItemStore(final File folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Open a store, creating the folder if necessary.
+     * @throws IOException if the folder is locked by another store
+     */
+    public static ItemStore open(File folder) throws IOException {
+        folder.mkdirs();
+        if (!folder.isDirectory()) throw new IOException("Not a folder: " + folder);
+        ItemStore result = new ItemStore(folder);
+        FileChannel lockChannel = FileChannel.open(new File(folder, "lock").toPath(),
+                                                   StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            result.lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException ofle) {
+            result.lock = null;
+        } finally {
+            if (result.lock == null) lockChannel.close();
+        }
+        if (result.lock == null) throw new IOException("ItemStore is in use: " + folder);
+        File[] files = folder.listFiles((dir, name) -> name.startsWith("items-") && name.endsWith(".seg"));
+        Arrays.sort(files);
+        try {
+            for (int i = 0; i < files.length; i += 1) {
+                String expected = segmentName(i);
+                if (!files[i].getName().equals(expected)) {
+                    throw new IOException("Missing segment " + expected + " in " + folder);
+                }
+                result.segments.add(result.scan(files[i], i, i == files.length - 1));
+            }
+        } catch (IOException ioe) {
+            result.close();
+            throw ioe;
+        }
+        return result;
+    }
+
+    private static String segmentName(int number) {
+        return String.format("items-%05d.seg", number);
+    }
+
+    /**
+     * Open a segment and index its records.  A partial record at the
+     * end of the last segment is cut off.
+     */
+    private Segment scan(File file, int number, boolean last) throws IOException {
+        FileChannel channel = last
+            ? FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+            : FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (size < HEADER_SIZE
+                || buffer.get(0) != MAGIC[0] || buffer.get(1) != MAGIC[1] || buffer.get(2) != MAGIC[2]) {
+                throw new IOException("Bad magic: " + file);
+            }
+            int version = buffer.get(3);
+            if (version != VERSION) throw new IOException("Unsupported version " + version + ": " + file);
+            int offset = HEADER_SIZE;
+            while (offset + RECORD_HEADER_SIZE <= size) {
+                int length = buffer.getInt(offset + 16);
+                if (length < 0 || offset + RECORD_HEADER_SIZE + (long) length > size) break;
+                NbtHash ref = new NbtHash(buffer.getLong(offset), buffer.getLong(offset + 8));
+                index.putIfAbsent(ref, pack(number, offset));
+                offset += RECORD_HEADER_SIZE + length;
+            }
+            if (offset != size) {
+                if (!last) throw new IOException("Truncated segment: " + file);
+                channel.truncate(offset);
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, offset);
+            }
+            return new Segment(channel, buffer, offset);
+        } catch (IOException ioe) {
+            channel.close();
+            throw ioe;
+        }
+    }
+
+    private static long pack(int segment, int offset) {
+        return ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Store an item, unless an equal one is already stored.
+     * @param bukkitItem The item.
+     * @return The reference, usually the hash of the full item.
+     */
+    public NbtHash put(org.bukkit.inventory.ItemStack bukkitItem) throws IOException {
+        if (bukkitItem == null) throw new NullPointerException("bukkitItem cannot be null");
+        return put(Dirty.saveItemNbt0(bukkitItem));
+    }
+
+    /**
+     * Store a saved item.  The caller must not modify the tag
+     * during the call.
+     */
+    NbtHash put(NBTTagCompound tag) throws IOException {
+        NbtHash ref = NbtHash.of(tag);
+        byte[] data = null;
+        while (true) {
+            byte[] stored;
+            synchronized (this) {
+                checkOpen();
+                Long location = index.get(ref);
+                if (location == null && data != null) {
+                    append(ref, data);
+                    return ref;
+                }
+                stored = location != null ? read(location) : null;
+            }
+            if (stored == null) {
+                data = NbtBinary.encode(List.of(tag), true);
+            } else if ((data != null && Arrays.equals(stored, data)) || NbtHash.equal(tag, decode(stored, ref))) {
+                return ref;
+            } else {
+                ref = new NbtHash(ref.high(), ref.low() + 1L); // Collision
+            }
+        }
+    }
+
+    /**
+     * Load a stored item.
+     * @param ref The reference returned by put.
+     * @return A new item, or null if there is none by that reference.
+     */
+    public org.bukkit.inventory.ItemStack get(NbtHash ref) throws IOException {
+        byte[] data;
+        synchronized (this) {
+            checkOpen();
+            Long location = index.get(ref);
+            if (location == null) return null;
+            data = read(location);
+        }
+        return ItemStack.a(decode(data, ref)).asBukkitMirror(); // of
+    }
+
+    private static NBTTagCompound decode(byte[] data, NbtHash ref) throws IOException {
+        List<NBTTagCompound> tags;
+        try {
+            tags = NbtBinary.decode(data);
+        } catch (IllegalArgumentException iae) {
+            throw new IOException("ItemStore: Corrupt record: " + ref, iae);
+        }
+        if (tags.size() != 1 || tags.get(0) == null) {
+            throw new IOException("ItemStore: Corrupt record: " + ref);
+        }
+        return tags.get(0);
+    }
+
+    /**
+     * Read the data of a record.  Records beyond the mapping are read
+     * from the channel, until the segment has grown to twice the
+     * mapped size, which is when it is mapped again.
+     */
+    private byte[] read(long location) throws IOException {
+        Segment segment = segments.get((int) (location >>> 32));
+        int offset = (int) location;
+        if (offset + RECORD_HEADER_SIZE > segment.buffer.limit() && segment.size >= 2L * segment.buffer.limit()) {
+            segment.buffer = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+        }
+        if (offset + RECORD_HEADER_SIZE <= segment.buffer.limit()) {
+            int length = segment.buffer.getInt(offset + 16);
+            if (offset + RECORD_HEADER_SIZE + (long) length <= segment.buffer.limit()) {
+                byte[] data = new byte[length];
+                segment.buffer.get(offset + RECORD_HEADER_SIZE, data);
+                return data;
+            }
+        }
+        ByteBuffer header = ByteBuffer.allocate(4);
+        readFully(segment.channel, header, offset + 16L);
+        ByteBuffer data = ByteBuffer.allocate(header.getInt(0));
+        readFully(segment.channel, data, offset + (long) RECORD_HEADER_SIZE);
+        return data.array();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position + buffer.position());
+            if (count < 0) throw new IOException("ItemStore: Unexpected end of segment");
+        }
+    }
+
+    public synchronized boolean contains(NbtHash ref) {
+        return index.containsKey(ref);
+    }
+
+    /**
+     * The number of distinct items stored.
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public File getFolder() {
+        return folder;
+    }
+
+    private void append(NbtHash hash, byte[] data) throws IOException {
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || (segment.size > HEADER_SIZE
+                                && segment.size + RECORD_HEADER_SIZE + data.length > SEGMENT_BYTES)) {
+            segment = createSegment(segments.size());
+            segments.add(segment);
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + data.length);
+        record.putLong(hash.high());
+        record.putLong(hash.low());
+        record.putInt(data.length);
+        record.put(data);
+        record.flip();
+        int offset = segment.size;
+        long position = offset;
+        while (record.hasRemaining()) {
+            position += segment.channel.write(record, position);
+        }
+        segment.size = (int) position;
+        index.put(hash, pack(segments.size() - 1, offset));
+    }
+
+    private Segment createSegment(int number) throws IOException {
+        if (!segments.isEmpty()) segments.get(segments.size() - 1).channel.force(false);
+        File file = new File(folder, segmentName(number));
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                               StandardOpenOption.CREATE_NEW);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(MAGIC);
+            header.put((byte) VERSION);
+            header.flip();
+            while (header.hasRemaining()) channel.write(header, header.position());
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            return new Segment(channel, buffer, HEADER_SIZE);
+        } catch (IOException ioe) {
+            channel.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Write everything appended so far to disk.
+     */
+    public synchronized void flush() throws IOException {
+        checkOpen();
+        if (!segments.isEmpty()) segments.get(segments.size() - 1).channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        IOException error = null;
+        for (Segment segment : segments) {
+            try {
+                segment.channel.close();
+            } catch (IOException ioe) {
+                if (error == null) error = ioe;
+            }
+        }
+        segments.clear();
+        index.clear();
+        if (lock != null) {
+            try {
+                lock.channel().close();
+            } catch (IOException ioe) {
+                if (error == null) error = ioe;
+            }
+            lock = null;
+        }
+        if (error != null) throw error;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) throw new IOException("ItemStore is closed: " + folder);
+    }
+
+    private static final class Segment {
+        private final FileChannel channel;
+        private MappedByteBuffer buffer;
+        private int size;
+
+        Segment(final FileChannel channel, final MappedByteBuffer buffer, final int size) {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.cavetale.dirty;
+
+/**
+ * Options for writing NBT as JSON.
+ */
+public enum JsonOption {
+    /**
+     * Indent the output, like Gson's pretty printing.
+     */
+    PRETTY,
+    /**
+     * Append type hints to compound keys, such as "Count#b", so the
+     * result can be read back into the exact same NBT.  Keys of
+     * strings, compounds, ints, doubles, and lists thereof need no
+     * hint and are written unchanged.
+     */
+    TYPED;
+}
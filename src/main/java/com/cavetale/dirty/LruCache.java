@@ -0,0 +1,91 @@
+package com.cavetale.dirty;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded map which evicts the least recently used entries.  It is
+ * split into stripes by hash, each an access ordered LinkedHashMap
+ * under its own lock, so threads working on different keys rarely
+ * wait for each other.  Recency is kept per stripe, which is close
+ * enough to a global order for caching.
+ *
+ * Null keys and values are not permitted.
+ */
+final class LruCache<K, V> {
+    private final Stripe<K, V>[] stripes;
+
+    /**
+     * @param capacity The total number of entries kept.
+     * @param stripeCount The number of stripes, a power of two.
+     */
+    LruCache(final int capacity, final int stripeCount) {
+        if (Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException("LruCache: Stripe count not a power of two: " + stripeCount);
+        }
+        @SuppressWarnings("unchecked")
+        Stripe<K, V>[] array = new Stripe[stripeCount];
+        int stripeCapacity = Math.max(1, capacity / stripeCount);
+        for (int i = 0; i < stripeCount; i += 1) array[i] = new Stripe<>(stripeCapacity);
+        this.stripes = array;
+    }
+
+    private Stripe<K, V> stripe(Object key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+
+    V get(K key) {
+        Stripe<K, V> stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    /**
+     * Store a value unless the key is already present.
+     * @return The value already present, or null if the new value was
+     * stored.
+     */
+    V putIfAbsent(K key, V value) {
+        Stripe<K, V> stripe = stripe(key);
+        synchronized (stripe) {
+            V old = stripe.get(key);
+            if (old != null) return old;
+            stripe.put(key, value);
+            return null;
+        }
+    }
+
+    int size() {
+        int result = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                result += stripe.size();
+            }
+        }
+        return result;
+    }
+
+    void clear() {
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    private static final class Stripe<K, V> extends LinkedHashMap<K, V> {
+        private final int capacity;
+
+        Stripe(final int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > capacity;
+        }
+    }
+}
@@ -0,0 +1,518 @@
+package com.cavetale.dirty;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLong;
+import net.minecraft.nbt.NBTTagLongArray;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
+
+/**
+ * Compact binary encoding of a sequence of compounds, such as the
+ * items of an inventory.
+ *
+ * Layout:
+ * - Magic "DNB", version byte, flags byte.  With FLAG_DEFLATE, the
+ *   remainder is deflated with a preset dictionary of common keys.
+ * - String table: count, then each string as length and UTF-8.
+ *   Every key and string value appears once and is referred to by
+ *   index.
+ * - Compound count, then each compound as a presence byte and, if
+ *   present, its entries: count, then key index, type id, payload.
+ *
+ * Integers are zigzag varints, type ids are the vanilla NBT ids.
+ *
+ * Decoding checks every read against the end of the input, and every
+ * count and string index against what is left of it, so corrupt or
+ * hostile input throws IllegalArgumentException rather than any
+ * other exception, or allocating more than the input could hold.
+ * Deflated input is inflated to at most MAX_INFLATED_SIZE bytes.
+ */
+final class NbtBinary {
+    private static final byte[] MAGIC = {'D', 'N', 'B'};
+    private static final int VERSION = 1;
+    private static final int FLAG_DEFLATE = 1;
+    private static final int HEADER_SIZE = MAGIC.length + 2;
+    private static final int TAG_END = 0;
+    private static final int TAG_BYTE = 1;
+    private static final int TAG_SHORT = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_FLOAT = 5;
+    private static final int TAG_DOUBLE = 6;
+    private static final int TAG_BYTE_ARRAY = 7;
+    private static final int TAG_STRING = 8;
+    private static final int TAG_LIST = 9;
+    private static final int TAG_COMPOUND = 10;
+    private static final int TAG_INT_ARRAY = 11;
+    private static final int TAG_LONG_ARRAY = 12;
+    private static final int MAX_DEPTH = 512;
+    /**
+     * Far more than a full inventory of shulker boxes of books, but
+     * small enough that a deflate bomb cannot exhaust the heap.
+     */
+    static final int MAX_INFLATED_SIZE = 64 << 20;
+    /**
+     * Preset deflate dictionary, laid out like the string table so
+     * matches are found.  Most frequent strings go last.
+     */
+    private static final byte[] DICTIONARY = dictionary("CanDestroy", "CanPlaceOn", "Unbreakable",
+                                                        "AttributeModifiers", "AttributeName", "Operation",
+                                                        "Amount", "UUID", "Slot", "HideFlags", "RepairCost",
+                                                        "StoredEnchantments", "CustomModelData", "Potion",
+                                                        "CustomPotionEffects", "Fireworks", "Explosions",
+                                                        "pages", "author", "title", "BlockEntityTag", "Items",
+                                                        "SkullOwner", "Properties", "textures", "Value", "Id",
+                                                        "PublicBukkitValues", "color", "italic", "bold", "extra",
+                                                        "text", "Lore", "Name", "display", "lvl", "Enchantments",
+                                                        "Damage", "tag", "Count", "id", "minecraft:");
+
+    private NbtBinary() { }
+
+    static byte[] encode(List<NBTTagCompound> tags, boolean deflate) {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        for (NBTTagCompound tag : tags) {
+            if (tag != null) collectStrings(tag, strings);
+        }
+        Out out = new Out(256);
+        out.writeVarInt(strings.size());
+        for (String string : strings.keySet()) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeVarInt(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        out.writeVarInt(tags.size());
+        for (NBTTagCompound tag : tags) {
+            if (tag == null) {
+                out.writeByte(0);
+            } else {
+                out.writeByte(1);
+                writeCompound(tag, out, strings);
+            }
+        }
+        Out result = new Out(HEADER_SIZE + (deflate ? out.size / 2 : out.size));
+        result.write(MAGIC, 0, MAGIC.length);
+        result.writeByte(VERSION);
+        result.writeByte(deflate ? FLAG_DEFLATE : 0);
+        if (deflate) {
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try {
+                deflater.setDictionary(DICTIONARY);
+                deflater.setInput(out.buf, 0, out.size);
+                deflater.finish();
+                byte[] chunk = new byte[4096];
+                while (!deflater.finished()) {
+                    int len = deflater.deflate(chunk);
+                    result.write(chunk, 0, len);
+                }
+            } finally {
+                deflater.end();
+            }
+        } else {
+            result.write(out.buf, 0, out.size);
+        }
+        return result.toByteArray();
+    }
+
+    static List<NBTTagCompound> decode(byte[] data) {
+        if (data.length < HEADER_SIZE
+            || data[0] != MAGIC[0] || data[1] != MAGIC[1] || data[2] != MAGIC[2]) {
+            throw new IllegalArgumentException("NbtBinary.decode: Bad magic");
+        }
+        int version = data[3];
+        if (version != VERSION) {
+            throw new IllegalArgumentException("NbtBinary.decode: Unsupported version: " + version);
+        }
+        int flags = data[4];
+        In in;
+        if ((flags & FLAG_DEFLATE) != 0) {
+            in = new In(inflate(data, HEADER_SIZE), 0);
+        } else {
+            in = new In(data, HEADER_SIZE);
+        }
+        int stringCount = in.readCount();
+        String[] strings = new String[stringCount];
+        for (int i = 0; i < stringCount; i += 1) {
+            int len = in.readCount();
+            strings[i] = new String(in.buf, in.pos, len, StandardCharsets.UTF_8);
+            in.pos += len;
+        }
+        int count = in.readCount();
+        List<NBTTagCompound> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i += 1) {
+            result.add(in.readByte() == 0 ? null : readCompound(in, strings, 0));
+        }
+        return result;
+    }
+
+    private static byte[] inflate(byte[] data, int offset) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset, data.length - offset);
+            Out out = new Out((int) Math.min((long) data.length * 4, MAX_INFLATED_SIZE));
+            byte[] chunk = new byte[4096];
+            while (!inflater.finished()) {
+                int len = inflater.inflate(chunk);
+                if (len > MAX_INFLATED_SIZE - out.size) {
+                    throw new IllegalArgumentException("NbtBinary.inflate: Larger than " + MAX_INFLATED_SIZE
+                                                       + " bytes");
+                }
+                if (len == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(DICTIONARY);
+                    } else if (inflater.needsInput()) {
+                        throw new IllegalArgumentException("NbtBinary.inflate: Truncated input");
+                    }
+                }
+                out.write(chunk, 0, len);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException dfe) {
+            throw new IllegalArgumentException("NbtBinary.inflate: " + dfe.getMessage(), dfe);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void collectStrings(NBTBase value, Map<String, Integer> strings) {
+        if (value instanceof NBTTagCompound nbtTagCompound) {
+            for (Map.Entry<String, NBTBase> entry : nbtTagCompound.x.entrySet()) {
+                strings.putIfAbsent(entry.getKey(), strings.size());
+                collectStrings(entry.getValue(), strings);
+            }
+        } else if (value instanceof NBTTagList nbtTagList) {
+            for (int i = 0; i < nbtTagList.size(); i += 1) {
+                collectStrings(nbtTagList.get(i), strings);
+            }
+        } else if (value instanceof NBTTagString nbtTagString) {
+            strings.putIfAbsent((String) nbtTagString.e_(), strings.size()); // asString
+        }
+    }
+
+    static int typeId(NBTBase value) {
+        if (value instanceof NBTTagCompound) return TAG_COMPOUND;
+        if (value instanceof NBTTagList) return TAG_LIST;
+        if (value instanceof NBTTagString) return TAG_STRING;
+        if (value instanceof NBTTagInt) return TAG_INT;
+        if (value instanceof NBTTagLong) return TAG_LONG;
+        if (value instanceof NBTTagShort) return TAG_SHORT;
+        if (value instanceof NBTTagFloat) return TAG_FLOAT;
+        if (value instanceof NBTTagDouble) return TAG_DOUBLE;
+        if (value instanceof NBTTagByte) return TAG_BYTE;
+        if (value instanceof NBTTagByteArray) return TAG_BYTE_ARRAY;
+        if (value instanceof NBTTagIntArray) return TAG_INT_ARRAY;
+        if (value instanceof NBTTagLongArray) return TAG_LONG_ARRAY;
+        throw new IllegalArgumentException("NbtBinary.typeId: Unsupported value type: "
+                                           + value.getClass().getName());
+    }
+
+    private static void writeCompound(NBTTagCompound tag, Out out, Map<String, Integer> strings) {
+        out.writeVarInt(tag.x.size());
+        for (Map.Entry<String, NBTBase> entry : tag.x.entrySet()) {
+            NBTBase value = entry.getValue();
+            out.writeVarInt(strings.get(entry.getKey()));
+            int type = typeId(value);
+            out.writeByte(type);
+            writePayload(type, value, out, strings);
+        }
+    }
+
+    private static void writePayload(int type, NBTBase value, Out out, Map<String, Integer> strings) {
+        switch (type) {
+        case TAG_BYTE:
+            out.writeByte((byte) ((NBTTagByte) value).h()); // asByte
+            break;
+        case TAG_SHORT:
+            out.writeVarInt(zigzag((short) ((NBTTagShort) value).g())); // asShort
+            break;
+        case TAG_INT:
+            out.writeVarInt(zigzag((int) ((NBTTagInt) value).f())); // asInt
+            break;
+        case TAG_LONG:
+            out.writeVarLong(zigzag((long) ((NBTTagLong) value).f())); // asLong
+            break;
+        case TAG_FLOAT:
+            out.writeInt(Float.floatToRawIntBits((float) ((NBTTagFloat) value).j())); // asFloat
+            break;
+        case TAG_DOUBLE:
+            out.writeLong(Double.doubleToRawLongBits((double) ((NBTTagDouble) value).i())); // asDouble
+            break;
+        case TAG_STRING:
+            out.writeVarInt(strings.get((String) ((NBTTagString) value).e_())); // asString
+            break;
+        case TAG_BYTE_ARRAY: {
+            byte[] bytes = ((NBTTagByteArray) value).d(); // getBytes
+            out.writeVarInt(bytes.length);
+            out.write(bytes, 0, bytes.length);
+            break;
+        }
+        case TAG_INT_ARRAY: {
+            int[] ints = ((NBTTagIntArray) value).f(); // getInts
+            out.writeVarInt(ints.length);
+            for (int i : ints) out.writeVarInt(zigzag(i));
+            break;
+        }
+        case TAG_LONG_ARRAY: {
+            long[] longs = ((NBTTagLongArray) value).f(); // getLongs
+            out.writeVarInt(longs.length);
+            for (long l : longs) out.writeVarLong(zigzag(l));
+            break;
+        }
+        case TAG_LIST: {
+            NBTTagList list = (NBTTagList) value;
+            int elementType = list.isEmpty() ? TAG_END : typeId(list.get(0));
+            out.writeByte(elementType);
+            out.writeVarInt(list.size());
+            for (int i = 0; i < list.size(); i += 1) {
+                writePayload(elementType, list.get(i), out, strings);
+            }
+            break;
+        }
+        case TAG_COMPOUND:
+            writeCompound((NBTTagCompound) value, out, strings);
+            break;
+        default:
+            throw new IllegalArgumentException("NbtBinary.writePayload: Unsupported type: " + type);
+        }
+    }
+
+    private static NBTTagCompound readCompound(In in, String[] strings, int depth) {
+        if (depth > MAX_DEPTH) throw new IllegalArgumentException("NbtBinary.decode: Too deeply nested");
+        NBTTagCompound tag = new NBTTagCompound();
+        int count = in.readCount();
+        for (int i = 0; i < count; i += 1) {
+            String key = readString(in, strings);
+            int type = in.readByte();
+            tag.a(key, readPayload(type, in, strings, depth + 1)); // set
+        }
+        return tag;
+    }
+
+    private static String readString(In in, String[] strings) {
+        int index = in.readVarInt();
+        if (index < 0 || index >= strings.length) {
+            throw new IllegalArgumentException("NbtBinary.decode: Bad string index: " + index);
+        }
+        return strings[index];
+    }
+
+    private static NBTBase readPayload(int type, In in, String[] strings, int depth) {
+        switch (type) {
+        case TAG_BYTE: return NBTTagByte.a((byte) in.readByte());
+        case TAG_SHORT: return NBTTagShort.a((short) unzigzag(in.readVarInt()));
+        case TAG_INT: return NBTTagInt.a(unzigzag(in.readVarInt()));
+        case TAG_LONG: return NBTTagLong.a(unzigzag(in.readVarLong()));
+        case TAG_FLOAT: return NBTTagFloat.a(Float.intBitsToFloat(in.readInt()));
+        case TAG_DOUBLE: return NBTTagDouble.a(Double.longBitsToDouble(in.readLong()));
+        case TAG_STRING: return NBTTagString.a(readString(in, strings));
+        case TAG_BYTE_ARRAY: {
+            int len = in.readCount();
+            byte[] bytes = Arrays.copyOfRange(in.buf, in.pos, in.pos + len);
+            in.pos += len;
+            return new NBTTagByteArray(bytes);
+        }
+        case TAG_INT_ARRAY: {
+            int[] ints = new int[in.readCount()];
+            for (int i = 0; i < ints.length; i += 1) ints[i] = unzigzag(in.readVarInt());
+            return new NBTTagIntArray(ints);
+        }
+        case TAG_LONG_ARRAY: {
+            long[] longs = new long[in.readCount()];
+            for (int i = 0; i < longs.length; i += 1) longs[i] = unzigzag(in.readVarLong());
+            return new NBTTagLongArray(longs);
+        }
+        case TAG_LIST: {
+            if (depth > MAX_DEPTH) throw new IllegalArgumentException("NbtBinary.decode: Too deeply nested");
+            int elementType = in.readByte();
+            int count = in.readCount();
+            NBTTagList list = new NBTTagList();
+            for (int i = 0; i < count; i += 1) {
+                list.add(readPayload(elementType, in, strings, depth + 1));
+            }
+            return list;
+        }
+        case TAG_COMPOUND:
+            return readCompound(in, strings, depth);
+        default:
+            throw new IllegalArgumentException("NbtBinary.readPayload: Unsupported type: " + type);
+        }
+    }
+
+    private static int zigzag(int i) {
+        return (i << 1) ^ (i >> 31);
+    }
+
+    private static long zigzag(long l) {
+        return (l << 1) ^ (l >> 63);
+    }
+
+    private static int unzigzag(int i) {
+        return (i >>> 1) ^ -(i & 1);
+    }
+
+    private static long unzigzag(long l) {
+        return (l >>> 1) ^ -(l & 1);
+    }
+
+    private static byte[] dictionary(String... strings) {
+        Out out = new Out(512);
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeVarInt(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Growable byte buffer.
+     */
+    static final class Out {
+        byte[] buf;
+        int size;
+
+        Out(final int capacity) {
+            this.buf = new byte[Math.max(16, capacity)];
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[size++] = (byte) b;
+        }
+
+        void write(byte[] bytes, int off, int len) {
+            ensure(len);
+            System.arraycopy(bytes, off, buf, size, len);
+            size += len;
+        }
+
+        void writeVarInt(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buf[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[size++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[size++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            buf[size++] = (byte) (value >>> 24);
+            buf[size++] = (byte) (value >>> 16);
+            buf[size++] = (byte) (value >>> 8);
+            buf[size++] = (byte) value;
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+    }
+
+    /**
+     * Cursor over a byte array.  Reads past the end throw
+     * IllegalArgumentException.
+     */
+    static final class In {
+        final byte[] buf;
+        int pos;
+
+        In(final byte[] buf, final int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        private void require(int count) {
+            if (count > buf.length - pos) {
+                throw new IllegalArgumentException("NbtBinary.decode: Unexpected end of input");
+            }
+        }
+
+        int readByte() {
+            require(1);
+            return buf[pos++];
+        }
+
+        /**
+         * Read a length or element count.  Every element takes at
+         * least one byte, so a count beyond the remaining input is
+         * corrupt.
+         */
+        int readCount() {
+            int result = readVarInt();
+            if (result < 0 || result > buf.length - pos) {
+                throw new IllegalArgumentException("NbtBinary.decode: Bad count: " + result);
+            }
+            return result;
+        }
+
+        int readVarInt() {
+            int result = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                require(1);
+                int b = buf[pos++];
+                result |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return result;
+            }
+            throw new IllegalArgumentException("NbtBinary.readVarInt: Malformed");
+        }
+
+        long readVarLong() {
+            long result = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                require(1);
+                int b = buf[pos++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return result;
+            }
+            throw new IllegalArgumentException("NbtBinary.readVarLong: Malformed");
+        }
+
+        int readInt() {
+            require(4);
+            return ((buf[pos++] & 0xFF) << 24)
+                | ((buf[pos++] & 0xFF) << 16)
+                | ((buf[pos++] & 0xFF) << 8)
+                | (buf[pos++] & 0xFF);
+        }
+
+        long readLong() {
+            return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+        }
+    }
+}
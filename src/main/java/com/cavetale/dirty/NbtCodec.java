@@ -0,0 +1,20 @@
+package com.cavetale.dirty;
+
+import net.minecraft.nbt.NBTTagCompound;
+
+/**
+ * Encode and decode one type to and from a compound.
+ * Implementations are generated for types annotated with
+ * NbtSerializable.
+ */
+public interface NbtCodec<T> {
+    /**
+     * @return A new compound, or null if value is null.
+     */
+    NBTTagCompound encode(T value);
+
+    /**
+     * @return The value, or null if tag is null.
+     */
+    T decode(NBTTagCompound tag);
+}
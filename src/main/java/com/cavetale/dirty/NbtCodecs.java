@@ -0,0 +1,265 @@
+package com.cavetale.dirty;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLong;
+import net.minecraft.nbt.NBTTagLongArray;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
+
+/**
+ * Helpers called by generated NbtCodec implementations, so the
+ * generated code does not depend on obfuscated names.
+ *
+ * The as methods are lenient: a missing value or one of the wrong
+ * type yields zero, null, or empty, and numbers are converted
+ * between numeric types.  Arrays are copied both ways.
+ */
+public final class NbtCodecs {
+    private NbtCodecs() { }
+
+    public static NBTBase get(NBTTagCompound tag, String key) {
+        return tag.x.get(key);
+    }
+
+    public static void put(NBTTagCompound tag, String key, NBTBase value) {
+        tag.a(key, value); // set
+    }
+
+    public static NBTBase ofBoolean(boolean value) {
+        return NBTTagByte.a(value ? (byte) 1 : (byte) 0);
+    }
+
+    public static NBTBase ofByte(byte value) {
+        return NBTTagByte.a(value);
+    }
+
+    public static NBTBase ofShort(short value) {
+        return NBTTagShort.a(value);
+    }
+
+    public static NBTBase ofInt(int value) {
+        return NBTTagInt.a(value);
+    }
+
+    public static NBTBase ofLong(long value) {
+        return NBTTagLong.a(value);
+    }
+
+    public static NBTBase ofFloat(float value) {
+        return NBTTagFloat.a(value);
+    }
+
+    public static NBTBase ofDouble(double value) {
+        return NBTTagDouble.a(value);
+    }
+
+    public static NBTBase ofString(String value) {
+        return NBTTagString.a(value);
+    }
+
+    public static NBTBase ofByteArray(byte[] value) {
+        return new NBTTagByteArray(value.clone());
+    }
+
+    public static NBTBase ofIntArray(int[] value) {
+        return new NBTTagIntArray(value.clone());
+    }
+
+    public static NBTBase ofLongArray(long[] value) {
+        return new NBTTagLongArray(value.clone());
+    }
+
+    /**
+     * Store a UUID as four ints, like Minecraft does.
+     */
+    public static NBTBase ofUuid(UUID value) {
+        long most = value.getMostSignificantBits();
+        long least = value.getLeastSignificantBits();
+        return new NBTTagIntArray(new int[] {(int) (most >> 32), (int) most, (int) (least >> 32), (int) least});
+    }
+
+    public static NBTBase ofEnum(Enum<?> value) {
+        return NBTTagString.a(value.name());
+    }
+
+    public static NBTBase ofCompound(NBTTagCompound value) {
+        return value.c(); // copy
+    }
+
+    /**
+     * Encode a list.  Null elements are left out.
+     */
+    public static <E> NBTBase ofList(List<E> list, Function<E, NBTBase> encoder) {
+        NBTTagList result = new NBTTagList();
+        for (E element : list) {
+            if (element != null) result.add(encoder.apply(element));
+        }
+        return result;
+    }
+
+    /**
+     * Encode a map as a compound.  Null values are left out.
+     */
+    public static <E> NBTBase ofMap(Map<String, E> map, Function<E, NBTBase> encoder) {
+        NBTTagCompound result = new NBTTagCompound();
+        for (Map.Entry<String, E> entry : map.entrySet()) {
+            if (entry.getValue() != null) result.a(entry.getKey(), encoder.apply(entry.getValue())); // set
+        }
+        return result;
+    }
+
+    private static long longValue(NBTBase value) {
+        if (value instanceof NBTTagInt nbtTagInt) {
+            return (int) nbtTagInt.f(); // asInt
+        } else if (value instanceof NBTTagByte nbtTagByte) {
+            return (byte) nbtTagByte.h(); // asByte
+        } else if (value instanceof NBTTagShort nbtTagShort) {
+            return (short) nbtTagShort.g(); // asShort
+        } else if (value instanceof NBTTagLong nbtTagLong) {
+            return (long) nbtTagLong.f(); // asLong
+        } else if (value instanceof NBTTagFloat nbtTagFloat) {
+            return (long) (float) nbtTagFloat.j(); // asFloat
+        } else if (value instanceof NBTTagDouble nbtTagDouble) {
+            return (long) (double) nbtTagDouble.i(); // asDouble
+        } else {
+            return 0L;
+        }
+    }
+
+    private static double doubleValue(NBTBase value) {
+        if (value instanceof NBTTagDouble nbtTagDouble) {
+            return (double) nbtTagDouble.i(); // asDouble
+        } else if (value instanceof NBTTagFloat nbtTagFloat) {
+            return (float) nbtTagFloat.j(); // asFloat
+        } else {
+            return longValue(value);
+        }
+    }
+
+    public static boolean asBoolean(NBTBase value) {
+        return longValue(value) != 0L;
+    }
+
+    public static byte asByte(NBTBase value) {
+        return (byte) longValue(value);
+    }
+
+    public static short asShort(NBTBase value) {
+        return (short) longValue(value);
+    }
+
+    public static int asInt(NBTBase value) {
+        return (int) longValue(value);
+    }
+
+    public static long asLong(NBTBase value) {
+        return longValue(value);
+    }
+
+    public static float asFloat(NBTBase value) {
+        return (float) doubleValue(value);
+    }
+
+    public static double asDouble(NBTBase value) {
+        return doubleValue(value);
+    }
+
+    public static String asString(NBTBase value) {
+        return value instanceof NBTTagString nbtTagString
+            ? (String) nbtTagString.e_() // asString
+            : null;
+    }
+
+    public static byte[] asByteArray(NBTBase value) {
+        return value instanceof NBTTagByteArray nbtTagByteArray
+            ? ((byte[]) nbtTagByteArray.d()).clone() // getBytes
+            : null;
+    }
+
+    public static int[] asIntArray(NBTBase value) {
+        return value instanceof NBTTagIntArray nbtTagIntArray
+            ? ((int[]) nbtTagIntArray.f()).clone() // getInts
+            : null;
+    }
+
+    public static long[] asLongArray(NBTBase value) {
+        return value instanceof NBTTagLongArray nbtTagLongArray
+            ? ((long[]) nbtTagLongArray.f()).clone() // getLongs
+            : null;
+    }
+
+    public static UUID asUuid(NBTBase value) {
+        if (!(value instanceof NBTTagIntArray nbtTagIntArray)) return null;
+        int[] ints = nbtTagIntArray.f(); // getInts
+        if (ints.length != 4) return null;
+        return new UUID(((long) ints[0] << 32) | (ints[1] & 0xFFFFFFFFL),
+                        ((long) ints[2] << 32) | (ints[3] & 0xFFFFFFFFL));
+    }
+
+    /**
+     * Decode an enum by name.
+     * @param valueOf The enum's valueOf method.
+     * @return The constant, or null if there is none by that name.
+     */
+    public static <E extends Enum<E>> E asEnum(NBTBase value, Function<String, E> valueOf) {
+        String name = asString(value);
+        if (name == null) return null;
+        try {
+            return valueOf.apply(name);
+        } catch (IllegalArgumentException iae) {
+            return null;
+        }
+    }
+
+    /**
+     * Get a compound without copying it, for nested codecs.
+     */
+    public static NBTTagCompound asCompound(NBTBase value) {
+        return value instanceof NBTTagCompound nbtTagCompound ? nbtTagCompound : null;
+    }
+
+    public static NBTTagCompound asCompoundCopy(NBTBase value) {
+        return value instanceof NBTTagCompound nbtTagCompound ? (NBTTagCompound) nbtTagCompound.c() : null;
+    }
+
+    /**
+     * Decode a list.  Elements which decode to null are left out.
+     */
+    public static <E> List<E> asList(NBTBase value, Function<NBTBase, E> decoder) {
+        if (!(value instanceof NBTTagList nbtTagList)) return null;
+        List<E> result = new ArrayList<>(nbtTagList.size());
+        for (int i = 0; i < nbtTagList.size(); i += 1) {
+            E element = decoder.apply(nbtTagList.get(i));
+            if (element != null) result.add(element);
+        }
+        return result;
+    }
+
+    /**
+     * Decode a compound into a map.  Values which decode to null are
+     * left out.
+     */
+    public static <E> Map<String, E> asMap(NBTBase value, Function<NBTBase, E> decoder) {
+        if (!(value instanceof NBTTagCompound nbtTagCompound)) return null;
+        Map<String, E> result = new LinkedHashMap<>();
+        for (Map.Entry<String, NBTBase> entry : nbtTagCompound.x.entrySet()) {
+            E element = decoder.apply(entry.getValue());
+            if (element != null) result.put(entry.getKey(), element);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,238 @@
+package com.cavetale.dirty;
+
+import java.util.Arrays;
+import java.util.Map;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLong;
+import net.minecraft.nbt.NBTTagLongArray;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
+
+/**
+ * A 128 bit structural hash of an NBT value, computed directly on
+ * the tree without serializing it.
+ *
+ * The hash is stable across runs and servers: it depends only on the
+ * NBT types and values, not on the order of keys in compounds or on
+ * Java's hashCode.  Equal tags, as far as Minecraft is concerned,
+ * have equal hashes, and unequal tags differ with overwhelming
+ * probability.  It is not a cryptographic hash, and collisions can be
+ * crafted on purpose, so do not take equal hashes for equal content
+ * where players control the input; ItemStore checks the content.
+ *
+ * Compound entries are hashed one by one and then summed, which makes
+ * the order irrelevant.  Everything else is hashed in sequence.  Each
+ * of the two halves uses its own mixing function.
+ */
+public record NbtHash(long high, long low) {
+    private static final long SEED_HIGH = 0x9E3779B97F4A7C15L;
+    private static final long SEED_LOW = 0xC2B2AE3D27D4EB4FL;
+
+    /**
+     * Hash a value.
+     * @param value The value, or null.
+     * @return The hash.
+     */
+    public static NbtHash of(NBTBase value) {
+        Hasher hasher = new Hasher();
+        hasher.hash(value);
+        return new NbtHash(hasher.high, hasher.low);
+    }
+
+    /**
+     * Compare two values the way they are hashed.  Unlike equals,
+     * floats and doubles are compared by their bits, so NaN equals
+     * NaN, and 0.0 does not equal -0.0.  Equal values have equal
+     * hashes.
+     * @param a A value, or null.
+     * @param b Another value, or null.
+     * @return true if the values are equal, false otherwise.
+     */
+    public static boolean equal(NBTBase a, NBTBase b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        if (a instanceof NBTTagCompound nbtTagCompound) {
+            if (!(b instanceof NBTTagCompound other) || nbtTagCompound.x.size() != other.x.size()) return false;
+            for (Map.Entry<String, NBTBase> entry : nbtTagCompound.x.entrySet()) {
+                NBTBase otherValue = other.x.get(entry.getKey());
+                if (otherValue == null || !equal(entry.getValue(), otherValue)) return false;
+            }
+            return true;
+        } else if (a instanceof NBTTagList nbtTagList) {
+            if (!(b instanceof NBTTagList other) || nbtTagList.size() != other.size()) return false;
+            for (int i = 0; i < nbtTagList.size(); i += 1) {
+                if (!equal(nbtTagList.get(i), other.get(i))) return false;
+            }
+            return true;
+        } else if (a instanceof NBTTagFloat nbtTagFloat) {
+            return b instanceof NBTTagFloat other
+                && Float.floatToIntBits((float) nbtTagFloat.j()) == Float.floatToIntBits((float) other.j()); // asFloat
+        } else if (a instanceof NBTTagDouble nbtTagDouble) {
+            return b instanceof NBTTagDouble other
+                && Double.doubleToLongBits((double) nbtTagDouble.i()) == Double.doubleToLongBits((double) other.i());
+        } else if (a instanceof NBTTagByteArray nbtTagByteArray) {
+            return b instanceof NBTTagByteArray other && Arrays.equals(nbtTagByteArray.d(), other.d()); // getBytes
+        } else if (a instanceof NBTTagIntArray nbtTagIntArray) {
+            return b instanceof NBTTagIntArray other && Arrays.equals(nbtTagIntArray.f(), other.f()); // getInts
+        } else if (a instanceof NBTTagLongArray nbtTagLongArray) {
+            return b instanceof NBTTagLongArray other && Arrays.equals(nbtTagLongArray.f(), other.f()); // getLongs
+        } else {
+            // Strings and integral numbers
+            return a.equals(b);
+        }
+    }
+
+    /**
+     * Parse the result of toString.
+     * @throws IllegalArgumentException if the string is malformed
+     */
+    public static NbtHash parse(String string) {
+        if (string.length() != 32) {
+            throw new IllegalArgumentException("NbtHash.parse: Expected 32 hex digits: " + string);
+        }
+        try {
+            return new NbtHash(Long.parseUnsignedLong(string.substring(0, 16), 16),
+                               Long.parseUnsignedLong(string.substring(16), 16));
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("NbtHash.parse: Expected 32 hex digits: " + string);
+        }
+    }
+
+    /**
+     * 32 lowercase hex digits.
+     */
+    @Override
+    public String toString() {
+        String h = Long.toHexString(high);
+        String l = Long.toHexString(low);
+        return "0".repeat(16 - h.length()) + h + "0".repeat(16 - l.length()) + l;
+    }
+
+    /**
+     * MurmurHash3 finalizer.
+     */
+    private static long mixHigh(long x) {
+        x ^= x >>> 33;
+        x *= 0xFF51AFD7ED558CCDL;
+        x ^= x >>> 33;
+        x *= 0xC4CEB9FE1A85EC53L;
+        x ^= x >>> 33;
+        return x;
+    }
+
+    /**
+     * Stafford's variant 13, as used by SplitMix64.
+     */
+    private static long mixLow(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    /**
+     * Holds the two halves of the last result while recursing, so
+     * no objects are made per node.
+     */
+    private static final class Hasher {
+        private long high;
+        private long low;
+
+        void hash(NBTBase value) {
+            if (value == null) {
+                leaf(0, 0L);
+            } else if (value instanceof NBTTagCompound nbtTagCompound) {
+                long sumHigh = 0L;
+                long sumLow = 0L;
+                for (Map.Entry<String, NBTBase> entry : nbtTagCompound.x.entrySet()) {
+                    string(entry.getKey());
+                    final long keyHigh = high;
+                    final long keyLow = low;
+                    hash(entry.getValue());
+                    sumHigh += mixHigh(keyHigh * 31L + high);
+                    sumLow += mixLow(keyLow ^ Long.rotateLeft(low, 23));
+                }
+                start(10, nbtTagCompound.x.size());
+                high = mixHigh(high ^ sumHigh);
+                low = mixLow(low + sumLow);
+            } else if (value instanceof NBTTagList nbtTagList) {
+                final int size = nbtTagList.size();
+                long seqHigh = SEED_HIGH ^ 9L;
+                long seqLow = SEED_LOW + size;
+                for (int i = 0; i < size; i += 1) {
+                    hash(nbtTagList.get(i));
+                    seqHigh = mixHigh(seqHigh * 31L + high);
+                    seqLow = mixLow(seqLow ^ Long.rotateLeft(low, 23));
+                }
+                high = mixHigh(seqHigh + size);
+                low = mixLow(seqLow ^ 9L);
+            } else if (value instanceof NBTTagString nbtTagString) {
+                string((String) nbtTagString.e_()); // asString
+            } else if (value instanceof NBTTagInt nbtTagInt) {
+                leaf(3, (int) nbtTagInt.f()); // asInt
+            } else if (value instanceof NBTTagLong nbtTagLong) {
+                leaf(4, (long) nbtTagLong.f()); // asLong
+            } else if (value instanceof NBTTagShort nbtTagShort) {
+                leaf(2, (short) nbtTagShort.g()); // asShort
+            } else if (value instanceof NBTTagFloat nbtTagFloat) {
+                leaf(5, Float.floatToIntBits((float) nbtTagFloat.j())); // asFloat
+            } else if (value instanceof NBTTagDouble nbtTagDouble) {
+                leaf(6, Double.doubleToLongBits((double) nbtTagDouble.i())); // asDouble
+            } else if (value instanceof NBTTagByte nbtTagByte) {
+                leaf(1, (byte) nbtTagByte.h()); // asByte
+            } else if (value instanceof NBTTagByteArray nbtTagByteArray) {
+                byte[] array = nbtTagByteArray.d(); // getBytes
+                start(7, array.length);
+                for (byte b : array) step(b);
+                finish();
+            } else if (value instanceof NBTTagIntArray nbtTagIntArray) {
+                int[] array = nbtTagIntArray.f(); // getInts
+                start(11, array.length);
+                for (int i : array) step(i);
+                finish();
+            } else if (value instanceof NBTTagLongArray nbtTagLongArray) {
+                long[] array = nbtTagLongArray.f(); // getLongs
+                start(12, array.length);
+                for (long l : array) step(l);
+                finish();
+            } else {
+                throw new IllegalArgumentException("NbtHash.of: Unsupported value type: "
+                                                   + value.getClass().getName());
+            }
+        }
+
+        private void leaf(int type, long bits) {
+            high = mixHigh(bits ^ (SEED_HIGH * (type + 1)));
+            low = mixLow(bits + (SEED_LOW * (type + 1)));
+        }
+
+        private void string(String string) {
+            final int length = string.length();
+            start(8, length);
+            for (int i = 0; i < length; i += 1) step(string.charAt(i));
+            finish();
+        }
+
+        private void start(int type, int size) {
+            high = SEED_HIGH * (type + 1) + size;
+            low = SEED_LOW * (type + 1) ^ size;
+        }
+
+        private void step(long bits) {
+            high = (high ^ bits) * 0x100000001B3L;
+            low = Long.rotateLeft(low + bits * 0xC6A4A7935BD1E995L, 29);
+        }
+
+        private void finish() {
+            high = mixHigh(high);
+            low = mixLow(low);
+        }
+    }
+}
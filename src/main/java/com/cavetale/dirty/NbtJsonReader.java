@@ -0,0 +1,332 @@
+package com.cavetale.dirty;
+
+import com.google.gson.stream.JsonReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLong;
+import net.minecraft.nbt.NBTTagLongArray;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
+
+/**
+ * Read JSON straight into NBT in a single pass.
+ *
+ * Compound keys may carry a type hint after the last '#', as written
+ * by JsonOption.TYPED:
+ * - b, s, i, l: byte, short, int, long
+ * - f, d: float, double
+ * - t, c: string, compound
+ * - B, I, L: byte, int, long array
+ * - [ followed by an optional element hint: list
+ *
+ * Values without a hint are inferred: integral numbers become int,
+ * or long if they do not fit, other numbers become double.  This also
+ * reads the plain JSON of fromTag, as it was stored before hints.
+ */
+final class NbtJsonReader {
+    private static final String HINTS = "bsilfdtcBIL";
+
+    private NbtJsonReader() { }
+
+    static NBTBase read(JsonReader in) throws IOException {
+        return read(in, null);
+    }
+
+    static NBTBase read(JsonReader in, String hint) throws IOException {
+        switch (in.peek()) {
+        case BEGIN_OBJECT:
+            return readCompound(in);
+        case BEGIN_ARRAY:
+            if (hint != null) {
+                switch (hint) {
+                case "B": return new NBTTagByteArray(readByteArray(in));
+                case "I": return new NBTTagIntArray(readIntArray(in));
+                case "L": return new NBTTagLongArray(readLongArray(in));
+                default: break;
+                }
+            }
+            return readList(in, hint != null && hint.length() > 1 ? hint.substring(1) : null);
+        case STRING: {
+            String string = in.nextString();
+            if (hint == null || hint.equals("t")) return NBTTagString.a(string);
+            return number(string, hint);
+        }
+        case NUMBER:
+            return number(in.nextString(), hint);
+        case BOOLEAN:
+            // Same as Dirty.toTag
+            return NBTTagInt.a(in.nextBoolean() ? 1 : 0);
+        case NULL:
+            in.nextNull();
+            return null;
+        default:
+            throw new IllegalStateException("NbtJsonReader.read: Unexpected " + in.peek()
+                                            + " at " + in.getPath());
+        }
+    }
+
+    static NBTTagCompound readCompound(JsonReader in) throws IOException {
+        NBTTagCompound tag = new NBTTagCompound();
+        in.beginObject();
+        while (in.hasNext()) {
+            String key = in.nextName();
+            String hint = null;
+            int index = key.lastIndexOf('#');
+            if (index >= 0 && isHint(key, index + 1)) {
+                hint = key.substring(index + 1);
+                key = key.substring(0, index);
+            }
+            NBTBase value = read(in, hint);
+            if (value != null) tag.a(key, value); // set
+        }
+        in.endObject();
+        return tag;
+    }
+
+    private static NBTTagList readList(JsonReader in, String elementHint) throws IOException {
+        NBTTagList list = new NBTTagList();
+        // Untyped JSON may mix ints and doubles in one array, which
+        // NBT lists do not allow.  Only then do we buffer and widen.
+        List<NBTBase> mixed = null;
+        in.beginArray();
+        while (in.hasNext()) {
+            NBTBase value = read(in, elementHint);
+            if (value == null) continue;
+            if (mixed == null && !list.isEmpty() && list.get(0).getClass() != value.getClass()) {
+                mixed = new ArrayList<>(list);
+            }
+            if (mixed != null) {
+                mixed.add(value);
+            } else {
+                list.add(value);
+            }
+        }
+        in.endArray();
+        if (mixed == null) return list;
+        boolean toDouble = false;
+        for (NBTBase value : mixed) {
+            if (value instanceof NBTTagDouble) {
+                toDouble = true;
+            } else if (!(value instanceof NBTTagInt) && !(value instanceof NBTTagLong)) {
+                throw new IllegalArgumentException("NbtJsonReader.readList: Mixed element types at "
+                                                   + in.getPath());
+            }
+        }
+        list = new NBTTagList();
+        for (NBTBase value : mixed) {
+            if (toDouble) {
+                list.add(NBTTagDouble.a(toDouble(value)));
+            } else {
+                list.add(NBTTagLong.a(toLong(value)));
+            }
+        }
+        return list;
+    }
+
+    private static double toDouble(NBTBase value) {
+        if (value instanceof NBTTagDouble nbtTagDouble) return (double) nbtTagDouble.i(); // asDouble
+        return (double) toLong(value);
+    }
+
+    private static long toLong(NBTBase value) {
+        if (value instanceof NBTTagInt nbtTagInt) return (int) nbtTagInt.f(); // asInt
+        if (value instanceof NBTTagLong nbtTagLong) return (long) nbtTagLong.f(); // asLong
+        throw new IllegalArgumentException("Not an integer: " + value.getClass().getName());
+    }
+
+    /**
+     * Parse a number, or the string of one.
+     * @throws IllegalArgumentException if the text is not a number, or
+     * does not fit the type hint
+     */
+    private static NBTBase number(String text, String hint) {
+        if (hint == null) {
+            if (isIntegral(text)) {
+                try {
+                    long longValue = Long.parseLong(text);
+                    if (longValue == (int) longValue) return NBTTagInt.a((int) longValue);
+                    return NBTTagLong.a(longValue);
+                } catch (NumberFormatException nfe) {
+                    return NBTTagDouble.a(parseDouble(text));
+                }
+            }
+            return NBTTagDouble.a(parseDouble(text));
+        }
+        switch (hint) {
+        case "b": return NBTTagByte.a((byte) parseLong(text, hint, Byte.MIN_VALUE, Byte.MAX_VALUE));
+        case "s": return NBTTagShort.a((short) parseLong(text, hint, Short.MIN_VALUE, Short.MAX_VALUE));
+        case "i": return NBTTagInt.a((int) parseLong(text, hint, Integer.MIN_VALUE, Integer.MAX_VALUE));
+        case "l": return NBTTagLong.a(parseLong(text, hint, Long.MIN_VALUE, Long.MAX_VALUE));
+        case "f": return NBTTagFloat.a(parseFloat(text));
+        case "d": return NBTTagDouble.a(parseDouble(text));
+        case "t": return NBTTagString.a(text);
+        default:
+            throw new IllegalArgumentException("NbtJsonReader.number: Type hint " + hint
+                                               + " does not fit " + text);
+        }
+    }
+
+    /**
+     * Check for an optional minus sign followed by at least one digit.
+     */
+    private static boolean isIntegral(String text) {
+        int start = text.startsWith("-") ? 1 : 0;
+        for (int i = start; i < text.length(); i += 1) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return text.length() > start;
+    }
+
+    /**
+     * Parse an integer within a range.  Fractions are truncated
+     * toward zero, as before, but values out of range are rejected
+     * rather than wrapped.
+     */
+    private static long parseLong(String text, String hint, long min, long max) {
+        if (isIntegral(text)) {
+            try {
+                long value = Long.parseLong(text);
+                if (value >= min && value <= max) return value;
+            } catch (NumberFormatException nfe) {
+                // Too long for a long, so out of range, see below
+            }
+        } else {
+            double value = parseDouble(text);
+            double truncated = value < 0 ? Math.ceil(value) : Math.floor(value);
+            // Long.MAX_VALUE as a double rounds up to max + 1.0, so
+            // compare against that.  NaN fails both tests.
+            if (truncated >= min && truncated < max + 1.0) return (long) truncated;
+        }
+        throw new IllegalArgumentException("NbtJsonReader.number: Type hint " + hint
+                                           + " out of range: " + text);
+    }
+
+    private static double parseDouble(String text) {
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("NbtJsonReader.number: Not a number: " + text);
+        }
+    }
+
+    private static float parseFloat(String text) {
+        try {
+            return Float.parseFloat(text);
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("NbtJsonReader.number: Not a number: " + text);
+        }
+    }
+
+    private static byte[] readByteArray(JsonReader in) throws IOException {
+        byte[] result = new byte[16];
+        int size = 0;
+        in.beginArray();
+        while (in.hasNext()) {
+            if (size == result.length) result = Arrays.copyOf(result, size * 2);
+            int value = in.nextInt();
+            if (value != (byte) value) {
+                throw new IllegalArgumentException("NbtJsonReader.readByteArray: Out of range: " + value
+                                                   + " at " + in.getPath());
+            }
+            result[size++] = (byte) value;
+        }
+        in.endArray();
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    private static int[] readIntArray(JsonReader in) throws IOException {
+        int[] result = new int[16];
+        int size = 0;
+        in.beginArray();
+        while (in.hasNext()) {
+            if (size == result.length) result = Arrays.copyOf(result, size * 2);
+            result[size++] = in.nextInt();
+        }
+        in.endArray();
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    private static long[] readLongArray(JsonReader in) throws IOException {
+        long[] result = new long[16];
+        int size = 0;
+        in.beginArray();
+        while (in.hasNext()) {
+            if (size == result.length) result = Arrays.copyOf(result, size * 2);
+            result[size++] = in.nextLong();
+        }
+        in.endArray();
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Check if the key suffix starting at index is a valid type hint.
+     */
+    private static boolean isHint(String key, int index) {
+        int i = index;
+        while (i < key.length() && key.charAt(i) == '[') i += 1;
+        if (i == key.length()) return i > index;
+        return i == key.length() - 1 && HINTS.indexOf(key.charAt(i)) >= 0;
+    }
+
+    /**
+     * Get the type hint for a value, as read by this class.
+     *
+     * @param value The value.
+     * @param force Return a hint even when inference would suffice,
+     * because the key itself contains a '#'.
+     * @return The hint or null.
+     */
+    static String typeHint(NBTBase value, boolean force) {
+        if (value instanceof NBTTagCompound) {
+            return force ? "c" : null;
+        } else if (value instanceof NBTTagString) {
+            return force ? "t" : null;
+        } else if (value instanceof NBTTagInt) {
+            return force ? "i" : null;
+        } else if (value instanceof NBTTagDouble nbtTagDouble) {
+            return force || !Double.isFinite((double) nbtTagDouble.i()) ? "d" : null;
+        } else if (value instanceof NBTTagByte) {
+            return "b";
+        } else if (value instanceof NBTTagShort) {
+            return "s";
+        } else if (value instanceof NBTTagLong) {
+            return "l";
+        } else if (value instanceof NBTTagFloat) {
+            return "f";
+        } else if (value instanceof NBTTagByteArray) {
+            return "B";
+        } else if (value instanceof NBTTagIntArray) {
+            return "I";
+        } else if (value instanceof NBTTagLongArray) {
+            return "L";
+        } else if (value instanceof NBTTagList nbtTagList) {
+            String elementHint = null;
+            if (!nbtTagList.isEmpty()) {
+                NBTBase first = nbtTagList.get(0);
+                elementHint = typeHint(first, false);
+                if (elementHint == null && first instanceof NBTTagDouble) {
+                    for (int i = 1; i < nbtTagList.size(); i += 1) {
+                        elementHint = typeHint(nbtTagList.get(i), false);
+                        if (elementHint != null) break;
+                    }
+                }
+            }
+            if (elementHint != null) return "[" + elementHint;
+            return force ? "[" : null;
+        } else {
+            return null;
+        }
+    }
+}
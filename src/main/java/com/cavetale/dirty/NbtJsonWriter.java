@@ -0,0 +1,170 @@
+package com.cavetale.dirty;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Map;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLong;
+import net.minecraft.nbt.NBTTagLongArray;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
+
+/**
+ * Write NBT straight to a JsonWriter, walking the compounds and lists
+ * directly instead of converting them via Dirty.fromTag first.  The
+ * output matches what Gson produces for the fromTag result.
+ *
+ * Instances only hold their configuration and may be shared.
+ */
+final class NbtJsonWriter {
+    static final NbtJsonWriter COMPACT = new NbtJsonWriter(false, false);
+    static final NbtJsonWriter PRETTY = new NbtJsonWriter(true, false);
+    static final NbtJsonWriter TYPED_COMPACT = new NbtJsonWriter(false, true);
+    static final NbtJsonWriter TYPED_PRETTY = new NbtJsonWriter(true, true);
+    private final boolean pretty;
+    private final boolean typed;
+
+    private NbtJsonWriter(final boolean pretty, final boolean typed) {
+        this.pretty = pretty;
+        this.typed = typed;
+    }
+
+    static NbtJsonWriter of(JsonOption... options) {
+        boolean pretty = false;
+        boolean typed = false;
+        for (JsonOption option : options) {
+            switch (option) {
+            case PRETTY: pretty = true; break;
+            case TYPED: typed = true; break;
+            default: break;
+            }
+        }
+        if (typed) return pretty ? TYPED_PRETTY : TYPED_COMPACT;
+        return pretty ? PRETTY : COMPACT;
+    }
+
+    JsonWriter newJsonWriter(Appendable out) {
+        JsonWriter result = new JsonWriter(asWriter(out));
+        result.setHtmlSafe(false);
+        // NaN and Infinity are legal in NBT, so do not choke on them.
+        result.setLenient(true);
+        if (pretty) result.setIndent("  ");
+        return result;
+    }
+
+    void write(NBTBase value, Appendable out) throws IOException {
+        JsonWriter jsonWriter = newJsonWriter(out);
+        write(value, jsonWriter);
+        jsonWriter.flush();
+    }
+
+    void write(NBTBase value, JsonWriter out) throws IOException {
+        if (value == null) {
+            out.nullValue();
+        } else if (value instanceof NBTTagCompound nbtTagCompound) {
+            out.beginObject();
+            for (Map.Entry<String, NBTBase> entry : nbtTagCompound.x.entrySet()) {
+                String key = entry.getKey();
+                if (typed) {
+                    String hint = NbtJsonReader.typeHint(entry.getValue(), key.indexOf('#') >= 0);
+                    if (hint != null) key = key + '#' + hint;
+                }
+                out.name(key);
+                write(entry.getValue(), out);
+            }
+            out.endObject();
+        } else if (value instanceof NBTTagList nbtTagList) {
+            out.beginArray();
+            for (int i = 0; i < nbtTagList.size(); i += 1) {
+                write(nbtTagList.get(i), out);
+            }
+            out.endArray();
+        } else if (value instanceof NBTTagString nbtTagString) {
+            out.value((String) nbtTagString.e_()); // asString
+        } else if (value instanceof NBTTagInt nbtTagInt) {
+            out.value((int) nbtTagInt.f()); // asInt
+        } else if (value instanceof NBTTagLong nbtTagLong) {
+            out.value((long) nbtTagLong.f()); // asLong
+        } else if (value instanceof NBTTagShort nbtTagShort) {
+            out.value((short) nbtTagShort.g()); // asShort
+        } else if (value instanceof NBTTagFloat nbtTagFloat) {
+            out.jsonValue(Float.toString((float) nbtTagFloat.j())); // asFloat
+        } else if (value instanceof NBTTagDouble nbtTagDouble) {
+            out.value((double) nbtTagDouble.i()); // asDouble
+        } else if (value instanceof NBTTagByte nbtTagByte) {
+            out.value((byte) nbtTagByte.h()); // asByte
+        } else if (value instanceof NBTTagByteArray nbtTagByteArray) {
+            out.beginArray();
+            for (byte b : nbtTagByteArray.d()) out.value(b); // getBytes
+            out.endArray();
+        } else if (value instanceof NBTTagIntArray nbtTagIntArray) {
+            out.beginArray();
+            for (int i : nbtTagIntArray.f()) out.value(i); // getInts
+            out.endArray();
+        } else if (value instanceof NBTTagLongArray nbtTagLongArray) {
+            out.beginArray();
+            for (long l : nbtTagLongArray.f()) out.value(l); // getLongs
+            out.endArray();
+        } else {
+            throw new IllegalArgumentException("NbtJsonWriter.write: Unsupported value type: "
+                                               + value.getClass().getName());
+        }
+    }
+
+    private static Writer asWriter(Appendable out) {
+        if (out instanceof Writer writer) return writer;
+        return new AppendableWriter(out);
+    }
+
+    /**
+     * Minimal Writer around an Appendable.  JsonWriter mostly writes
+     * whole Strings, which pass through without copying.
+     */
+    private static final class AppendableWriter extends Writer {
+        private final Appendable out;
+
+        AppendableWriter(final Appendable out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] buf, int off, int len) throws IOException {
+            if (out instanceof StringBuilder sb) {
+                sb.append(buf, off, len);
+            } else {
+                out.append(CharBuffer.wrap(buf, off, len));
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            out.append(str, off, off + len);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            out.append((char) c);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (out instanceof Flushable flushable) flushable.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
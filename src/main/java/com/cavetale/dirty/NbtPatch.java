@@ -0,0 +1,310 @@
+package com.cavetale.dirty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+
+/**
+ * A structural difference between two NBT compounds, as a list of
+ * operations which turn the one into the other:
+ * - set: put a value at a path
+ * - remove: remove the value at a path
+ * - splice: replace a range of a list with new elements
+ *
+ * Paths use the NbtPath syntax.  A patch converts to NBT, and from
+ * there to typed JSON or the compact binary format, so it can be
+ * shipped instead of a full tag.
+ *
+ * Patches are immutable.  Values are copied when applied.
+ */
+public final class NbtPatch {
+    private final List<Op> ops;
+
+    private NbtPatch(final List<Op> ops) {
+        this.ops = ops;
+    }
+
+    /**
+     * Compute the operations turning one compound into another.
+     */
+    public static NbtPatch diff(NBTTagCompound from, NBTTagCompound to) {
+        List<Op> ops = new ArrayList<>();
+        diffCompound("", from, to, ops);
+        return new NbtPatch(Collections.unmodifiableList(ops));
+    }
+
+    public boolean isEmpty() {
+        return ops.isEmpty();
+    }
+
+    public int size() {
+        return ops.size();
+    }
+
+    /**
+     * Apply this patch to a compound, in place.
+     */
+    public void apply(NBTTagCompound target) {
+        for (Op op : ops) op.apply(target);
+    }
+
+    private static String child(String path, String key) {
+        return path.isEmpty()
+            ? NbtPath.quoteKey(key)
+            : path + "." + NbtPath.quoteKey(key);
+    }
+
+    private static String child(String path, int index) {
+        return path + "[" + index + "]";
+    }
+
+    private static void diffCompound(String path, NBTTagCompound a, NBTTagCompound b, List<Op> ops) {
+        for (String key : a.x.keySet()) {
+            if (!b.x.containsKey(key)) ops.add(new Remove(child(path, key)));
+        }
+        for (Map.Entry<String, NBTBase> entry : b.x.entrySet()) {
+            NBTBase va = a.x.get(entry.getKey());
+            NBTBase vb = entry.getValue();
+            if (va == null) {
+                ops.add(new Set(child(path, entry.getKey()), vb.c()));
+            } else if (!va.equals(vb)) {
+                diffValue(child(path, entry.getKey()), va, vb, ops);
+            }
+        }
+    }
+
+    private static void diffValue(String path, NBTBase a, NBTBase b, List<Op> ops) {
+        if (a instanceof NBTTagCompound ca && b instanceof NBTTagCompound cb) {
+            diffCompound(path, ca, cb, ops);
+        } else if (a instanceof NBTTagList la && b instanceof NBTTagList lb && sameElementType(la, lb)) {
+            diffList(path, la, lb, ops);
+        } else {
+            ops.add(new Set(path, b.c()));
+        }
+    }
+
+    private static boolean sameElementType(NBTTagList a, NBTTagList b) {
+        if (a.isEmpty() || b.isEmpty()) return false;
+        return a.get(0).getClass() == b.get(0).getClass();
+    }
+
+    private static void diffList(String path, NBTTagList a, NBTTagList b, List<Op> ops) {
+        if (a.size() == b.size()) {
+            for (int i = 0; i < a.size(); i += 1) {
+                if (!a.get(i).equals(b.get(i))) diffValue(child(path, i), a.get(i), b.get(i), ops);
+            }
+            return;
+        }
+        int prefix = 0;
+        int max = Math.min(a.size(), b.size());
+        while (prefix < max && a.get(prefix).equals(b.get(prefix))) prefix += 1;
+        int suffix = 0;
+        while (suffix < max - prefix
+               && a.get(a.size() - 1 - suffix).equals(b.get(b.size() - 1 - suffix))) {
+            suffix += 1;
+        }
+        List<NBTBase> insert = new ArrayList<>(b.size() - prefix - suffix);
+        for (int i = prefix; i < b.size() - suffix; i += 1) insert.add(b.get(i).c());
+        ops.add(new Splice(path, prefix, a.size() - prefix - suffix, insert));
+    }
+
+    /**
+     * Turn this patch into NBT, for serialization.
+     */
+    public NBTTagCompound toNbt() {
+        NBTTagList list = new NBTTagList();
+        for (Op op : ops) list.add(op.toNbt());
+        NBTTagCompound result = new NBTTagCompound();
+        result.a("ops", list); // set
+        return result;
+    }
+
+    /**
+     * Read a patch from NBT, as produced by toNbt.
+     * @throws IllegalArgumentException if the NBT is not a patch
+     */
+    public static NbtPatch fromNbt(NBTTagCompound tag) {
+        if (!(tag.x.get("ops") instanceof NBTTagList list)) {
+            throw new IllegalArgumentException("NbtPatch.fromNbt: Missing ops");
+        }
+        List<Op> ops = new ArrayList<>(list.size());
+        for (int i = 0; i < list.size(); i += 1) {
+            if (!(list.get(i) instanceof NBTTagCompound opTag)) {
+                throw new IllegalArgumentException("NbtPatch.fromNbt: Bad op: " + i);
+            }
+            String path = string(opTag, "path");
+            NbtPath.compileUncached(path); // validate
+            switch (string(opTag, "op")) {
+            case "set":
+                ops.add(new Set(path, value(opTag, "value")));
+                break;
+            case "remove":
+                ops.add(new Remove(path));
+                break;
+            case "splice": {
+                if (!(value(opTag, "insert") instanceof NBTTagList insertList)) {
+                    throw new IllegalArgumentException("NbtPatch.fromNbt: Bad insert: " + i);
+                }
+                List<NBTBase> insert = new ArrayList<>(insertList);
+                ops.add(new Splice(path, integer(opTag, "index"), integer(opTag, "delete"), insert));
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("NbtPatch.fromNbt: Unknown op: " + string(opTag, "op"));
+            }
+        }
+        return new NbtPatch(Collections.unmodifiableList(ops));
+    }
+
+    /**
+     * Serialize to typed JSON.
+     */
+    public String toJson() {
+        return Dirty.toJson0(toNbt(), JsonOption.TYPED);
+    }
+
+    public static NbtPatch fromJson(String json) {
+        if (!(Dirty.readJson0(json) instanceof NBTTagCompound tag)) {
+            throw new IllegalArgumentException("NbtPatch.fromJson: Not an object");
+        }
+        return fromNbt(tag);
+    }
+
+    /**
+     * Serialize to the compact binary format of Dirty.encodeItem.
+     */
+    public byte[] toBytes() {
+        return NbtBinary.encode(List.of(toNbt()), true);
+    }
+
+    public static NbtPatch fromBytes(byte[] data) {
+        List<NBTTagCompound> tags = NbtBinary.decode(data);
+        if (tags.size() != 1 || tags.get(0) == null) {
+            throw new IllegalArgumentException("NbtPatch.fromBytes: Expected one patch");
+        }
+        return fromNbt(tags.get(0));
+    }
+
+    private static String string(NBTTagCompound tag, String key) {
+        if (!(tag.x.get(key) instanceof NBTTagString value)) {
+            throw new IllegalArgumentException("NbtPatch.fromNbt: Missing " + key);
+        }
+        return (String) value.e_(); // asString
+    }
+
+    private static int integer(NBTTagCompound tag, String key) {
+        if (!(tag.x.get(key) instanceof NBTTagInt value)) {
+            throw new IllegalArgumentException("NbtPatch.fromNbt: Missing " + key);
+        }
+        return (int) value.f(); // asInt
+    }
+
+    private static NBTBase value(NBTTagCompound tag, String key) {
+        NBTBase value = tag.x.get(key);
+        if (value == null) throw new IllegalArgumentException("NbtPatch.fromNbt: Missing " + key);
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    private abstract static class Op {
+        protected final String path;
+
+        Op(final String path) {
+            this.path = path;
+        }
+
+        abstract void apply(NBTTagCompound target);
+
+        abstract NBTTagCompound toNbt();
+
+        protected NBTTagCompound newNbt(String op) {
+            NBTTagCompound result = new NBTTagCompound();
+            result.a("op", NBTTagString.a(op)); // set
+            result.a("path", NBTTagString.a(path)); // set
+            return result;
+        }
+    }
+
+    private static final class Set extends Op {
+        private final NBTBase value;
+
+        Set(final String path, final NBTBase value) {
+            super(path);
+            this.value = value;
+        }
+
+        @Override
+        void apply(NBTTagCompound target) {
+            NbtPath.compileUncached(path).set(target, value.c());
+        }
+
+        @Override
+        NBTTagCompound toNbt() {
+            NBTTagCompound result = newNbt("set");
+            result.a("value", value.c()); // set
+            return result;
+        }
+    }
+
+    private static final class Remove extends Op {
+        Remove(final String path) {
+            super(path);
+        }
+
+        @Override
+        void apply(NBTTagCompound target) {
+            NbtPath.compileUncached(path).remove(target);
+        }
+
+        @Override
+        NBTTagCompound toNbt() {
+            return newNbt("remove");
+        }
+    }
+
+    private static final class Splice extends Op {
+        private final int index;
+        private final int delete;
+        private final List<NBTBase> insert;
+
+        Splice(final String path, final int index, final int delete, final List<NBTBase> insert) {
+            super(path);
+            this.index = index;
+            this.delete = delete;
+            this.insert = insert;
+        }
+
+        @Override
+        void apply(NBTTagCompound target) {
+            if (!(NbtPath.compileUncached(path).get(target) instanceof NBTTagList list)) {
+                throw new IllegalStateException("NbtPatch: Not a list: " + path);
+            }
+            if (index + delete > list.size()) {
+                throw new IllegalStateException("NbtPatch: List too short: " + path);
+            }
+            for (int i = 0; i < delete; i += 1) list.remove(index);
+            for (int i = 0; i < insert.size(); i += 1) list.add(index + i, insert.get(i).c());
+        }
+
+        @Override
+        NBTTagCompound toNbt() {
+            NBTTagCompound result = newNbt("splice");
+            result.a("index", NBTTagInt.a(index)); // set
+            result.a("delete", NBTTagInt.a(delete)); // set
+            NBTTagList list = new NBTTagList();
+            for (NBTBase it : insert) list.add(it.c());
+            result.a("insert", list); // set
+            return result;
+        }
+    }
+}
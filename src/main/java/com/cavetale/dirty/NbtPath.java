@@ -0,0 +1,462 @@
+package com.cavetale.dirty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+
+/**
+ * A compiled path into an NBT tree, evaluated directly against
+ * compounds and lists without converting anything.
+ *
+ * Syntax, by example:
+ * - `display.Name` keys, separated by dots
+ * - `"some.key"` quoted keys
+ * - `textures[0]`, `Items[-1]` list index, negative counts from the end
+ * - `Items[*]` every list element
+ * - `Items[Slot=3]`, `Items[id=minecraft:stone]` list elements
+ *   whose child matches, numerically where possible
+ * - `*` every value of a compound
+ *
+ * Instances are immutable and may be shared between threads.
+ * compile() caches the most recently used ones by expression.
+ */
+public final class NbtPath {
+    private static final int CACHE_LIMIT = 1024;
+    private static final LruCache<String, NbtPath> CACHE = new LruCache<>(CACHE_LIMIT, 16);
+    private final String expression;
+    private final Segment[] segments;
+
+    private NbtPath(final String expression, final Segment[] segments) {
+        this.expression = expression;
+        this.segments = segments;
+    }
+
+    /**
+     * Compile a path without caching it, for one-off paths.
+     * @throws IllegalArgumentException if the expression is malformed
+     */
+    static NbtPath compileUncached(String expression) {
+        return new NbtPath(expression, parse(expression));
+    }
+
+    /**
+     * Quote a key for use in an expression, if necessary.
+     */
+    static String quoteKey(String key) {
+        boolean plain = !key.isEmpty() && !key.equals("*");
+        for (int i = 0; plain && i < key.length(); i += 1) {
+            char c = key.charAt(i);
+            if (c == '.' || c == '[' || c == ']' || c == '"' || c == '\\') plain = false;
+        }
+        if (plain) return key;
+        StringBuilder sb = new StringBuilder(key.length() + 2).append('"');
+        for (int i = 0; i < key.length(); i += 1) {
+            char c = key.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\');
+            sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Compile a path, or get it from the cache.
+     * @throws IllegalArgumentException if the expression is malformed
+     */
+    public static NbtPath compile(String expression) {
+        NbtPath result = CACHE.get(expression);
+        if (result != null) return result;
+        result = new NbtPath(expression, parse(expression));
+        NbtPath old = CACHE.putIfAbsent(expression, result);
+        return old != null ? old : result;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /**
+     * Get all matching values.
+     */
+    public List<NBTBase> getAll(NBTBase root) {
+        List<NBTBase> result = new ArrayList<>();
+        collect(root, 0, result);
+        return result;
+    }
+
+    /**
+     * Get the first matching value, or null.
+     */
+    public NBTBase get(NBTBase root) {
+        return first(root, 0);
+    }
+
+    /**
+     * Get the first matching value converted like Dirty.fromTag, or
+     * null.
+     */
+    public Object getValue(NBTBase root) {
+        return Dirty.fromTag0(first(root, 0));
+    }
+
+    public boolean exists(NBTBase root) {
+        return first(root, 0) != null;
+    }
+
+    /**
+     * Check if any match passes a test, stopping at the first one
+     * which does.
+     */
+    boolean anyMatch(NBTBase root, Predicate<NBTBase> test) {
+        return anyMatch(root, 0, test);
+    }
+
+    private boolean anyMatch(NBTBase node, int depth, Predicate<NBTBase> test) {
+        if (node == null) return false;
+        if (depth == segments.length) return test.test(node);
+        Segment segment = segments[depth];
+        if (segment instanceof Single single) return anyMatch(single.get(node), depth + 1, test);
+        for (NBTBase child : ((Multi) segment).getAll(node)) {
+            if (anyMatch(child, depth + 1, test)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Set every match to the value.  The first match gets the value
+     * itself, every other one a copy.  Missing compounds
+     * along the way are created, as long as the segment following
+     * them is a key.
+     *
+     * @return The number of values set.
+     */
+    public int set(NBTBase root, NBTBase value) {
+        List<NBTBase> parents = new ArrayList<>();
+        collectParents(root, 0, parents);
+        Segment last = segments[segments.length - 1];
+        int count = 0;
+        for (NBTBase parent : parents) {
+            count += last.set(parent, value, count == 0);
+        }
+        return count;
+    }
+
+    /**
+     * Remove every match.
+     * @return The number of values removed.
+     */
+    public int remove(NBTBase root) {
+        List<NBTBase> parents = new ArrayList<>();
+        collectParents(root, 0, parents);
+        Segment last = segments[segments.length - 1];
+        int count = 0;
+        for (NBTBase parent : parents) {
+            count += last.remove(parent);
+        }
+        return count;
+    }
+
+    private void collect(NBTBase node, int depth, List<NBTBase> out) {
+        if (node == null) return;
+        if (depth == segments.length) {
+            out.add(node);
+            return;
+        }
+        Segment segment = segments[depth];
+        if (segment instanceof Single single) {
+            collect(single.get(node), depth + 1, out);
+        } else {
+            for (NBTBase child : ((Multi) segment).getAll(node)) {
+                collect(child, depth + 1, out);
+            }
+        }
+    }
+
+    private NBTBase first(NBTBase node, int depth) {
+        if (node == null) return null;
+        if (depth == segments.length) return node;
+        Segment segment = segments[depth];
+        if (segment instanceof Single single) return first(single.get(node), depth + 1);
+        for (NBTBase child : ((Multi) segment).getAll(node)) {
+            NBTBase result = first(child, depth + 1);
+            if (result != null) return result;
+        }
+        return null;
+    }
+
+    private void collectParents(NBTBase node, int depth, List<NBTBase> out) {
+        if (node == null) return;
+        if (depth == segments.length - 1) {
+            out.add(node);
+            return;
+        }
+        Segment segment = segments[depth];
+        if (segment instanceof Single single) {
+            NBTBase child = single.get(node);
+            if (child == null && segment instanceof Key key && node instanceof NBTTagCompound compound
+                && segments[depth + 1] instanceof Key) {
+                child = new NBTTagCompound();
+                compound.a(key.name, child); // set
+            }
+            collectParents(child, depth + 1, out);
+        } else {
+            for (NBTBase child : ((Multi) segment).getAll(node)) {
+                collectParents(child, depth + 1, out);
+            }
+        }
+    }
+
+    private static Segment[] parse(String expression) {
+        List<Segment> result = new ArrayList<>();
+        int i = 0;
+        int len = expression.length();
+        boolean expectKey = true;
+        while (i < len) {
+            char c = expression.charAt(i);
+            if (c == '[') {
+                int end = expression.indexOf(']', i);
+                if (end < 0) throw parseError(expression, i, "Unclosed [");
+                result.add(parseBracket(expression, expression.substring(i + 1, end).trim(), i));
+                i = end + 1;
+                expectKey = false;
+            } else if (c == '.') {
+                if (expectKey) throw parseError(expression, i, "Empty key");
+                i += 1;
+                expectKey = true;
+            } else if (!expectKey) {
+                throw parseError(expression, i, "Expected . or [");
+            } else if (c == '"') {
+                StringBuilder sb = new StringBuilder();
+                i += 1;
+                while (i < len && expression.charAt(i) != '"') {
+                    if (expression.charAt(i) == '\\' && i + 1 < len) i += 1;
+                    sb.append(expression.charAt(i));
+                    i += 1;
+                }
+                if (i >= len) throw parseError(expression, i, "Unclosed quote");
+                i += 1;
+                result.add(new Key(sb.toString()));
+                expectKey = false;
+            } else {
+                int start = i;
+                while (i < len && expression.charAt(i) != '.' && expression.charAt(i) != '[') i += 1;
+                String name = expression.substring(start, i);
+                result.add(name.equals("*") ? new AnyKey() : new Key(name));
+                expectKey = false;
+            }
+        }
+        if (result.isEmpty() || expectKey) throw parseError(expression, len, "Empty key");
+        return result.toArray(new Segment[0]);
+    }
+
+    private static Segment parseBracket(String expression, String inner, int pos) {
+        if (inner.equals("*")) return new AnyIndex();
+        int eq = inner.indexOf('=');
+        if (eq > 0) {
+            String value = inner.substring(eq + 1).trim();
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            return new Filter(inner.substring(0, eq).trim(), value);
+        }
+        try {
+            return new Index(Integer.parseInt(inner));
+        } catch (NumberFormatException nfe) {
+            throw parseError(expression, pos, "Bad index: " + inner);
+        }
+    }
+
+    private static IllegalArgumentException parseError(String expression, int pos, String message) {
+        return new IllegalArgumentException("NbtPath: " + message + " at " + pos + ": " + expression);
+    }
+
+    private abstract static class Segment {
+        abstract int set(NBTBase parent, NBTBase value, boolean first);
+
+        abstract int remove(NBTBase parent);
+    }
+
+    /**
+     * A segment which matches at most one child.
+     */
+    private abstract static class Single extends Segment {
+        abstract NBTBase get(NBTBase node);
+    }
+
+    /**
+     * A segment which may match any number of children.
+     */
+    private abstract static class Multi extends Segment {
+        abstract List<NBTBase> getAll(NBTBase node);
+    }
+
+    private static final class Key extends Single {
+        private final String name;
+
+        Key(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        NBTBase get(NBTBase node) {
+            return node instanceof NBTTagCompound compound ? compound.x.get(name) : null;
+        }
+
+        @Override
+        int set(NBTBase parent, NBTBase value, boolean first) {
+            if (!(parent instanceof NBTTagCompound compound)) return 0;
+            compound.a(name, first ? value : value.c()); // set
+            return 1;
+        }
+
+        @Override
+        int remove(NBTBase parent) {
+            if (!(parent instanceof NBTTagCompound compound)) return 0;
+            return compound.x.remove(name) != null ? 1 : 0;
+        }
+    }
+
+    private static final class AnyKey extends Multi {
+        @Override
+        List<NBTBase> getAll(NBTBase node) {
+            return node instanceof NBTTagCompound compound
+                ? List.copyOf(compound.x.values())
+                : List.of();
+        }
+
+        @Override
+        int set(NBTBase parent, NBTBase value, boolean first) {
+            if (!(parent instanceof NBTTagCompound compound)) return 0;
+            int count = 0;
+            for (Map.Entry<String, NBTBase> entry : compound.x.entrySet()) {
+                entry.setValue(first && count == 0 ? value : value.c());
+                count += 1;
+            }
+            return count;
+        }
+
+        @Override
+        int remove(NBTBase parent) {
+            if (!(parent instanceof NBTTagCompound compound)) return 0;
+            int count = compound.x.size();
+            compound.x.clear();
+            return count;
+        }
+    }
+
+    private static final class Index extends Single {
+        private final int index;
+
+        Index(final int index) {
+            this.index = index;
+        }
+
+        private int resolve(NBTTagList list) {
+            int result = index < 0 ? list.size() + index : index;
+            return result >= 0 && result < list.size() ? result : -1;
+        }
+
+        @Override
+        NBTBase get(NBTBase node) {
+            if (!(node instanceof NBTTagList list)) return null;
+            int i = resolve(list);
+            return i >= 0 ? list.get(i) : null;
+        }
+
+        @Override
+        int set(NBTBase parent, NBTBase value, boolean first) {
+            if (!(parent instanceof NBTTagList list)) return 0;
+            int i = resolve(list);
+            if (i < 0) return 0;
+            list.set(i, first ? value : value.c());
+            return 1;
+        }
+
+        @Override
+        int remove(NBTBase parent) {
+            if (!(parent instanceof NBTTagList list)) return 0;
+            int i = resolve(list);
+            if (i < 0) return 0;
+            list.remove(i);
+            return 1;
+        }
+    }
+
+    private static class AnyIndex extends Multi {
+        boolean matches(NBTBase element) {
+            return true;
+        }
+
+        @Override
+        List<NBTBase> getAll(NBTBase node) {
+            if (!(node instanceof NBTTagList list)) return List.of();
+            List<NBTBase> result = new ArrayList<>(list.size());
+            for (int i = 0; i < list.size(); i += 1) {
+                NBTBase element = list.get(i);
+                if (matches(element)) result.add(element);
+            }
+            return result;
+        }
+
+        @Override
+        int set(NBTBase parent, NBTBase value, boolean first) {
+            if (!(parent instanceof NBTTagList list)) return 0;
+            int count = 0;
+            for (int i = 0; i < list.size(); i += 1) {
+                if (!matches(list.get(i))) continue;
+                list.set(i, first && count == 0 ? value : value.c());
+                count += 1;
+            }
+            return count;
+        }
+
+        @Override
+        int remove(NBTBase parent) {
+            if (!(parent instanceof NBTTagList list)) return 0;
+            int count = 0;
+            for (int i = list.size() - 1; i >= 0; i -= 1) {
+                if (!matches(list.get(i))) continue;
+                list.remove(i);
+                count += 1;
+            }
+            return count;
+        }
+    }
+
+    private static final class Filter extends AnyIndex {
+        private final String key;
+        private final String value;
+        private final Double number;
+
+        Filter(final String key, final String value) {
+            this.key = key;
+            this.value = value;
+            Double parsed;
+            try {
+                parsed = Double.parseDouble(value);
+            } catch (NumberFormatException nfe) {
+                parsed = null;
+            }
+            this.number = parsed;
+        }
+
+        @Override
+        boolean matches(NBTBase element) {
+            if (!(element instanceof NBTTagCompound compound)) return false;
+            NBTBase child = compound.x.get(key);
+            if (child == null) return false;
+            if (child instanceof NBTTagString nbtTagString) {
+                return value.equals(nbtTagString.e_()); // asString
+            }
+            if (number != null && Dirty.fromTag0(child) instanceof Number n) {
+                return n.doubleValue() == number;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.cavetale.dirty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagLong;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
+
+/**
+ * A compiled test on an NBT tree, built from NbtPath expressions.
+ * It is evaluated directly against the tree and stops at the first
+ * match, without converting anything.
+ *
+ * Syntax, by example, with clauses joined by `&&`:
+ * - `PublicBukkitValues` the path exists
+ * - `!CustomName` the path does not exist
+ * - `id=minecraft:chest` some match equals the value, numerically
+ *   where possible; quote values with spaces
+ * - `Items[*].id!=minecraft:air` no match equals the value
+ * - `CustomName~(?i)dragon` some string match contains the regex
+ * - `Items[*].Count>32`, also `>=`, `<`, `<=`, numbers only
+ *
+ * Instances are immutable and may be shared between threads.
+ */
+public final class NbtPredicate implements Predicate<NBTBase> {
+    private final String expression;
+    private final Clause[] clauses;
+
+    private enum Op {
+        EXISTS, NOT_EXISTS, EQ, NE, MATCH, GT, GE, LT, LE;
+    }
+
+    private record Clause(NbtPath path, Op op, String value, Double number, Pattern pattern) { }
+
+    private NbtPredicate(final String expression, final Clause[] clauses) {
+        this.expression = expression;
+        this.clauses = clauses;
+    }
+
+    /**
+     * Compile an expression.
+     * @throws IllegalArgumentException if the expression is malformed
+     */
+    public static NbtPredicate compile(String expression) {
+        List<Clause> clauses = new ArrayList<>();
+        for (String part : split(expression)) {
+            clauses.add(parseClause(expression, part.trim()));
+        }
+        return new NbtPredicate(expression, clauses.toArray(new Clause[0]));
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /**
+     * Split at top level `&&`, outside of brackets and quotes.
+     */
+    private static List<String> split(String expression) {
+        List<String> result = new ArrayList<>();
+        int depth = 0;
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < expression.length(); i += 1) {
+            char c = expression.charAt(i);
+            if (c == '\\' && quoted) {
+                i += 1;
+            } else if (c == '"') {
+                quoted = !quoted;
+            } else if (!quoted && c == '[') {
+                depth += 1;
+            } else if (!quoted && c == ']') {
+                depth -= 1;
+            } else if (!quoted && depth == 0 && c == '&' && i + 1 < expression.length()
+                       && expression.charAt(i + 1) == '&') {
+                result.add(expression.substring(start, i));
+                i += 1;
+                start = i + 1;
+            }
+        }
+        result.add(expression.substring(start));
+        return result;
+    }
+
+    private static Clause parseClause(String expression, String clause) {
+        if (clause.isEmpty()) throw new IllegalArgumentException("NbtPredicate: Empty clause: " + expression);
+        int depth = 0;
+        boolean quoted = false;
+        for (int i = 0; i < clause.length(); i += 1) {
+            char c = clause.charAt(i);
+            if (c == '\\' && quoted) {
+                i += 1;
+                continue;
+            } else if (c == '"') {
+                quoted = !quoted;
+                continue;
+            } else if (quoted) {
+                continue;
+            } else if (c == '[') {
+                depth += 1;
+                continue;
+            } else if (c == ']') {
+                depth -= 1;
+                continue;
+            } else if (depth > 0 || i == 0) {
+                continue;
+            }
+            char next = i + 1 < clause.length() ? clause.charAt(i + 1) : 0;
+            Op op;
+            int length = 1;
+            switch (c) {
+            case '=': op = Op.EQ; break;
+            case '~': op = Op.MATCH; break;
+            case '!':
+                if (next != '=') continue;
+                op = Op.NE;
+                length = 2;
+                break;
+            case '>':
+                op = next == '=' ? Op.GE : Op.GT;
+                length = next == '=' ? 2 : 1;
+                break;
+            case '<':
+                op = next == '=' ? Op.LE : Op.LT;
+                length = next == '=' ? 2 : 1;
+                break;
+            default: continue;
+            }
+            NbtPath path = NbtPath.compile(clause.substring(0, i).trim());
+            String value = unquote(clause.substring(i + length).trim());
+            return makeClause(expression, path, op, value);
+        }
+        if (clause.startsWith("!")) {
+            return new Clause(NbtPath.compile(clause.substring(1).trim()), Op.NOT_EXISTS, null, null, null);
+        }
+        return new Clause(NbtPath.compile(clause), Op.EXISTS, null, null, null);
+    }
+
+    private static Clause makeClause(String expression, NbtPath path, Op op, String value) {
+        Double number;
+        try {
+            number = Double.parseDouble(value);
+        } catch (NumberFormatException nfe) {
+            number = null;
+        }
+        Pattern pattern = null;
+        switch (op) {
+        case MATCH:
+            try {
+                pattern = Pattern.compile(value);
+            } catch (PatternSyntaxException pse) {
+                throw new IllegalArgumentException("NbtPredicate: Bad regex: " + value + ": " + expression);
+            }
+            break;
+        case GT: case GE: case LT: case LE:
+            if (number == null) throw new IllegalArgumentException("NbtPredicate: Not a number: " + value + ": " + expression);
+            break;
+        default: break;
+        }
+        return new Clause(path, op, value, number, pattern);
+    }
+
+    private static String unquote(String value) {
+        if (value.length() < 2 || !value.startsWith("\"") || !value.endsWith("\"")) return value;
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 1; i < value.length() - 1; i += 1) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length() - 1) c = value.charAt(++i);
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean test(NBTBase root) {
+        for (Clause clause : clauses) {
+            if (!test(clause, root)) return false;
+        }
+        return true;
+    }
+
+    private static boolean test(Clause clause, NBTBase root) {
+        switch (clause.op()) {
+        case EXISTS: return clause.path().exists(root);
+        case NOT_EXISTS: return !clause.path().exists(root);
+        case EQ: return clause.path().anyMatch(root, node -> isEqual(clause, node));
+        case NE: return !clause.path().anyMatch(root, node -> isEqual(clause, node));
+        case MATCH:
+            return clause.path().anyMatch(root, node -> node instanceof NBTTagString nbtTagString
+                                          && clause.pattern().matcher((String) nbtTagString.e_()).find()); // asString
+        default:
+            return clause.path().anyMatch(root, node -> compare(clause, node));
+        }
+    }
+
+    private static boolean isEqual(Clause clause, NBTBase node) {
+        if (node instanceof NBTTagString nbtTagString) {
+            return clause.value().equals(nbtTagString.e_()); // asString
+        }
+        if (clause.number() == null) return false;
+        Double number = numberValue(node);
+        return number != null && number.doubleValue() == clause.number().doubleValue();
+    }
+
+    private static boolean compare(Clause clause, NBTBase node) {
+        Double number = numberValue(node);
+        if (number == null) return false;
+        int cmp = Double.compare(number, clause.number());
+        switch (clause.op()) {
+        case GT: return cmp > 0;
+        case GE: return cmp >= 0;
+        case LT: return cmp < 0;
+        case LE: return cmp <= 0;
+        default: return false;
+        }
+    }
+
+    private static Double numberValue(NBTBase node) {
+        if (node instanceof NBTTagInt nbtTagInt) {
+            return (double) (int) nbtTagInt.f(); // asInt
+        } else if (node instanceof NBTTagByte nbtTagByte) {
+            return (double) (byte) nbtTagByte.h(); // asByte
+        } else if (node instanceof NBTTagShort nbtTagShort) {
+            return (double) (short) nbtTagShort.g(); // asShort
+        } else if (node instanceof NBTTagLong nbtTagLong) {
+            return (double) (long) nbtTagLong.f(); // asLong
+        } else if (node instanceof NBTTagFloat nbtTagFloat) {
+            return (double) (float) nbtTagFloat.j(); // asFloat
+        } else if (node instanceof NBTTagDouble nbtTagDouble) {
+            return (double) nbtTagDouble.i(); // asDouble
+        } else {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.cavetale.dirty;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagString;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Searches the entities and tile entities in loaded chunks for tags
+ * which pass an NbtPredicate.  See Dirty.find.
+ *
+ * The main thread saves the tags of one chunk after the other, within
+ * a time budget per tick, and hands each chunk to the fork join pool,
+ * where the predicate runs directly on the tags.  At most MAX_PENDING
+ * chunks are in flight; beyond that, capture pauses until the next
+ * tick.  Hits are queued and handed to the consumer on the main
+ * thread at the start of every tick, so they arrive while the search
+ * is still running.  A worker which fails leaves its error for the
+ * next tick, so the future always completes on the main thread.
+ *
+ * Entity tags carry their type as "id", tile entity tags the type of
+ * their block.  Cancelling stops the search at the next tick.
+ */
+public final class NbtSearch {
+    private static final int MAX_PENDING = 256;
+    private final Plugin plugin;
+    private final NbtPredicate predicate;
+    private final boolean entities;
+    private final boolean blocks;
+    private final long budgetNanos;
+    private final Consumer<Hit> consumer;
+    private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+    private final int chunksTotal;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong tagsChecked = new AtomicLong();
+    private final ConcurrentLinkedQueue<Hit> hits = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<Throwable> workerError = new AtomicReference<>();
+    private final CompletableFuture<NbtSearch> future = new CompletableFuture<>();
+    private int chunksDone;
+    private long hitCount;
+    private BukkitTask task;
+
+    /**
+     * One tag which passed the predicate.
+     * @param world The world name.
+     * @param x The block x coordinate.
+     * @param y The block y coordinate.
+     * @param z The block z coordinate.
+     * @param type The entity or block type, such as minecraft:chest.
+     * @param entity The entity UUID, or null for a tile entity.
+     * @param tag The tag, a copy owned by the consumer.
+     */
+    public record Hit(String world, int x, int y, int z, String type, UUID entity, NBTTagCompound tag) { }
+
+    NbtSearch(final Plugin plugin, final List<World> worlds, final NbtPredicate predicate,
+              final boolean entities, final boolean blocks, final long budgetNanos,
+              final Consumer<Hit> consumer) {
+        this.plugin = plugin;
+        this.predicate = predicate;
+        this.entities = entities;
+        this.blocks = blocks;
+        this.budgetNanos = budgetNanos;
+        this.consumer = consumer;
+        for (World world : worlds) {
+            for (Chunk chunk : world.getLoadedChunks()) chunks.add(chunk);
+        }
+        this.chunksTotal = chunks.size();
+    }
+
+    void start() {
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::tick, 0L, 1L);
+    }
+
+    private void tick() {
+        if (future.isDone()) {
+            stop();
+            return;
+        }
+        Throwable error = workerError.get();
+        if (error != null) {
+            stop();
+            future.completeExceptionally(error);
+            return;
+        }
+        try {
+            // Workers queue their hits before they decrement pending.
+            final boolean idle = pending.get() == 0;
+            for (Hit hit = hits.poll(); hit != null && !future.isDone(); hit = hits.poll()) {
+                hitCount += 1;
+                consumer.accept(hit);
+            }
+            final long start = System.nanoTime();
+            while (System.nanoTime() - start < budgetNanos && pending.get() < MAX_PENDING) {
+                Chunk chunk = chunks.poll();
+                if (chunk == null) break;
+                chunksDone += 1;
+                if (!chunk.isLoaded()) continue;
+                capture(chunk);
+            }
+            if (idle && chunks.isEmpty() && hits.isEmpty() && pending.get() == 0 && workerError.get() == null) {
+                stop();
+                future.complete(this);
+            }
+        } catch (RuntimeException re) {
+            stop();
+            future.completeExceptionally(re);
+        }
+    }
+
+    private void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        chunks.clear();
+    }
+
+    /**
+     * Save the tags of one chunk on the main thread and test them
+     * off-thread.
+     */
+    private void capture(Chunk chunk) {
+        final String worldName = chunk.getWorld().getName();
+        List<Hit> candidates = new ArrayList<>();
+        if (entities) {
+            for (Entity entity : chunk.getEntities()) {
+                if (!entity.isValid()) continue;
+                NBTTagCompound tag = Dirty.getEntityNbt0(entity);
+                String type = entity.getType().getKey().toString();
+                tag.a("id", NBTTagString.a(type)); // set
+                Location location = entity.getLocation();
+                candidates.add(new Hit(worldName, location.getBlockX(), location.getBlockY(), location.getBlockZ(),
+                                       type, entity.getUniqueId(), tag));
+            }
+        }
+        if (blocks) {
+            for (Map.Entry<Block, NBTTagCompound> entry : Dirty.getBlockNbts0(chunk, null).entrySet()) {
+                Block block = entry.getKey();
+                NBTTagCompound tag = entry.getValue();
+                String type = block.getType().getKey().toString();
+                tag.a("id", NBTTagString.a(type)); // set
+                candidates.add(new Hit(worldName, block.getX(), block.getY(), block.getZ(), type, null, tag));
+            }
+        }
+        if (candidates.isEmpty()) return;
+        pending.incrementAndGet();
+        DirtyExecutor.forkJoin().execute(() -> {
+                try {
+                    for (Hit candidate : candidates) {
+                        if (future.isDone() || workerError.get() != null) break;
+                        tagsChecked.incrementAndGet();
+                        if (predicate.test(candidate.tag())) hits.add(candidate);
+                    }
+                } catch (Throwable t) {
+                    workerError.compareAndSet(null, t);
+                } finally {
+                    pending.decrementAndGet();
+                }
+            });
+    }
+
+    /**
+     * Stop at the next tick.  The future completes exceptionally with
+     * a CancellationException.
+     */
+    public void cancel() {
+        future.cancel(false);
+    }
+
+    /**
+     * Completes with this search on the main thread when it is done,
+     * after the last hit was handed to the consumer.
+     */
+    public CompletableFuture<NbtSearch> getFuture() {
+        return future;
+    }
+
+    public NbtPredicate getPredicate() {
+        return predicate;
+    }
+
+    public int getChunksTotal() {
+        return chunksTotal;
+    }
+
+    public int getChunksDone() {
+        return chunksDone;
+    }
+
+    public long getTagsChecked() {
+        return tagsChecked.get();
+    }
+
+    /**
+     * Hits handed to the consumer so far.
+     */
+    public long getHits() {
+        return hitCount;
+    }
+
+    public String getProgress() {
+        return "Find: " + chunksDone + "/" + chunksTotal + " chunks, "
+            + tagsChecked.get() + " tags checked, " + hitCount + " hits";
+    }
+}
@@ -0,0 +1,34 @@
+package com.cavetale.dirty;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Generate an NbtCodec for a record or class at compile time.  The
+ * codec is named after the type, with nested type names joined by
+ * underscores, plus NbtCodec, for example FooNbtCodec or
+ * Outer_InnerNbtCodec, in the same package.  Its INSTANCE encodes
+ * and decodes without reflection.
+ *
+ * Records are written component by component and made via their
+ * canonical constructor.  Classes need a non-private constructor
+ * without arguments; all fields which are not static or transient
+ * are written and must not be private or final.
+ *
+ * Supported field types are the primitives and their boxes,
+ * String, UUID, enums, byte[], int[], long[], NBTTagCompound, other
+ * NbtSerializable types, and List, Map with String keys, and
+ * Optional of those.  Null fields and empty optionals are left out.
+ * Missing keys are decoded as zero, null, or empty.
+ *
+ * The processor is registered as a service in the Dirty jar, so
+ * javac runs it for any project which has Dirty on its classpath.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface NbtSerializable {
+}
@@ -0,0 +1,573 @@
+package com.cavetale.dirty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A typed NBT value, detached from the server's NBT classes.
+ *
+ * Unlike the Map form of Dirty.fromTag, primitives are not boxed and
+ * lists of numbers are stored in one primitive array.  A round trip
+ * through Dirty.toValue and Dirty.toNbt restores the exact same NBT
+ * types.
+ *
+ * Arrays, that is ByteArrayTag, IntArrayTag, LongArrayTag, and the
+ * primitive lists, wrap the array they were made from without
+ * copying.  Use copyOf to make one from an array which is still in
+ * use elsewhere, and toArray to get a copy.  Whether conversions
+ * share arrays with the NBT is chosen via ArrayMode.
+ */
+public sealed interface NbtValue {
+    /**
+     * How arrays are passed between NBT and values.
+     */
+    enum ArrayMode {
+        /** Copy arrays, so neither side sees changes of the other. */
+        COPY,
+        /**
+         * Share arrays with the source.  Cheaper, but changes to
+         * either side show up in the other.
+         */
+        SHARE;
+    }
+
+    record ByteTag(byte value) implements NbtValue {
+        public static ByteTag of(boolean value) {
+            return new ByteTag(value ? (byte) 1 : (byte) 0);
+        }
+
+        public boolean asBoolean() {
+            return value != 0;
+        }
+    }
+
+    record ShortTag(short value) implements NbtValue { }
+
+    record IntTag(int value) implements NbtValue { }
+
+    record LongTag(long value) implements NbtValue { }
+
+    record FloatTag(float value) implements NbtValue { }
+
+    record DoubleTag(double value) implements NbtValue { }
+
+    record StringTag(String value) implements NbtValue {
+        public StringTag {
+            if (value == null) throw new NullPointerException("value cannot be null");
+        }
+    }
+
+    record ByteArrayTag(byte[] values) implements NbtValue {
+        public ByteArrayTag {
+            if (values == null) throw new NullPointerException("values cannot be null");
+        }
+
+        public static ByteArrayTag copyOf(byte[] values) {
+            return new ByteArrayTag(values.clone());
+        }
+
+        public byte[] toArray() {
+            return values.clone();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ByteArrayTag that && Arrays.equals(values, that.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+
+        @Override
+        public String toString() {
+            return "ByteArrayTag" + Arrays.toString(values);
+        }
+    }
+
+    record IntArrayTag(int[] values) implements NbtValue {
+        public IntArrayTag {
+            if (values == null) throw new NullPointerException("values cannot be null");
+        }
+
+        public static IntArrayTag copyOf(int[] values) {
+            return new IntArrayTag(values.clone());
+        }
+
+        public int[] toArray() {
+            return values.clone();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IntArrayTag that && Arrays.equals(values, that.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+
+        @Override
+        public String toString() {
+            return "IntArrayTag" + Arrays.toString(values);
+        }
+    }
+
+    record LongArrayTag(long[] values) implements NbtValue {
+        public LongArrayTag {
+            if (values == null) throw new NullPointerException("values cannot be null");
+        }
+
+        public static LongArrayTag copyOf(long[] values) {
+            return new LongArrayTag(values.clone());
+        }
+
+        public long[] toArray() {
+            return values.clone();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LongArrayTag that && Arrays.equals(values, that.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+
+        @Override
+        public String toString() {
+            return "LongArrayTag" + Arrays.toString(values);
+        }
+    }
+
+    /**
+     * An NBT list.  Lists of numbers are specialized to primitive
+     * arrays; all others, including empty lists read from NBT, are a
+     * ValueListTag.
+     */
+    sealed interface ListTag extends NbtValue {
+        int size();
+
+        /**
+         * Get an element, boxed into its tag type.  The specialized
+         * lists offer unboxed access via their array.
+         */
+        NbtValue get(int index);
+    }
+
+    record ValueListTag(List<NbtValue> values) implements ListTag {
+        public ValueListTag {
+            if (values == null) throw new NullPointerException("values cannot be null");
+        }
+
+        public ValueListTag() {
+            this(new ArrayList<>());
+        }
+
+        @Override
+        public int size() {
+            return values.size();
+        }
+
+        @Override
+        public NbtValue get(int index) {
+            return values.get(index);
+        }
+    }
+
+    record ByteListTag(byte[] values) implements ListTag {
+        public ByteListTag {
+            if (values == null) throw new NullPointerException("values cannot be null");
+        }
+
+        public static ByteListTag copyOf(byte[] values) {
+            return new ByteListTag(values.clone());
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public NbtValue get(int index) {
+            return new ByteTag(values[index]);
+        }
+
+        public byte[] toArray() {
+            return values.clone();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ByteListTag that && Arrays.equals(values, that.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+
+        @Override
+        public String toString() {
+            return "ByteListTag" + Arrays.toString(values);
+        }
+    }
+
+    record ShortListTag(short[] values) implements ListTag {
+        public ShortListTag {
+            if (values == null) throw new NullPointerException("values cannot be null");
+        }
+
+        public static ShortListTag copyOf(short[] values) {
+            return new ShortListTag(values.clone());
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public NbtValue get(int index) {
+            return new ShortTag(values[index]);
+        }
+
+        public short[] toArray() {
+            return values.clone();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ShortListTag that && Arrays.equals(values, that.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+
+        @Override
+        public String toString() {
+            return "ShortListTag" + Arrays.toString(values);
+        }
+    }
+
+    record IntListTag(int[] values) implements ListTag {
+        public IntListTag {
+            if (values == null) throw new NullPointerException("values cannot be null");
+        }
+
+        public static IntListTag copyOf(int[] values) {
+            return new IntListTag(values.clone());
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public NbtValue get(int index) {
+            return new IntTag(values[index]);
+        }
+
+        public int[] toArray() {
+            return values.clone();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IntListTag that && Arrays.equals(values, that.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+
+        @Override
+        public String toString() {
+            return "IntListTag" + Arrays.toString(values);
+        }
+    }
+
+    record LongListTag(long[] values) implements ListTag {
+        public LongListTag {
+            if (values == null) throw new NullPointerException("values cannot be null");
+        }
+
+        public static LongListTag copyOf(long[] values) {
+            return new LongListTag(values.clone());
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public NbtValue get(int index) {
+            return new LongTag(values[index]);
+        }
+
+        public long[] toArray() {
+            return values.clone();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LongListTag that && Arrays.equals(values, that.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+
+        @Override
+        public String toString() {
+            return "LongListTag" + Arrays.toString(values);
+        }
+    }
+
+    record FloatListTag(float[] values) implements ListTag {
+        public FloatListTag {
+            if (values == null) throw new NullPointerException("values cannot be null");
+        }
+
+        public static FloatListTag copyOf(float[] values) {
+            return new FloatListTag(values.clone());
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public NbtValue get(int index) {
+            return new FloatTag(values[index]);
+        }
+
+        public float[] toArray() {
+            return values.clone();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof FloatListTag that && Arrays.equals(values, that.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+
+        @Override
+        public String toString() {
+            return "FloatListTag" + Arrays.toString(values);
+        }
+    }
+
+    record DoubleListTag(double[] values) implements ListTag {
+        public DoubleListTag {
+            if (values == null) throw new NullPointerException("values cannot be null");
+        }
+
+        public static DoubleListTag copyOf(double[] values) {
+            return new DoubleListTag(values.clone());
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public NbtValue get(int index) {
+            return new DoubleTag(values[index]);
+        }
+
+        public double[] toArray() {
+            return values.clone();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof DoubleListTag that && Arrays.equals(values, that.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+
+        @Override
+        public String toString() {
+            return "DoubleListTag" + Arrays.toString(values);
+        }
+    }
+
+    /**
+     * An NBT compound.  Mutable and not thread safe.  The typed
+     * getters return the fallback if the key is missing or holds a
+     * different type.
+     */
+    final class CompoundTag implements NbtValue {
+        private final Map<String, NbtValue> map;
+
+        public CompoundTag() {
+            this.map = new HashMap<>();
+        }
+
+        /**
+         * Make an empty compound with room for the expected number of
+         * keys.
+         */
+        public CompoundTag(final int expectedSize) {
+            this.map = new HashMap<>(Math.max(4, (int) (expectedSize / 0.75f) + 1));
+        }
+
+        public int size() {
+            return map.size();
+        }
+
+        public boolean isEmpty() {
+            return map.isEmpty();
+        }
+
+        public boolean containsKey(String key) {
+            return map.containsKey(key);
+        }
+
+        public NbtValue get(String key) {
+            return map.get(key);
+        }
+
+        /**
+         * Set a value, or remove it if it is null.
+         * @return this
+         */
+        public CompoundTag put(String key, NbtValue value) {
+            if (key == null) throw new NullPointerException("key cannot be null");
+            if (value == null) {
+                map.remove(key);
+            } else {
+                map.put(key, value);
+            }
+            return this;
+        }
+
+        public NbtValue remove(String key) {
+            return map.remove(key);
+        }
+
+        public Set<String> keySet() {
+            return Collections.unmodifiableSet(map.keySet());
+        }
+
+        /**
+         * Get an unmodifiable view of the entries.
+         */
+        public Map<String, NbtValue> asMap() {
+            return Collections.unmodifiableMap(map);
+        }
+
+        public byte getByte(String key, byte fallback) {
+            return map.get(key) instanceof ByteTag tag ? tag.value() : fallback;
+        }
+
+        public boolean getBoolean(String key, boolean fallback) {
+            return map.get(key) instanceof ByteTag tag ? tag.value() != 0 : fallback;
+        }
+
+        public short getShort(String key, short fallback) {
+            return map.get(key) instanceof ShortTag tag ? tag.value() : fallback;
+        }
+
+        public int getInt(String key, int fallback) {
+            return map.get(key) instanceof IntTag tag ? tag.value() : fallback;
+        }
+
+        public long getLong(String key, long fallback) {
+            return map.get(key) instanceof LongTag tag ? tag.value() : fallback;
+        }
+
+        public float getFloat(String key, float fallback) {
+            return map.get(key) instanceof FloatTag tag ? tag.value() : fallback;
+        }
+
+        public double getDouble(String key, double fallback) {
+            return map.get(key) instanceof DoubleTag tag ? tag.value() : fallback;
+        }
+
+        public String getString(String key, String fallback) {
+            return map.get(key) instanceof StringTag tag ? tag.value() : fallback;
+        }
+
+        public CompoundTag getCompound(String key) {
+            return map.get(key) instanceof CompoundTag tag ? tag : null;
+        }
+
+        public ListTag getList(String key) {
+            return map.get(key) instanceof ListTag tag ? tag : null;
+        }
+
+        public CompoundTag putByte(String key, byte value) {
+            return put(key, new ByteTag(value));
+        }
+
+        public CompoundTag putBoolean(String key, boolean value) {
+            return put(key, ByteTag.of(value));
+        }
+
+        public CompoundTag putShort(String key, short value) {
+            return put(key, new ShortTag(value));
+        }
+
+        public CompoundTag putInt(String key, int value) {
+            return put(key, new IntTag(value));
+        }
+
+        public CompoundTag putLong(String key, long value) {
+            return put(key, new LongTag(value));
+        }
+
+        public CompoundTag putFloat(String key, float value) {
+            return put(key, new FloatTag(value));
+        }
+
+        public CompoundTag putDouble(String key, double value) {
+            return put(key, new DoubleTag(value));
+        }
+
+        public CompoundTag putString(String key, String value) {
+            return put(key, value != null ? new StringTag(value) : null);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CompoundTag that && map.equals(that.map);
+        }
+
+        @Override
+        public int hashCode() {
+            return map.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "CompoundTag" + map;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.cavetale.dirty;
+
+import com.cavetale.dirty.NbtValue.ArrayMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLong;
+import net.minecraft.nbt.NBTTagLongArray;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
+
+/**
+ * Conversion between NBT and NbtValue.
+ *
+ * Lists are specialized by the type of their first element, which
+ * NBT requires to be the type of all elements.  The NBT array tags
+ * keep the array they are given and return it, which is what makes
+ * ArrayMode.SHARE possible.
+ */
+final class NbtValues {
+    private NbtValues() { }
+
+    static NbtValue toValue(NBTBase value, ArrayMode mode) {
+        if (value == null) {
+            return null;
+        } else if (value instanceof NBTTagCompound nbtTagCompound) {
+            NbtValue.CompoundTag result = new NbtValue.CompoundTag(nbtTagCompound.x.size());
+            for (Map.Entry<String, NBTBase> entry : nbtTagCompound.x.entrySet()) {
+                result.put(entry.getKey(), toValue(entry.getValue(), mode));
+            }
+            return result;
+        } else if (value instanceof NBTTagList nbtTagList) {
+            return toListValue(nbtTagList, mode);
+        } else if (value instanceof NBTTagString nbtTagString) {
+            return new NbtValue.StringTag((String) nbtTagString.e_()); // asString
+        } else if (value instanceof NBTTagInt nbtTagInt) {
+            return new NbtValue.IntTag((int) nbtTagInt.f()); // asInt
+        } else if (value instanceof NBTTagLong nbtTagLong) {
+            return new NbtValue.LongTag((long) nbtTagLong.f()); // asLong
+        } else if (value instanceof NBTTagShort nbtTagShort) {
+            return new NbtValue.ShortTag((short) nbtTagShort.g()); // asShort
+        } else if (value instanceof NBTTagFloat nbtTagFloat) {
+            return new NbtValue.FloatTag((float) nbtTagFloat.j()); // asFloat
+        } else if (value instanceof NBTTagDouble nbtTagDouble) {
+            return new NbtValue.DoubleTag((double) nbtTagDouble.i()); // asDouble
+        } else if (value instanceof NBTTagByte nbtTagByte) {
+            return new NbtValue.ByteTag((byte) nbtTagByte.h()); // asByte
+        } else if (value instanceof NBTTagByteArray nbtTagByteArray) {
+            byte[] array = nbtTagByteArray.d(); // getBytes
+            return new NbtValue.ByteArrayTag(mode == ArrayMode.COPY ? array.clone() : array);
+        } else if (value instanceof NBTTagIntArray nbtTagIntArray) {
+            int[] array = nbtTagIntArray.f(); // getInts
+            return new NbtValue.IntArrayTag(mode == ArrayMode.COPY ? array.clone() : array);
+        } else if (value instanceof NBTTagLongArray nbtTagLongArray) {
+            long[] array = nbtTagLongArray.f(); // getLongs
+            return new NbtValue.LongArrayTag(mode == ArrayMode.COPY ? array.clone() : array);
+        } else {
+            throw new IllegalArgumentException("NbtValues.toValue: Unsupported value type: "
+                                               + value.getClass().getName());
+        }
+    }
+
+    private static NbtValue.ListTag toListValue(NBTTagList list, ArrayMode mode) {
+        final int size = list.size();
+        if (size == 0) return new NbtValue.ValueListTag(new ArrayList<>(0));
+        NBTBase first = list.get(0);
+        if (first instanceof NBTTagInt) {
+            int[] values = new int[size];
+            for (int i = 0; i < size; i += 1) values[i] = ((NBTTagInt) list.get(i)).f(); // asInt
+            return new NbtValue.IntListTag(values);
+        } else if (first instanceof NBTTagDouble) {
+            double[] values = new double[size];
+            for (int i = 0; i < size; i += 1) values[i] = ((NBTTagDouble) list.get(i)).i(); // asDouble
+            return new NbtValue.DoubleListTag(values);
+        } else if (first instanceof NBTTagFloat) {
+            float[] values = new float[size];
+            for (int i = 0; i < size; i += 1) values[i] = ((NBTTagFloat) list.get(i)).j(); // asFloat
+            return new NbtValue.FloatListTag(values);
+        } else if (first instanceof NBTTagLong) {
+            long[] values = new long[size];
+            for (int i = 0; i < size; i += 1) values[i] = ((NBTTagLong) list.get(i)).f(); // asLong
+            return new NbtValue.LongListTag(values);
+        } else if (first instanceof NBTTagShort) {
+            short[] values = new short[size];
+            for (int i = 0; i < size; i += 1) values[i] = ((NBTTagShort) list.get(i)).g(); // asShort
+            return new NbtValue.ShortListTag(values);
+        } else if (first instanceof NBTTagByte) {
+            byte[] values = new byte[size];
+            for (int i = 0; i < size; i += 1) values[i] = ((NBTTagByte) list.get(i)).h(); // asByte
+            return new NbtValue.ByteListTag(values);
+        } else {
+            List<NbtValue> values = new ArrayList<>(size);
+            for (int i = 0; i < size; i += 1) values.add(toValue(list.get(i), mode));
+            return new NbtValue.ValueListTag(values);
+        }
+    }
+
+    static NBTBase toNbt(NbtValue value, ArrayMode mode) {
+        if (value == null) {
+            return null;
+        } else if (value instanceof NbtValue.CompoundTag compoundTag) {
+            NBTTagCompound result = new NBTTagCompound();
+            for (Map.Entry<String, NbtValue> entry : compoundTag.asMap().entrySet()) {
+                result.a(entry.getKey(), toNbt(entry.getValue(), mode)); // set
+            }
+            return result;
+        } else if (value instanceof NbtValue.ListTag listTag) {
+            return toNbtList(listTag, mode);
+        } else if (value instanceof NbtValue.StringTag stringTag) {
+            return NBTTagString.a(stringTag.value());
+        } else if (value instanceof NbtValue.IntTag intTag) {
+            return NBTTagInt.a(intTag.value());
+        } else if (value instanceof NbtValue.LongTag longTag) {
+            return NBTTagLong.a(longTag.value());
+        } else if (value instanceof NbtValue.ShortTag shortTag) {
+            return NBTTagShort.a(shortTag.value());
+        } else if (value instanceof NbtValue.FloatTag floatTag) {
+            return NBTTagFloat.a(floatTag.value());
+        } else if (value instanceof NbtValue.DoubleTag doubleTag) {
+            return NBTTagDouble.a(doubleTag.value());
+        } else if (value instanceof NbtValue.ByteTag byteTag) {
+            return NBTTagByte.a(byteTag.value());
+        } else if (value instanceof NbtValue.ByteArrayTag byteArrayTag) {
+            return new NBTTagByteArray(mode == ArrayMode.COPY ? byteArrayTag.toArray() : byteArrayTag.values());
+        } else if (value instanceof NbtValue.IntArrayTag intArrayTag) {
+            return new NBTTagIntArray(mode == ArrayMode.COPY ? intArrayTag.toArray() : intArrayTag.values());
+        } else if (value instanceof NbtValue.LongArrayTag longArrayTag) {
+            return new NBTTagLongArray(mode == ArrayMode.COPY ? longArrayTag.toArray() : longArrayTag.values());
+        } else {
+            throw new IllegalArgumentException("NbtValues.toNbt: Unsupported value type: "
+                                               + value.getClass().getName());
+        }
+    }
+
+    private static NBTTagList toNbtList(NbtValue.ListTag listTag, ArrayMode mode) {
+        NBTTagList result = new NBTTagList();
+        if (listTag instanceof NbtValue.IntListTag intList) {
+            for (int it : intList.values()) result.add(NBTTagInt.a(it));
+        } else if (listTag instanceof NbtValue.DoubleListTag doubleList) {
+            for (double it : doubleList.values()) result.add(NBTTagDouble.a(it));
+        } else if (listTag instanceof NbtValue.FloatListTag floatList) {
+            for (float it : floatList.values()) result.add(NBTTagFloat.a(it));
+        } else if (listTag instanceof NbtValue.LongListTag longList) {
+            for (long it : longList.values()) result.add(NBTTagLong.a(it));
+        } else if (listTag instanceof NbtValue.ShortListTag shortList) {
+            for (short it : shortList.values()) result.add(NBTTagShort.a(it));
+        } else if (listTag instanceof NbtValue.ByteListTag byteList) {
+            for (byte it : byteList.values()) result.add(NBTTagByte.a(it));
+        } else if (listTag instanceof NbtValue.ValueListTag valueList) {
+            for (NbtValue it : valueList.values()) result.add(toNbt(it, mode));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,233 @@
+package com.cavetale.dirty;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import net.minecraft.core.BlockPosition;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.server.level.WorldServer;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.level.block.entity.TileEntity;
+import net.minecraft.world.level.block.entity.TileEntityTypes;
+import net.minecraft.world.level.chunk.Chunk;
+import net.minecraft.world.level.chunk.IChunkAccess;
+import net.minecraft.world.level.levelgen.structure.Structure;
+import net.minecraft.world.level.levelgen.structure.StructureStart;
+import org.bukkit.craftbukkit.v1_19_R1.inventory.CraftItemStack;
+
+/**
+ * All obfuscated NMS and private CraftBukkit members Dirty touches,
+ * resolved once when the class loads.  Being static final, the JIT
+ * treats the handles as constants and inlines through them.
+ *
+ * A lookup that fails does not throw right away.  Instead, check()
+ * reports every missing member at once, which DirtyPlugin calls on
+ * enable.  The handle of a missing member throws an
+ * IllegalStateException naming it, for plugins which call Dirty
+ * anyway.
+ */
+final class NmsAccess {
+    private static final List<String> PROBLEMS = new ArrayList<>();
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodHandle MISSING_MEMBER = missingMemberHandle();
+    private static final MethodHandle CRAFT_ITEM_STACK_HANDLE = getter(CraftItemStack.class, "handle", "handle",
+                                                                       ItemStack.class);
+    private static final MethodHandle CHUNK_BLOCK_ENTITIES = getter(IChunkAccess.class, "i", "blockEntities",
+                                                                    Map.class);
+    private static final MethodHandle ITEM_GET_TAG = virtual(ItemStack.class, "u", "getTag",
+                                                             NBTTagCompound.class);
+    private static final MethodHandle ITEM_SAVE = virtual(ItemStack.class, "b", "save",
+                                                          NBTTagCompound.class, NBTTagCompound.class);
+    private static final MethodHandle ITEM_SET_TAG = virtual(ItemStack.class, "c", "setTag",
+                                                             void.class, NBTTagCompound.class);
+    private static final MethodHandle WORLD_GET_TILE_ENTITY = virtual(WorldServer.class, "c_", "getBlockEntity",
+                                                                      TileEntity.class, BlockPosition.class);
+    private static final MethodHandle TILE_ENTITY_GET_TYPE = virtual(TileEntity.class, "u", "getType",
+                                                                     TileEntityTypes.class);
+    private static final MethodHandle TILE_ENTITY_SAVE = virtual(TileEntity.class, "o", "saveWithoutMetadata",
+                                                                 NBTTagCompound.class);
+    private static final MethodHandle TILE_ENTITY_LOAD = virtual(TileEntity.class, "a", "load",
+                                                                 void.class, NBTTagCompound.class);
+    private static final MethodHandle TILE_ENTITY_SET_CHANGED = virtual(TileEntity.class, "e", "setChanged",
+                                                                        void.class);
+    private static final MethodHandle ENTITY_LOAD = virtual(Entity.class, "g", "load",
+                                                            void.class, NBTTagCompound.class);
+    private static final MethodHandle CHUNK_GET_STRUCTURES = virtual(Chunk.class, "g", "getAllStarts",
+                                                                     Map.class);
+
+    private NmsAccess() { }
+
+    private static MethodHandle missingMemberHandle() {
+        try {
+            return LOOKUP.findStatic(NmsAccess.class, "missingMember",
+                                     MethodType.methodType(IllegalStateException.class, String.class));
+        } catch (ReflectiveOperationException roe) {
+            throw new IllegalStateException(roe);
+        }
+    }
+
+    private static IllegalStateException missingMember(String problem) {
+        return new IllegalStateException("Dirty is not compatible with this server version. Missing member: "
+                                         + problem);
+    }
+
+    /**
+     * Record a problem and make a handle of the given type which
+     * throws it.
+     */
+    private static MethodHandle missing(String problem, Class<?> returnType, Class<?>... parameterTypes) {
+        PROBLEMS.add(problem);
+        MethodHandle create = MISSING_MEMBER.bindTo(problem);
+        MethodHandle thrower = MethodHandles.throwException(returnType, IllegalStateException.class);
+        return MethodHandles.dropArguments(MethodHandles.filterReturnValue(create, thrower), 0, parameterTypes);
+    }
+
+    private static MethodHandle getter(Class<?> owner, String name, String description, Class<?> type) {
+        try {
+            return MethodHandles.privateLookupIn(owner, LOOKUP).findGetter(owner, name, type);
+        } catch (ReflectiveOperationException | IllegalAccessError roe) {
+            return missing(owner.getSimpleName() + "." + name + " (" + description + "): " + roe, type, owner);
+        }
+    }
+
+    private static MethodHandle virtual(Class<?> owner, String name, String description,
+                                        Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            return LOOKUP.findVirtual(owner, name, MethodType.methodType(returnType, parameterTypes));
+        } catch (ReflectiveOperationException roe) {
+            Class<?>[] receiverAndParameters = new Class<?>[parameterTypes.length + 1];
+            receiverAndParameters[0] = owner;
+            System.arraycopy(parameterTypes, 0, receiverAndParameters, 1, parameterTypes.length);
+            return missing(owner.getSimpleName() + "." + name + " (" + description + "): " + roe,
+                           returnType, receiverAndParameters);
+        }
+    }
+
+    /**
+     * Throw if any member could not be resolved.
+     */
+    static void check(String serverVersion) {
+        if (PROBLEMS.isEmpty()) return;
+        StringBuilder sb = new StringBuilder();
+        sb.append("Dirty is not compatible with this server version: ").append(serverVersion);
+        sb.append(". Missing members:");
+        for (String problem : PROBLEMS) {
+            sb.append("\n- ").append(problem);
+        }
+        throw new IllegalStateException(sb.toString());
+    }
+
+    static ItemStack getHandle(CraftItemStack craftItemStack) {
+        try {
+            return (ItemStack) CRAFT_ITEM_STACK_HANDLE.invokeExact(craftItemStack);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static NBTTagCompound getTag(ItemStack itemStack) {
+        try {
+            return (NBTTagCompound) ITEM_GET_TAG.invokeExact(itemStack);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static NBTTagCompound save(ItemStack itemStack, NBTTagCompound tag) {
+        try {
+            return (NBTTagCompound) ITEM_SAVE.invokeExact(itemStack, tag);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void setTag(ItemStack itemStack, NBTTagCompound tag) {
+        try {
+            ITEM_SET_TAG.invokeExact(itemStack, tag);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static TileEntity getTileEntity(WorldServer worldServer, BlockPosition pos) {
+        try {
+            return (TileEntity) WORLD_GET_TILE_ENTITY.invokeExact(worldServer, pos);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * The chunk's own map of tile entities.  Must not be modified.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<BlockPosition, TileEntity> getBlockEntities(Chunk chunk) {
+        try {
+            return (Map<BlockPosition, TileEntity>) CHUNK_BLOCK_ENTITIES.invokeExact((IChunkAccess) chunk);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static TileEntityTypes<?> getType(TileEntity tileEntity) {
+        try {
+            return (TileEntityTypes<?>) TILE_ENTITY_GET_TYPE.invokeExact(tileEntity);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static NBTTagCompound save(TileEntity tileEntity) {
+        try {
+            return (NBTTagCompound) TILE_ENTITY_SAVE.invokeExact(tileEntity);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void load(TileEntity tileEntity, NBTTagCompound tag) {
+        try {
+            TILE_ENTITY_LOAD.invokeExact(tileEntity, tag);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Mark a tile entity as modified, so its chunk is saved.
+     */
+    static void setChanged(TileEntity tileEntity) {
+        try {
+            TILE_ENTITY_SET_CHANGED.invokeExact(tileEntity);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void load(Entity entity, NBTTagCompound tag) {
+        try {
+            ENTITY_LOAD.invokeExact(entity, tag);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<Structure, StructureStart> getStructures(Chunk chunk) {
+        try {
+            return (Map<Structure, StructureStart>) CHUNK_GET_STRUCTURES.invokeExact(chunk);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException re) return re;
+        if (t instanceof Error error) throw error;
+        return new IllegalStateException(t);
+    }
+}
@@ -0,0 +1,100 @@
+package com.cavetale.dirty;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decode binary NBT, as stored in region files, straight into the
+ * container objects Dirty.fromTag produces: Map, List, boxed numbers,
+ * String, and primitive arrays.  No server classes are needed, so
+ * this works offline.
+ *
+ * The input is a decompressed chunk in memory, and every length is
+ * checked against the bytes left in it, so a corrupt chunk throws
+ * IOException rather than allocating more than it could hold.
+ */
+final class RawNbtReader {
+    private static final int MAX_DEPTH = 512;
+
+    private RawNbtReader() { }
+
+    /**
+     * Read a named root compound.
+     */
+    static Map<String, Object> readRoot(byte[] data) throws IOException {
+        // ByteArrayInputStream knows exactly how many bytes are left.
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int type = in.readByte();
+        if (type != 10) throw new IOException("RawNbtReader: Root is not a compound: " + type);
+        in.readUTF(); // name
+        @SuppressWarnings("unchecked")
+        Map<String, Object> result = (Map<String, Object>) readPayload(type, in, 0);
+        return result;
+    }
+
+    private static Object readPayload(int type, DataInputStream in, int depth) throws IOException {
+        if (depth > MAX_DEPTH) throw new IOException("RawNbtReader: Too deep");
+        switch (type) {
+        case 1: return in.readByte();
+        case 2: return in.readShort();
+        case 3: return in.readInt();
+        case 4: return in.readLong();
+        case 5: return in.readFloat();
+        case 6: return in.readDouble();
+        case 7: {
+            byte[] result = new byte[checkLength(in, 1)];
+            in.readFully(result);
+            return result;
+        }
+        case 8: return in.readUTF();
+        case 9: {
+            int elementType = in.readByte();
+            int length = checkLength(in, 1);
+            List<Object> result = new ArrayList<>(length);
+            for (int i = 0; i < length; i += 1) {
+                result.add(readPayload(elementType, in, depth + 1));
+            }
+            return result;
+        }
+        case 10: {
+            Map<String, Object> result = new HashMap<>();
+            while (true) {
+                int childType = in.readByte();
+                if (childType == 0) break;
+                String name = in.readUTF();
+                result.put(name, readPayload(childType, in, depth + 1));
+            }
+            return result;
+        }
+        case 11: {
+            int[] result = new int[checkLength(in, 4)];
+            for (int i = 0; i < result.length; i += 1) result[i] = in.readInt();
+            return result;
+        }
+        case 12: {
+            long[] result = new long[checkLength(in, 8)];
+            for (int i = 0; i < result.length; i += 1) result[i] = in.readLong();
+            return result;
+        }
+        default:
+            throw new IOException("RawNbtReader: Unknown type: " + type);
+        }
+    }
+
+    /**
+     * Read a length and check that many elements of at least the
+     * given size fit into the remaining input.
+     */
+    private static int checkLength(DataInputStream in, int elementSize) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || (long) length * elementSize > in.available()) {
+            throw new IOException("RawNbtReader: Bad length: " + length);
+        }
+        return length;
+    }
+}
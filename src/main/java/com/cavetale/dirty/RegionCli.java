@@ -0,0 +1,192 @@
+package com.cavetale.dirty;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Command line entry point to dump a world folder without a server.
+ * Prints one JSON object per line to stdout, see usage().
+ *
+ * This deliberately depends on nothing but the JDK, so the plugin jar
+ * runs on its own: java -jar Dirty.jar WORLD MODE
+ */
+public final class RegionCli {
+    private RegionCli() { }
+
+    private static void usage(PrintStream out) {
+        out.println("Usage: java -jar Dirty.jar WORLD_FOLDER MODE [THREADS]");
+        out.println("Modes:");
+        out.println("  structures - Structure starts with bounding boxes");
+        out.println("  blocks     - Tile entity tags");
+        out.println("  entities   - Entity tags");
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            usage(System.err);
+            System.exit(1);
+            return;
+        }
+        File worldFolder = new File(args[0]);
+        String mode = args[1];
+        int threads = args.length >= 3
+            ? Integer.parseInt(args[2])
+            : Runtime.getRuntime().availableProcessors();
+        String kind;
+        switch (mode) {
+        case "structures": case "blocks": kind = "region"; break;
+        case "entities": kind = "entities"; break;
+        default:
+            usage(System.err);
+            System.exit(1);
+            return;
+        }
+        List<File> files = RegionScanner.regionFiles(worldFolder, kind);
+        if (files.isEmpty()) {
+            System.err.println("No region files in " + new File(worldFolder, kind));
+            System.exit(1);
+            return;
+        }
+        AtomicLong count = new AtomicLong();
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        RegionScanner.scan(files, threads, (chunkX, chunkZ, chunk) -> {
+                StringBuilder sb = new StringBuilder();
+                switch (mode) {
+                case "structures":
+                    for (Structure structure : RegionScanner.structuresOf(chunk)) {
+                        sb.append("{\"chunk\":[").append(chunkX).append(',').append(chunkZ).append("],\"name\":");
+                        writeJson(structure.name, sb);
+                        sb.append(",\"bb\":");
+                        writeBox(structure.bb, sb);
+                        sb.append(",\"bbs\":[");
+                        for (int i = 0; i < structure.bbs.size(); i += 1) {
+                            if (i > 0) sb.append(',');
+                            writeBox(structure.bbs.get(i), sb);
+                        }
+                        sb.append("]}\n");
+                        count.incrementAndGet();
+                    }
+                    break;
+                case "blocks":
+                    for (Map<String, Object> tag : RegionScanner.blockEntitiesOf(chunk)) {
+                        writeJson(tag, sb);
+                        sb.append('\n');
+                        count.incrementAndGet();
+                    }
+                    break;
+                case "entities":
+                default:
+                    for (Map<String, Object> tag : RegionScanner.entitiesOf(chunk)) {
+                        writeJson(tag, sb);
+                        sb.append('\n');
+                        count.incrementAndGet();
+                    }
+                    break;
+                }
+                if (sb.length() == 0) return;
+                synchronized (out) {
+                    try {
+                        out.append(sb);
+                    } catch (IOException ioe) {
+                        throw new UncheckedIOException(ioe);
+                    }
+                }
+            }, (file, e) -> System.err.println(file + ": " + e.getMessage()));
+        out.flush();
+        System.err.println(count.get() + " " + mode + " in " + files.size() + " files");
+    }
+
+    private static void writeBox(Box box, StringBuilder sb) {
+        if (box == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append("{\"min\":");
+        writeJson(box.min, sb);
+        sb.append(",\"max\":");
+        writeJson(box.max, sb);
+        sb.append('}');
+    }
+
+    /**
+     * Write the container objects of RawNbtReader as JSON.
+     */
+    private static void writeJson(Object value, StringBuilder sb) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof Map<?, ?> map) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (!first) sb.append(',');
+                first = false;
+                writeJson(entry.getKey().toString(), sb);
+                sb.append(':');
+                writeJson(entry.getValue(), sb);
+            }
+            sb.append('}');
+        } else if (value instanceof List<?> list) {
+            sb.append('[');
+            for (int i = 0; i < list.size(); i += 1) {
+                if (i > 0) sb.append(',');
+                writeJson(list.get(i), sb);
+            }
+            sb.append(']');
+        } else if (value instanceof String string) {
+            sb.append('"');
+            for (int i = 0; i < string.length(); i += 1) {
+                char c = string.charAt(i);
+                switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+            sb.append('"');
+        } else if (value instanceof byte[] array) {
+            sb.append('[');
+            for (int i = 0; i < array.length; i += 1) {
+                if (i > 0) sb.append(',');
+                sb.append(array[i]);
+            }
+            sb.append(']');
+        } else if (value instanceof int[] array) {
+            sb.append('[');
+            for (int i = 0; i < array.length; i += 1) {
+                if (i > 0) sb.append(',');
+                sb.append(array[i]);
+            }
+            sb.append(']');
+        } else if (value instanceof long[] array) {
+            sb.append('[');
+            for (int i = 0; i < array.length; i += 1) {
+                if (i > 0) sb.append(',');
+                sb.append(array[i]);
+            }
+            sb.append(']');
+        } else if ((value instanceof Double d && !Double.isFinite(d))
+                   || (value instanceof Float f && !Float.isFinite(f))) {
+            // Not valid JSON as a number, so quote it like typed JSON does
+            sb.append('"').append(value).append('"');
+        } else {
+            sb.append(value);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.cavetale.dirty;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Read-only access to an Anvil region file (r.X.Z.mca) via a memory
+ * mapping.  Chunks are only decompressed and decoded when asked for.
+ * Results have the same shape as Dirty.fromTag.
+ *
+ * Instances are not thread safe; open one per thread.
+ */
+public final class RegionFile implements Closeable {
+    private static final int SECTOR = 4096;
+    /**
+     * The largest decompressed chunk we accept.  Vanilla chunks are
+     * far smaller.
+     */
+    private static final int MAX_CHUNK_SIZE = 64 << 20;
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int regionX;
+    private final int regionZ;
+
+    private RegionFile(final File file, final FileChannel channel, final MappedByteBuffer buffer,
+                       final int regionX, final int regionZ) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.regionX = regionX;
+        this.regionZ = regionZ;
+    }
+
+    /**
+     * Open a region file.  The region coordinates are taken from the
+     * file name.
+     */
+    public static RegionFile open(File file) throws IOException {
+        String[] parts = file.getName().split("\\.");
+        if (parts.length != 4 || !parts[0].equals("r") || !parts[3].equals("mca")) {
+            throw new IOException("Not a region file name: " + file);
+        }
+        int regionX;
+        int regionZ;
+        try {
+            regionX = Integer.parseInt(parts[1]);
+            regionZ = Integer.parseInt(parts[2]);
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Not a region file name: " + file);
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new RegionFile(file, channel, buffer, regionX, regionZ);
+        } catch (IOException ioe) {
+            channel.close();
+            throw ioe;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getRegionX() {
+        return regionX;
+    }
+
+    public int getRegionZ() {
+        return regionZ;
+    }
+
+    /**
+     * Check if a chunk is present.
+     * @param localX The chunk x within the region, 0 to 31.
+     * @param localZ The chunk z within the region, 0 to 31.
+     */
+    public boolean hasChunk(int localX, int localZ) {
+        return location(localX, localZ) != 0;
+    }
+
+    private int location(int localX, int localZ) {
+        if (localX < 0 || localX > 31 || localZ < 0 || localZ > 31) {
+            throw new IllegalArgumentException("Local chunk coords out of range: " + localX + "," + localZ);
+        }
+        int index = (localX + localZ * 32) * 4;
+        if (buffer.limit() < index + 4) return 0;
+        return buffer.getInt(index);
+    }
+
+    /**
+     * Decode a chunk.
+     * @return The root compound, or null if the chunk is absent or
+     * stored externally.
+     */
+    public Map<String, Object> readChunk(int localX, int localZ) throws IOException {
+        int location = location(localX, localZ);
+        if (location == 0) return null;
+        long sectorOffset = (long) (location >>> 8) * SECTOR;
+        if (sectorOffset + 5 > buffer.limit()) {
+            throw new IOException("Chunk out of bounds: " + localX + "," + localZ);
+        }
+        int offset = (int) sectorOffset;
+        int length = buffer.getInt(offset);
+        int compression = buffer.get(offset + 4);
+        if ((compression & 0x80) != 0) return null; // External .mcc file
+        if (length <= 1 || (long) offset + 4 + length > buffer.limit()) {
+            throw new IOException("Bad chunk length: " + localX + "," + localZ + ": " + length);
+        }
+        byte[] data = new byte[length - 1];
+        buffer.get(offset + 5, data);
+        InputStream raw = new ByteArrayInputStream(data);
+        InputStream in;
+        switch (compression) {
+        case 1: in = new GZIPInputStream(raw); break;
+        case 2: in = new InflaterInputStream(raw); break;
+        case 3: in = raw; break;
+        default: throw new IOException("Unknown compression: " + compression);
+        }
+        byte[] nbt;
+        try (InputStream closeable = in) {
+            nbt = closeable.readNBytes(MAX_CHUNK_SIZE + 1);
+        }
+        if (nbt.length > MAX_CHUNK_SIZE) {
+            throw new IOException("Chunk too large: " + localX + "," + localZ);
+        }
+        return RawNbtReader.readRoot(nbt);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,443 @@
+package com.cavetale.dirty;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import net.minecraft.core.BlockPosition;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+import net.minecraft.server.level.WorldServer;
+import net.minecraft.world.level.block.entity.TileEntity;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.NamespacedKey;
+import org.bukkit.Registry;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.craftbukkit.v1_19_R1.CraftWorld;
+import org.bukkit.craftbukkit.v1_19_R1.entity.CraftEntity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Pastes a RegionSnapshot into a world over several ticks.  See
+ * Dirty.pasteSnapshot.
+ *
+ * First, off-thread, the palette is parsed once and the work is
+ * grouped by target chunk: block positions and states, tile entity
+ * tags with their new coordinates, and entity tags with their new
+ * Pos and without UUID.  Optionally, the target box is captured at
+ * the same time, for undo.  Then the main thread applies one chunk
+ * after the other, bottom up, within a time budget per tick.  Blocks
+ * are set without physics, and blocks already in the right state are
+ * skipped.  Chunks are loaded asynchronously a few ahead and held
+ * with a plugin ticket while they are worked on.
+ *
+ * The progress callback runs on the main thread after every tick
+ * which got work done.  Cancelling stops the paste at the next tick,
+ * leaving it partly applied; the undo snapshot can restore it.  If
+ * the undo capture is still running, it is cancelled as well.
+ */
+public final class RegionPaste {
+    private static final int MAX_LOADING = 4;
+    private static final int CHECK_INTERVAL = 64;
+    private final Plugin plugin;
+    private final World world;
+    private final RegionSnapshot snapshot;
+    private final int destX;
+    private final int destY;
+    private final int destZ;
+    private final boolean withEntities;
+    private final long budgetNanos;
+    private final Consumer<RegionPaste> progress;
+    private final int minHeight;
+    private final int maxHeight;
+    private final CompletableFuture<RegionPaste> future = new CompletableFuture<>();
+    private final ArrayDeque<ChunkBatch> batches = new ArrayDeque<>();
+    private final List<UUID> spawnedEntities = new ArrayList<>();
+    private BlockData[] palette;
+    private ChunkBatch current;
+    private RegionSnapshot undo;
+    private BukkitTask task;
+    private int loading;
+    private long blocksTotal;
+    private long blocksDone;
+    private long blocksChanged;
+    private int chunksTotal;
+    private int chunksDone;
+    private int entitiesFailed;
+
+    /**
+     * The work for one target chunk.  Positions are packed as y << 8
+     * | (z & 15) << 4 | (x & 15), with world coordinates.
+     */
+    private static final class ChunkBatch {
+        private final int cx;
+        private final int cz;
+        private int[] positions = new int[256];
+        private int[] states = new int[256];
+        private int size;
+        private final Map<Integer, NBTTagCompound> tileEntities = new HashMap<>();
+        private final List<NBTTagCompound> entities = new ArrayList<>();
+        private int next;
+        private int nextEntity;
+        private boolean loadRequested;
+        private boolean ticket;
+        private boolean done;
+
+        ChunkBatch(final int cx, final int cz) {
+            this.cx = cx;
+            this.cz = cz;
+        }
+
+        void add(int position, int state) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+                states = Arrays.copyOf(states, size * 2);
+            }
+            positions[size] = position;
+            states[size] = state;
+            size += 1;
+        }
+    }
+
+    RegionPaste(final Plugin plugin, final RegionSnapshot snapshot, final World world,
+                final int destX, final int destY, final int destZ,
+                final boolean withEntities, final long budgetNanos, final Consumer<RegionPaste> progress) {
+        this.plugin = plugin;
+        this.world = world;
+        this.snapshot = snapshot;
+        this.destX = destX;
+        this.destY = destY;
+        this.destZ = destZ;
+        this.withEntities = withEntities;
+        this.budgetNanos = budgetNanos;
+        this.progress = progress;
+        this.minHeight = world.getMinHeight();
+        this.maxHeight = world.getMaxHeight();
+    }
+
+    /**
+     * Prepare off-thread, and capture the target for undo if asked,
+     * then start pasting.
+     */
+    void start(boolean captureUndo) {
+        CompletableFuture<List<ChunkBatch>> prepared = DirtyExecutor.supplyAsync(this::prepare);
+        CompletableFuture<RegionSnapshot> undoFuture = CompletableFuture.completedFuture(null);
+        if (captureUndo) {
+            SnapshotCapture capture = new SnapshotCapture(plugin, world, getBox(), false, budgetNanos);
+            capture.start();
+            undoFuture = capture.future;
+            future.whenComplete((done, throwable) -> {
+                    if (throwable != null) capture.future.cancel(false);
+                });
+        }
+        prepared.thenAcceptBoth(undoFuture, (list, undoSnapshot) -> {
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                        if (future.isDone()) return;
+                        undo = undoSnapshot;
+                        batches.addAll(list);
+                        chunksTotal = list.size();
+                        task = Bukkit.getScheduler().runTaskTimer(plugin, this::tick, 0L, 1L);
+                    });
+            }).exceptionally(throwable -> {
+                    future.completeExceptionally(throwable);
+                    return null;
+                });
+    }
+
+    private List<ChunkBatch> prepare() {
+        List<String> paletteStrings = snapshot.getPalette();
+        palette = new BlockData[paletteStrings.size()];
+        for (int i = 0; i < palette.length; i += 1) palette[i] = Bukkit.createBlockData(paletteStrings.get(i));
+        Box source = snapshot.getBox();
+        final int ox = source.min.get(0);
+        final int oy = source.min.get(1);
+        final int oz = source.min.get(2);
+        final int sizeX = snapshot.getSizeX();
+        final int sizeY = snapshot.getSizeY();
+        final int sizeZ = snapshot.getSizeZ();
+        Map<Long, ChunkBatch> byChunk = new HashMap<>();
+        for (RegionSnapshot.Section section : snapshot.getSections()) {
+            for (int index = 0; index < 4096; index += 1) {
+                final int rx = (section.x() << 4) + (index & 15) - ox;
+                final int ry = (section.y() << 4) + (index >> 8) - oy;
+                final int rz = (section.z() << 4) + ((index >> 4) & 15) - oz;
+                if (rx < 0 || rx >= sizeX || ry < 0 || ry >= sizeY || rz < 0 || rz >= sizeZ) continue;
+                final int x = destX + rx;
+                final int y = destY + ry;
+                final int z = destZ + rz;
+                if (y < minHeight || y >= maxHeight) continue;
+                batch(byChunk, x, z).add(y << 8 | (z & 15) << 4 | (x & 15), section.get(index));
+                blocksTotal += 1;
+            }
+        }
+        for (Map.Entry<Integer, NBTTagCompound> entry : snapshot.getBlockEntities().entrySet()) {
+            final int index = entry.getKey();
+            final int x = destX + index % sizeX;
+            final int y = destY + index / (sizeX * sizeZ);
+            final int z = destZ + (index / sizeX) % sizeZ;
+            if (y < minHeight || y >= maxHeight) continue;
+            NBTTagCompound tag = (NBTTagCompound) entry.getValue().c(); // copy
+            tag.a("x", NBTTagInt.a(x)); // set
+            tag.a("y", NBTTagInt.a(y)); // set
+            tag.a("z", NBTTagInt.a(z)); // set
+            batch(byChunk, x, z).tileEntities.put(y << 8 | (z & 15) << 4 | (x & 15), tag);
+        }
+        if (withEntities) {
+            for (NBTTagCompound entity : snapshot.getEntities()) {
+                if (!(entity.x.get("Pos") instanceof NBTTagList pos) || pos.size() != 3) continue;
+                if (!(pos.get(0) instanceof NBTTagDouble posX)
+                    || !(pos.get(1) instanceof NBTTagDouble posY)
+                    || !(pos.get(2) instanceof NBTTagDouble posZ)) {
+                    continue;
+                }
+                double[] xyz = {(double) posX.i(), (double) posY.i(), (double) posZ.i()}; // asDouble
+                NBTTagCompound tag = (NBTTagCompound) entity.c(); // copy
+                tag.x.remove("UUID");
+                NBTTagList newPos = new NBTTagList();
+                newPos.add(NBTTagDouble.a(xyz[0] + destX));
+                newPos.add(NBTTagDouble.a(xyz[1] + destY));
+                newPos.add(NBTTagDouble.a(xyz[2] + destZ));
+                tag.a("Pos", newPos); // set
+                batch(byChunk, (int) Math.floor(xyz[0] + destX), (int) Math.floor(xyz[2] + destZ)).entities.add(tag);
+            }
+        }
+        List<ChunkBatch> result = new ArrayList<>(byChunk.values());
+        result.sort((a, b) -> a.cz != b.cz ? Integer.compare(a.cz, b.cz) : Integer.compare(a.cx, b.cx));
+        return result;
+    }
+
+    private static ChunkBatch batch(Map<Long, ChunkBatch> byChunk, int x, int z) {
+        final int cx = x >> 4;
+        final int cz = z >> 4;
+        return byChunk.computeIfAbsent(((long) cz << 32) | (cx & 0xFFFFFFFFL), k -> new ChunkBatch(cx, cz));
+    }
+
+    private void tick() {
+        if (future.isDone()) {
+            stop();
+            return;
+        }
+        try {
+            requestLoads();
+            final long start = System.nanoTime();
+            boolean didWork = false;
+            while (System.nanoTime() - start < budgetNanos) {
+                if (current == null) {
+                    ChunkBatch batch = batches.peek();
+                    if (batch == null) break;
+                    if (!world.isChunkLoaded(batch.cx, batch.cz)) break; // Still loading
+                    current = batches.poll();
+                }
+                didWork = true;
+                if (apply(current, start)) {
+                    current.done = true;
+                    if (current.ticket) world.removePluginChunkTicket(current.cx, current.cz, plugin);
+                    current = null;
+                    chunksDone += 1;
+                }
+            }
+            if (didWork && progress != null) progress.accept(this);
+            if (current == null && batches.isEmpty()) {
+                stop();
+                future.complete(this);
+            }
+        } catch (RuntimeException re) {
+            stop();
+            future.completeExceptionally(re);
+        }
+    }
+
+    /**
+     * Load the next few chunks asynchronously.
+     */
+    private void requestLoads() {
+        Iterator<ChunkBatch> iter = batches.iterator();
+        for (int i = 0; i < MAX_LOADING && iter.hasNext(); i += 1) {
+            ChunkBatch batch = iter.next();
+            if (batch.loadRequested || loading >= MAX_LOADING) continue;
+            batch.loadRequested = true;
+            if (world.isChunkLoaded(batch.cx, batch.cz)) {
+                batch.ticket = world.addPluginChunkTicket(batch.cx, batch.cz, plugin);
+                continue;
+            }
+            loading += 1;
+            world.getChunkAtAsync(batch.cx, batch.cz).whenComplete((chunk, throwable) -> {
+                    loading -= 1;
+                    if (throwable != null) {
+                        future.completeExceptionally(throwable);
+                    } else if (!future.isDone() && !batch.done) {
+                        batch.ticket = chunk.addPluginChunkTicket(plugin);
+                    }
+                });
+        }
+    }
+
+    /**
+     * Apply part of a batch: blocks, then tile entities, then
+     * entities, until the budget of this tick is spent.
+     * @return true if the batch is done
+     */
+    private boolean apply(ChunkBatch batch, long start) {
+        final int baseX = batch.cx << 4;
+        final int baseZ = batch.cz << 4;
+        while (batch.next < batch.size) {
+            final int position = batch.positions[batch.next];
+            Block block = world.getBlockAt(baseX + (position & 15), position >> 8, baseZ + ((position >> 4) & 15));
+            BlockData blockData = palette[batch.states[batch.next]];
+            if (!block.getBlockData().equals(blockData)) {
+                block.setBlockData(blockData, false);
+                blocksChanged += 1;
+            }
+            batch.next += 1;
+            blocksDone += 1;
+            if (batch.next % CHECK_INTERVAL == 0 && System.nanoTime() - start >= budgetNanos) return false;
+        }
+        WorldServer worldServer = ((CraftWorld) world).getHandle();
+        Iterator<Map.Entry<Integer, NBTTagCompound>> tileEntities = batch.tileEntities.entrySet().iterator();
+        while (tileEntities.hasNext()) {
+            Map.Entry<Integer, NBTTagCompound> entry = tileEntities.next();
+            tileEntities.remove();
+            final int position = entry.getKey();
+            BlockPosition pos = new BlockPosition(baseX + (position & 15), position >> 8, baseZ + ((position >> 4) & 15));
+            TileEntity tileEntity = NmsAccess.getTileEntity(worldServer, pos);
+            if (tileEntity == null) continue;
+            NmsAccess.load(tileEntity, entry.getValue());
+            NmsAccess.setChanged(tileEntity);
+            if (System.nanoTime() - start >= budgetNanos) return false;
+        }
+        while (batch.nextEntity < batch.entities.size()) {
+            spawn(batch.entities.get(batch.nextEntity));
+            batch.entities.set(batch.nextEntity, null);
+            batch.nextEntity += 1;
+            if (System.nanoTime() - start >= budgetNanos) return false;
+        }
+        batch.entities.clear();
+        return true;
+    }
+
+    private void spawn(NBTTagCompound tag) {
+        EntityType entityType = tag.x.get("id") instanceof NBTTagString id
+            ? Registry.ENTITY_TYPE.get(NamespacedKey.fromString((String) id.e_())) // asString
+            : null;
+        if (entityType == null || entityType.getEntityClass() == null || !entityType.isSpawnable()) {
+            entitiesFailed += 1;
+            return;
+        }
+        NBTTagList pos = (NBTTagList) tag.x.get("Pos");
+        Location location = new Location(world,
+                                         (double) ((NBTTagDouble) pos.get(0)).i(), // asDouble
+                                         (double) ((NBTTagDouble) pos.get(1)).i(), // asDouble
+                                         (double) ((NBTTagDouble) pos.get(2)).i()); // asDouble
+        try {
+            org.bukkit.entity.Entity entity = world.spawn(location, entityType.getEntityClass(), e -> {
+                    NmsAccess.load(((CraftEntity) e).getHandle(), tag);
+                });
+            spawnedEntities.add(entity.getUniqueId());
+        } catch (IllegalArgumentException iae) {
+            entitiesFailed += 1;
+        }
+    }
+
+    private void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        Set<ChunkBatch> held = new HashSet<>(batches);
+        if (current != null) held.add(current);
+        for (ChunkBatch batch : held) {
+            if (batch.ticket) world.removePluginChunkTicket(batch.cx, batch.cz, plugin);
+            batch.ticket = false;
+        }
+        batches.clear();
+        current = null;
+    }
+
+    /**
+     * Stop at the next tick.  The future completes exceptionally with
+     * a CancellationException.
+     */
+    public void cancel() {
+        future.cancel(false);
+    }
+
+    /**
+     * Completes with this paste on the main thread when it is done.
+     */
+    public CompletableFuture<RegionPaste> getFuture() {
+        return future;
+    }
+
+    /**
+     * The box being pasted into.
+     */
+    public Box getBox() {
+        return new Box(List.of(destX, destY, destZ),
+                       List.of(destX + snapshot.getSizeX() - 1,
+                               destY + snapshot.getSizeY() - 1,
+                               destZ + snapshot.getSizeZ() - 1));
+    }
+
+    /**
+     * The target box as it was before pasting, or null if undo was
+     * not requested or is not captured yet.  Paste it to undo.
+     * Entities are not part of it; see getSpawnedEntities.
+     */
+    public RegionSnapshot getUndo() {
+        return undo;
+    }
+
+    public List<UUID> getSpawnedEntities() {
+        return spawnedEntities;
+    }
+
+    public long getBlocksTotal() {
+        return blocksTotal;
+    }
+
+    public long getBlocksDone() {
+        return blocksDone;
+    }
+
+    /**
+     * Blocks which were not already in the pasted state.
+     */
+    public long getBlocksChanged() {
+        return blocksChanged;
+    }
+
+    public int getChunksTotal() {
+        return chunksTotal;
+    }
+
+    public int getChunksDone() {
+        return chunksDone;
+    }
+
+    public int getEntitiesFailed() {
+        return entitiesFailed;
+    }
+
+    /**
+     * Progress from 0 to 1, by blocks.
+     */
+    public double getProgress() {
+        return blocksTotal == 0 ? (future.isDone() ? 1.0 : 0.0) : (double) blocksDone / (double) blocksTotal;
+    }
+}
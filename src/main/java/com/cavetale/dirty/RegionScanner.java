@@ -0,0 +1,211 @@
+package com.cavetale.dirty;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+
+/**
+ * Scan the region files of a world folder offline, in parallel, and
+ * extract the same shapes Dirty produces for loaded chunks.
+ *
+ * Structure names match Dirty.getStructures, which names structures
+ * after their class, such as "jigsaw" for all villages.  Offline only
+ * the structure id is known, so vanilla ids are mapped to their class
+ * names.  Unknown ids, such as those of data packs, keep their path.
+ */
+public final class RegionScanner {
+    /**
+     * Class based names by vanilla structure id.
+     */
+    private static final Map<String, String> STRUCTURE_NAMES = new HashMap<>();
+
+    static {
+        names("jigsaw", "pillager_outpost", "bastion_remnant", "ancient_city", "village_plains",
+              "village_desert", "village_savanna", "village_snowy", "village_taiga");
+        names("mineshaft", "mineshaft", "mineshaft_mesa");
+        names("woodland_mansion", "mansion");
+        names("jungle_temple", "jungle_pyramid");
+        names("desert_pyramid", "desert_pyramid");
+        names("igloo", "igloo");
+        names("shipwreck", "shipwreck", "shipwreck_beached");
+        names("swamp_hut", "swamp_hut");
+        names("stronghold", "stronghold");
+        names("ocean_monument", "monument");
+        names("ocean_ruin", "ocean_ruin_cold", "ocean_ruin_warm");
+        names("nether_fortress", "fortress");
+        names("nether_fossil", "nether_fossil");
+        names("end_city", "end_city");
+        names("buried_treasure", "buried_treasure");
+        names("ruined_portal", "ruined_portal", "ruined_portal_desert", "ruined_portal_jungle",
+              "ruined_portal_swamp", "ruined_portal_mountain", "ruined_portal_ocean", "ruined_portal_nether");
+    }
+
+    private RegionScanner() { }
+
+    private static void names(String name, String... ids) {
+        for (String id : ids) STRUCTURE_NAMES.put(id, name);
+    }
+
+    /**
+     * Receives decoded chunks.  Called concurrently from several
+     * threads.
+     */
+    @FunctionalInterface
+    public interface ChunkConsumer {
+        void accept(int chunkX, int chunkZ, Map<String, Object> chunk);
+    }
+
+    /**
+     * List the region files of a world.
+     * @param worldFolder The world folder.
+     * @param kind "region" for terrain, "entities" for entities.
+     */
+    public static List<File> regionFiles(File worldFolder, String kind) {
+        File[] files = new File(worldFolder, kind).listFiles((dir, name) -> name.endsWith(".mca"));
+        if (files == null) return List.of();
+        Arrays.sort(files);
+        return List.of(files);
+    }
+
+    /**
+     * Decode every chunk of every file, spread over a fork-join pool.
+     * Returns when all files are done.
+     *
+     * @param files The region files.
+     * @param parallelism The number of threads.
+     * @param consumer Receives each chunk.
+     * @param errorHandler Receives files or chunks that failed.
+     */
+    public static void scan(List<File> files, int parallelism, ChunkConsumer consumer,
+                            BiConsumer<File, Exception> errorHandler) {
+        if (files.isEmpty()) return;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new ScanTask(files, 0, files.size(), consumer, errorHandler));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void scanFile(File file, ChunkConsumer consumer, BiConsumer<File, Exception> errorHandler) {
+        try (RegionFile regionFile = RegionFile.open(file)) {
+            int baseX = regionFile.getRegionX() << 5;
+            int baseZ = regionFile.getRegionZ() << 5;
+            for (int z = 0; z < 32; z += 1) {
+                for (int x = 0; x < 32; x += 1) {
+                    if (!regionFile.hasChunk(x, z)) continue;
+                    Map<String, Object> chunk;
+                    try {
+                        chunk = regionFile.readChunk(x, z);
+                    } catch (IOException | RuntimeException e) {
+                        errorHandler.accept(file, new IOException("Chunk " + x + "," + z + ": " + e.getMessage(), e));
+                        continue;
+                    }
+                    if (chunk != null) consumer.accept(baseX + x, baseZ + z, chunk);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            errorHandler.accept(file, e);
+        }
+    }
+
+    private static final class ScanTask extends RecursiveAction {
+        private final List<File> files;
+        private final int from;
+        private final int to;
+        private final ChunkConsumer consumer;
+        private final BiConsumer<File, Exception> errorHandler;
+
+        ScanTask(final List<File> files, final int from, final int to,
+                 final ChunkConsumer consumer, final BiConsumer<File, Exception> errorHandler) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+            this.consumer = consumer;
+            this.errorHandler = errorHandler;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                scanFile(files.get(from), consumer, errorHandler);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ScanTask(files, from, mid, consumer, errorHandler),
+                      new ScanTask(files, mid, to, consumer, errorHandler));
+        }
+    }
+
+    /**
+     * Extract the structure starts of a terrain chunk.
+     */
+    public static List<Structure> structuresOf(Map<String, Object> chunk) {
+        if (!(chunk.get("structures") instanceof Map<?, ?> structures)) return List.of();
+        if (!(structures.get("starts") instanceof Map<?, ?> starts)) return List.of();
+        List<Structure> result = new ArrayList<>();
+        for (Map.Entry<?, ?> entry : starts.entrySet()) {
+            if (!(entry.getValue() instanceof Map<?, ?> start)) continue;
+            if ("INVALID".equals(start.get("id"))) continue;
+            if (!(start.get("Children") instanceof List<?> children) || children.isEmpty()) continue;
+            List<Box> pieces = new ArrayList<>(children.size());
+            int[] bounds = null;
+            for (Object child : children) {
+                if (!(child instanceof Map<?, ?> childMap)) continue;
+                if (!(childMap.get("BB") instanceof int[] bb) || bb.length != 6) continue;
+                pieces.add(new Box(List.of(bb[0], bb[1], bb[2]), List.of(bb[3], bb[4], bb[5])));
+                if (bounds == null) {
+                    bounds = bb.clone();
+                } else {
+                    for (int i = 0; i < 3; i += 1) {
+                        bounds[i] = Math.min(bounds[i], bb[i]);
+                        bounds[i + 3] = Math.max(bounds[i + 3], bb[i + 3]);
+                    }
+                }
+            }
+            if (bounds == null) continue;
+            Box box = new Box(List.of(bounds[0], bounds[1], bounds[2]), List.of(bounds[3], bounds[4], bounds[5]));
+            result.add(new Structure(structureName(entry.getKey().toString()), box, pieces));
+        }
+        return result;
+    }
+
+    /**
+     * Get the name Dirty.getStructures would give a structure id.
+     */
+    static String structureName(String id) {
+        String path = id.startsWith("minecraft:") ? id.substring(10) : id;
+        return STRUCTURE_NAMES.getOrDefault(path, path);
+    }
+
+    /**
+     * Extract the tile entity tags of a terrain chunk.
+     */
+    public static List<Map<String, Object>> blockEntitiesOf(Map<String, Object> chunk) {
+        return compoundList(chunk.get("block_entities"));
+    }
+
+    /**
+     * Extract the entity tags of an entity chunk.
+     */
+    public static List<Map<String, Object>> entitiesOf(Map<String, Object> chunk) {
+        return compoundList(chunk.get("Entities"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> compoundList(Object value) {
+        if (!(value instanceof List<?> list)) return List.of();
+        List<Map<String, Object>> result = new ArrayList<>(list.size());
+        for (Object it : list) {
+            if (it instanceof Map<?, ?> map) result.add((Map<String, Object>) map);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,344 @@
+package com.cavetale.dirty;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import net.minecraft.nbt.NBTTagCompound;
+
+/**
+ * The blocks, tile entities, and optionally the entities within a
+ * box, captured for copying elsewhere.  See Dirty.captureSnapshot.
+ *
+ * Block states are stored once in a palette.  The volume is split
+ * into 16x16x16 sections, aligned to the chunk grid of the source
+ * world, which only cover the box.  Each section maps its own small
+ * palette onto the global one and stores one index per block,
+ * bit-packed into a long[] with as few bits as its palette needs, no
+ * index spanning two longs.  A section of a single state, such as
+ * air, stores no indices at all.
+ *
+ * Tile entities are keyed by their packed position within the box,
+ * x + sizeX * (z + sizeZ * y), and have no x, y, z keys.  Entities
+ * have their Pos relative to the box.
+ *
+ * The binary container is the magic "DRS" and a version byte,
+ * followed by a deflated body: the box, the palette, the sections,
+ * and the tile entities and entities in the NbtBinary format.
+ *
+ * Instances are immutable once made.  Tags handed out must not be
+ * modified.
+ */
+public final class RegionSnapshot {
+    private static final byte[] MAGIC = {'D', 'R', 'S'};
+    private static final int VERSION = 1;
+    private final int originX;
+    private final int originY;
+    private final int originZ;
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    private final List<String> palette;
+    private final List<Section> sections;
+    private final Map<Long, Section> sectionMap = new HashMap<>();
+    private final Map<Integer, NBTTagCompound> blockEntities;
+    private final List<NBTTagCompound> entities;
+
+    /**
+     * One 16x16x16 section.  Coordinates are section coordinates in
+     * the source world.  The palette maps local indices to global
+     * ones.  With 0 bits, data is null and every block is palette[0].
+     */
+    record Section(int x, int y, int z, int[] palette, int bits, long[] data) {
+        /**
+         * Get the global palette index of a block.
+         * @param index (y & 15) << 8 | (z & 15) << 4 | (x & 15)
+         */
+        int get(int index) {
+            return palette[local(index)];
+        }
+
+        /**
+         * Get the index of a block into the section palette.
+         */
+        int local(int index) {
+            if (bits == 0) return 0;
+            final int perLong = 64 / bits;
+            long word = data[index / perLong];
+            return (int) (word >>> ((index % perLong) * bits)) & ((1 << bits) - 1);
+        }
+    }
+
+    RegionSnapshot(final int originX, final int originY, final int originZ,
+                   final int sizeX, final int sizeY, final int sizeZ,
+                   final List<String> palette, final List<Section> sections,
+                   final Map<Integer, NBTTagCompound> blockEntities, final List<NBTTagCompound> entities) {
+        this.originX = originX;
+        this.originY = originY;
+        this.originZ = originZ;
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = sizeZ;
+        this.palette = Collections.unmodifiableList(palette);
+        this.sections = Collections.unmodifiableList(sections);
+        this.blockEntities = Collections.unmodifiableMap(new TreeMap<>(blockEntities));
+        this.entities = Collections.unmodifiableList(entities);
+        for (Section section : sections) {
+            sectionMap.put(sectionKey(section.x, section.y, section.z), section);
+        }
+    }
+
+    static long sectionKey(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFF) << 34) | ((long) (z & 0x3FFFFF) << 12) | (y & 0xFFF);
+    }
+
+    /**
+     * Bits needed to index a palette, 0 for a single entry.
+     */
+    static int bitsFor(int paletteSize) {
+        return paletteSize <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(paletteSize - 1);
+    }
+
+    /**
+     * Pack 4096 indices, see Section.
+     */
+    static long[] pack(int[] values, int bits) {
+        if (bits == 0) return null;
+        final int perLong = 64 / bits;
+        long[] result = new long[(values.length + perLong - 1) / perLong];
+        for (int i = 0; i < values.length; i += 1) {
+            result[i / perLong] |= (long) values[i] << ((i % perLong) * bits);
+        }
+        return result;
+    }
+
+    /**
+     * The box in the source world.
+     */
+    public Box getBox() {
+        return new Box(List.of(originX, originY, originZ),
+                       List.of(originX + sizeX - 1, originY + sizeY - 1, originZ + sizeZ - 1));
+    }
+
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    public int getSizeZ() {
+        return sizeZ;
+    }
+
+    /**
+     * The distinct block states, as in BlockData::getAsString.
+     */
+    public List<String> getPalette() {
+        return palette;
+    }
+
+    List<Section> getSections() {
+        return sections;
+    }
+
+    /**
+     * Get a block state.
+     * @param x The x coordinate relative to the box, 0 to sizeX - 1.
+     * @param y The y coordinate relative to the box.
+     * @param z The z coordinate relative to the box.
+     * @return The state as in BlockData::getAsString, or null if the
+     * position was not captured, such as in an unloaded chunk.
+     * @throws IllegalArgumentException if the position is outside
+     */
+    public String getBlockData(int x, int y, int z) {
+        index(x, y, z);
+        int wx = originX + x;
+        int wy = originY + y;
+        int wz = originZ + z;
+        Section section = sectionMap.get(sectionKey(wx >> 4, wy >> 4, wz >> 4));
+        if (section == null) return null;
+        return palette.get(section.get((wy & 15) << 8 | (wz & 15) << 4 | (wx & 15)));
+    }
+
+    /**
+     * The packed position of a block relative to the box, as used by
+     * getBlockEntities.
+     * @throws IllegalArgumentException if the position is outside
+     */
+    public int index(int x, int y, int z) {
+        if (x < 0 || x >= sizeX || y < 0 || y >= sizeY || z < 0 || z >= sizeZ) {
+            throw new IllegalArgumentException("RegionSnapshot.index: Out of bounds: " + x + "," + y + "," + z);
+        }
+        return x + sizeX * (z + sizeZ * y);
+    }
+
+    /**
+     * Tile entities by packed position, in ascending order.
+     */
+    public Map<Integer, NBTTagCompound> getBlockEntities() {
+        return blockEntities;
+    }
+
+    /**
+     * Entities with Pos relative to the box.  Empty unless entities
+     * were captured.
+     */
+    public List<NBTTagCompound> getEntities() {
+        return entities;
+    }
+
+    /**
+     * Write the binary container.  The stream is not closed.
+     */
+    public void write(OutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater, 1 << 16);
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(deflaterOut, 1 << 16));
+            data.writeInt(originX);
+            data.writeInt(originY);
+            data.writeInt(originZ);
+            data.writeInt(sizeX);
+            data.writeInt(sizeY);
+            data.writeInt(sizeZ);
+            data.writeInt(palette.size());
+            for (String state : palette) data.writeUTF(state);
+            data.writeInt(sections.size());
+            for (Section section : sections) {
+                data.writeInt(section.x);
+                data.writeInt(section.y);
+                data.writeInt(section.z);
+                data.writeShort(section.palette.length);
+                for (int index : section.palette) data.writeInt(index);
+                data.writeByte(section.bits);
+                if (section.bits == 0) continue;
+                data.writeShort(section.data.length);
+                for (long word : section.data) data.writeLong(word);
+            }
+            data.writeInt(blockEntities.size());
+            for (int index : blockEntities.keySet()) data.writeInt(index);
+            writeBlob(data, NbtBinary.encode(new ArrayList<>(blockEntities.values()), false));
+            writeBlob(data, NbtBinary.encode(entities, false));
+            data.flush();
+            deflaterOut.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeBlob(DataOutputStream data, byte[] blob) throws IOException {
+        data.writeInt(blob.length);
+        data.write(blob);
+    }
+
+    /**
+     * Read the binary container written by write.  The stream is
+     * buffered, so it may be read past the container, and is not
+     * closed.
+     * @throws IOException if the data is malformed
+     */
+    public static RegionSnapshot read(InputStream in) throws IOException {
+        byte[] header = in.readNBytes(MAGIC.length + 1);
+        if (header.length != MAGIC.length + 1
+            || header[0] != MAGIC[0] || header[1] != MAGIC[1] || header[2] != MAGIC[2]) {
+            throw new IOException("RegionSnapshot.read: Bad magic");
+        }
+        if (header[3] != VERSION) throw new IOException("RegionSnapshot.read: Unsupported version: " + header[3]);
+        DataInputStream data = new DataInputStream(new BufferedInputStream(new InflaterInputStream(in), 1 << 16));
+        try {
+            int originX = data.readInt();
+            int originY = data.readInt();
+            int originZ = data.readInt();
+            int sizeX = data.readInt();
+            int sizeY = data.readInt();
+            int sizeZ = data.readInt();
+            if (sizeX <= 0 || sizeY <= 0 || sizeZ <= 0 || (long) sizeX * sizeY * sizeZ > Integer.MAX_VALUE) {
+                throw new IOException("RegionSnapshot.read: Bad size: " + sizeX + "," + sizeY + "," + sizeZ);
+            }
+            int paletteSize = data.readInt();
+            List<String> palette = new ArrayList<>(Math.min(paletteSize, 4096));
+            for (int i = 0; i < paletteSize; i += 1) palette.add(data.readUTF());
+            int sectionCount = data.readInt();
+            List<Section> sections = new ArrayList<>(Math.min(sectionCount, 4096));
+            for (int i = 0; i < sectionCount; i += 1) {
+                int x = data.readInt();
+                int y = data.readInt();
+                int z = data.readInt();
+                int[] sectionPalette = new int[data.readUnsignedShort()];
+                for (int j = 0; j < sectionPalette.length; j += 1) {
+                    sectionPalette[j] = data.readInt();
+                    if (sectionPalette[j] < 0 || sectionPalette[j] >= paletteSize) {
+                        throw new IOException("RegionSnapshot.read: Bad palette index: " + sectionPalette[j]);
+                    }
+                }
+                int bits = data.readUnsignedByte();
+                if (sectionPalette.length == 0 || bits != bitsFor(sectionPalette.length)) {
+                    throw new IOException("RegionSnapshot.read: Bad section palette");
+                }
+                long[] words = null;
+                if (bits > 0) {
+                    words = new long[data.readUnsignedShort()];
+                    if (words.length != (4096 + 64 / bits - 1) / (64 / bits)) {
+                        throw new IOException("RegionSnapshot.read: Bad section length: " + words.length);
+                    }
+                    for (int j = 0; j < words.length; j += 1) words[j] = data.readLong();
+                }
+                Section section = new Section(x, y, z, sectionPalette, bits, words);
+                for (int j = 0; j < 4096; j += 1) {
+                    int local = section.local(j);
+                    if (local >= sectionPalette.length) {
+                        throw new IOException("RegionSnapshot.read: Bad block index: " + local);
+                    }
+                }
+                sections.add(section);
+            }
+            final int volume = sizeX * sizeY * sizeZ;
+            int indexCount = data.readInt();
+            if (indexCount < 0 || indexCount > volume) {
+                throw new IOException("RegionSnapshot.read: Bad tile entity count: " + indexCount);
+            }
+            int[] indexes = new int[indexCount];
+            for (int i = 0; i < indexes.length; i += 1) {
+                indexes[i] = data.readInt();
+                if (indexes[i] < 0 || indexes[i] >= volume) {
+                    throw new IOException("RegionSnapshot.read: Bad tile entity index: " + indexes[i]);
+                }
+            }
+            List<NBTTagCompound> blockEntityTags = NbtBinary.decode(readBlob(data));
+            if (blockEntityTags.size() != indexes.length) {
+                throw new IOException("RegionSnapshot.read: Tile entity count mismatch");
+            }
+            Map<Integer, NBTTagCompound> blockEntities = new HashMap<>();
+            for (int i = 0; i < indexes.length; i += 1) blockEntities.put(indexes[i], blockEntityTags.get(i));
+            List<NBTTagCompound> entities = NbtBinary.decode(readBlob(data));
+            return new RegionSnapshot(originX, originY, originZ, sizeX, sizeY, sizeZ,
+                                      palette, sections, blockEntities, entities);
+        } catch (IllegalArgumentException iae) {
+            throw new IOException("RegionSnapshot.read: " + iae.getMessage(), iae);
+        }
+    }
+
+    private static byte[] readBlob(DataInputStream data) throws IOException {
+        int length = data.readInt();
+        if (length < 0) throw new IOException("RegionSnapshot.read: Bad length: " + length);
+        byte[] result = data.readNBytes(length);
+        if (result.length != length) throw new IOException("RegionSnapshot.read: Unexpected end");
+        return result;
+    }
+}
@@ -0,0 +1,12 @@
+package com.cavetale.dirty;
+
+/**
+ * The owner id and texture value of a player head, as passed to
+ * Dirty.makeSkull.
+ */
+public record SkullTexture(String id, String texture) {
+    public SkullTexture {
+        if (id == null) throw new NullPointerException("id cannot be null");
+        if (texture == null) throw new NullPointerException("texture cannot be null");
+    }
+}
@@ -0,0 +1,272 @@
+package com.cavetale.dirty;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Captures a RegionSnapshot over several ticks.
+ *
+ * The main thread takes a ChunkSnapshot of each chunk in the box,
+ * plus its tile entity and entity tags, within a time budget per
+ * tick.  Chunks which are not loaded are loaded asynchronously and
+ * held with a plugin ticket until captured, but their entities may
+ * not be loaded yet and then go missing.  Each chunk is then
+ * encoded into packed sections on the DirtyExecutor, and a last step
+ * merges the section palettes into the global one.  At most
+ * MAX_PENDING chunks wait to be encoded, so the executor's queue
+ * never fills up.
+ *
+ * Cancelling the future stops the capture at the next tick.
+ */
+final class SnapshotCapture {
+    private static final int MAX_LOADING = 8;
+    private static final int MAX_PENDING = 64;
+    private final Plugin plugin;
+    private final World world;
+    private final Box box;
+    private final boolean withEntities;
+    private final long budgetNanos;
+    private final ArrayDeque<long[]> chunks = new ArrayDeque<>();
+    private final ArrayDeque<Chunk> loaded = new ArrayDeque<>();
+    private final List<CompletableFuture<Part>> parts = new ArrayList<>();
+    private final Map<Integer, NBTTagCompound> blockEntities = new HashMap<>();
+    private final List<NBTTagCompound> entities = new ArrayList<>();
+    final CompletableFuture<RegionSnapshot> future = new CompletableFuture<>();
+    private final int minY;
+    private final int maxY;
+    private final AtomicInteger pending = new AtomicInteger();
+    private int loading;
+    private BukkitTask task;
+
+    /**
+     * The sections of one chunk, with palettes of their own.
+     */
+    private record LocalSection(int x, int y, int z, String[] palette, int bits, long[] data) { }
+
+    private record Part(List<LocalSection> sections) { }
+
+    SnapshotCapture(final Plugin plugin, final World world, final Box box,
+                    final boolean withEntities, final long budgetNanos) {
+        this.plugin = plugin;
+        this.world = world;
+        this.box = box;
+        this.withEntities = withEntities;
+        this.budgetNanos = budgetNanos;
+        this.minY = Math.max(world.getMinHeight(), box.min.get(1));
+        this.maxY = Math.min(world.getMaxHeight() - 1, box.max.get(1));
+        long volume = (long) (box.max.get(0) - box.min.get(0) + 1)
+            * (long) (box.max.get(1) - box.min.get(1) + 1)
+            * (long) (box.max.get(2) - box.min.get(2) + 1);
+        if (volume <= 0 || volume > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("SnapshotCapture: Bad volume: " + box);
+        }
+        for (int cz = box.min.get(2) >> 4; cz <= box.max.get(2) >> 4; cz += 1) {
+            for (int cx = box.min.get(0) >> 4; cx <= box.max.get(0) >> 4; cx += 1) {
+                chunks.add(new long[] {cx, cz});
+            }
+        }
+    }
+
+    void start() {
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::tick, 0L, 1L);
+    }
+
+    private void tick() {
+        if (future.isDone()) {
+            stop();
+            return;
+        }
+        try {
+            final long start = System.nanoTime();
+            while (System.nanoTime() - start < budgetNanos && pending.get() < MAX_PENDING) {
+                Chunk chunk = loaded.poll();
+                if (chunk != null) {
+                    capture(chunk);
+                    chunk.removePluginChunkTicket(plugin);
+                    continue;
+                }
+                long[] coords = chunks.peek();
+                if (coords == null) break;
+                final int cx = (int) coords[0];
+                final int cz = (int) coords[1];
+                if (world.isChunkLoaded(cx, cz)) {
+                    chunks.poll();
+                    capture(world.getChunkAt(cx, cz));
+                } else if (loading < MAX_LOADING) {
+                    chunks.poll();
+                    loading += 1;
+                    world.getChunkAtAsync(cx, cz).whenComplete((c, throwable) -> {
+                            loading -= 1;
+                            if (throwable != null) {
+                                future.completeExceptionally(throwable);
+                            } else if (!future.isDone()) {
+                                c.addPluginChunkTicket(plugin);
+                                loaded.add(c);
+                            }
+                        });
+                } else {
+                    break;
+                }
+            }
+            if (chunks.isEmpty() && loaded.isEmpty() && loading == 0) {
+                stop();
+                finish();
+            }
+        } catch (RuntimeException re) {
+            future.completeExceptionally(re);
+            stop();
+        }
+    }
+
+    private void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        for (Chunk chunk : loaded) chunk.removePluginChunkTicket(plugin);
+        loaded.clear();
+        chunks.clear();
+    }
+
+    /**
+     * Capture one chunk on the main thread and encode it off-thread.
+     */
+    private void capture(Chunk chunk) {
+        ChunkSnapshot snapshot = chunk.getChunkSnapshot(false, false, false);
+        final int ox = box.min.get(0);
+        final int oy = box.min.get(1);
+        final int oz = box.min.get(2);
+        final int sizeX = box.max.get(0) - ox + 1;
+        final int sizeZ = box.max.get(2) - oz + 1;
+        for (Map.Entry<Block, NBTTagCompound> entry : Dirty.getBlockNbts0(chunk, null).entrySet()) {
+            Block block = entry.getKey();
+            if (!box.contains(block.getX(), block.getY(), block.getZ())) continue;
+            NBTTagCompound tag = entry.getValue();
+            tag.x.remove("x");
+            tag.x.remove("y");
+            tag.x.remove("z");
+            int index = (block.getX() - ox) + sizeX * ((block.getZ() - oz) + sizeZ * (block.getY() - oy));
+            blockEntities.put(index, tag);
+        }
+        if (withEntities) {
+            for (Entity entity : chunk.getEntities()) {
+                if (entity instanceof Player || !entity.isValid()) continue;
+                if (!box.contains(entity.getLocation().getBlockX(),
+                                  entity.getLocation().getBlockY(),
+                                  entity.getLocation().getBlockZ())) {
+                    continue;
+                }
+                NBTTagCompound tag = Dirty.getEntityNbt0(entity);
+                tag.a("id", NBTTagString.a(entity.getType().getKey().toString())); // set
+                NBTTagList pos = new NBTTagList();
+                pos.add(NBTTagDouble.a(entity.getLocation().getX() - ox));
+                pos.add(NBTTagDouble.a(entity.getLocation().getY() - oy));
+                pos.add(NBTTagDouble.a(entity.getLocation().getZ() - oz));
+                tag.a("Pos", pos); // set
+                entities.add(tag);
+            }
+        }
+        final int cx = chunk.getX();
+        final int cz = chunk.getZ();
+        pending.incrementAndGet();
+        CompletableFuture<Part> part = DirtyExecutor.supplyAsync(() -> encode(snapshot, cx, cz));
+        part.whenComplete((done, throwable) -> {
+                pending.decrementAndGet();
+                if (throwable != null) future.completeExceptionally(throwable);
+            });
+        parts.add(part);
+    }
+
+    /**
+     * Encode the sections of one chunk within the box.  Blocks
+     * outside the box are left at index 0.
+     */
+    private Part encode(ChunkSnapshot snapshot, int cx, int cz) {
+        final int x0 = Math.max(box.min.get(0), cx << 4);
+        final int x1 = Math.min(box.max.get(0), (cx << 4) + 15);
+        final int z0 = Math.max(box.min.get(2), cz << 4);
+        final int z1 = Math.min(box.max.get(2), (cz << 4) + 15);
+        List<LocalSection> result = new ArrayList<>();
+        int[] indexes = new int[4096];
+        Map<BlockData, Integer> localIndex = new HashMap<>();
+        List<String> localPalette = new ArrayList<>();
+        for (int sy = minY >> 4; sy <= maxY >> 4; sy += 1) {
+            final int y0 = Math.max(minY, sy << 4);
+            final int y1 = Math.min(maxY, (sy << 4) + 15);
+            Arrays.fill(indexes, 0);
+            localIndex.clear();
+            localPalette.clear();
+            for (int y = y0; y <= y1; y += 1) {
+                for (int z = z0; z <= z1; z += 1) {
+                    for (int x = x0; x <= x1; x += 1) {
+                        BlockData blockData = snapshot.getBlockData(x & 15, y, z & 15);
+                        Integer index = localIndex.get(blockData);
+                        if (index == null) {
+                            index = localPalette.size();
+                            localIndex.put(blockData, index);
+                            localPalette.add(blockData.getAsString());
+                        }
+                        indexes[(y & 15) << 8 | (z & 15) << 4 | (x & 15)] = index;
+                    }
+                }
+            }
+            int bits = RegionSnapshot.bitsFor(localPalette.size());
+            result.add(new LocalSection(cx, sy, cz, localPalette.toArray(new String[0]), bits,
+                                        RegionSnapshot.pack(indexes, bits)));
+        }
+        return new Part(result);
+    }
+
+    /**
+     * Wait for all chunks to be encoded, then merge them off-thread.
+     */
+    private void finish() {
+        CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenRunAsync(() -> {
+                Map<String, Integer> palette = new LinkedHashMap<>();
+                List<LocalSection> localSections = new ArrayList<>();
+                for (CompletableFuture<Part> part : parts) localSections.addAll(part.join().sections());
+                localSections.sort(Comparator.comparingInt(LocalSection::y)
+                                   .thenComparingInt(LocalSection::z)
+                                   .thenComparingInt(LocalSection::x));
+                List<RegionSnapshot.Section> sections = new ArrayList<>(localSections.size());
+                for (LocalSection local : localSections) {
+                    int[] globalIndexes = new int[local.palette().length];
+                    for (int i = 0; i < globalIndexes.length; i += 1) {
+                        globalIndexes[i] = palette.computeIfAbsent(local.palette()[i], k -> palette.size());
+                    }
+                    sections.add(new RegionSnapshot.Section(local.x(), local.y(), local.z(),
+                                                            globalIndexes, local.bits(), local.data()));
+                }
+                future.complete(new RegionSnapshot(box.min.get(0), box.min.get(1), box.min.get(2),
+                                                   box.max.get(0) - box.min.get(0) + 1,
+                                                   box.max.get(1) - box.min.get(1) + 1,
+                                                   box.max.get(2) - box.min.get(2) + 1,
+                                                   new ArrayList<>(palette.keySet()), sections,
+                                                   blockEntities, entities));
+            }, DirtyExecutor.get()).exceptionally(throwable -> {
+                    future.completeExceptionally(throwable);
+                    return null;
+                });
+    }
+}
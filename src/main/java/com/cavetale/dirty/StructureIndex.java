@@ -0,0 +1,202 @@
+package com.cavetale.dirty;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+/**
+ * Index of all structures seen in one world.  Structure starts are
+ * ingested as their chunks load, deduplicated, and stored in a grid
+ * of chunk cells, so point and box queries only look at the few
+ * structures overlapping the cells in question.
+ *
+ * The index is meant to be used from the main thread.
+ */
+public final class StructureIndex {
+    private static final Gson GSON = new Gson();
+    private static final Map<String, StructureIndex> WORLDS = new ConcurrentHashMap<>();
+    private final String worldName;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final Map<Long, List<Entry>> grid = new HashMap<>();
+    private boolean dirty;
+
+    private StructureIndex(final String worldName) {
+        this.worldName = worldName;
+    }
+
+    /**
+     * Get the index of a world, creating an empty one if necessary.
+     */
+    public static StructureIndex of(World world) {
+        return WORLDS.computeIfAbsent(world.getName(), StructureIndex::new);
+    }
+
+    static StructureIndex remove(World world) {
+        return WORLDS.remove(world.getName());
+    }
+
+    static List<StructureIndex> all() {
+        return new ArrayList<>(WORLDS.values());
+    }
+
+    public String getWorldName() {
+        return worldName;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Add structures to the index.  Structures already known by name
+     * and bounding box are ignored.
+     */
+    public void ingest(List<Structure> structures) {
+        for (Structure structure : structures) {
+            Box bb = structure.bb;
+            String key = structure.name + ":" + bb.min + ":" + bb.max;
+            if (entries.containsKey(key)) continue;
+            Entry entry = new Entry(structure);
+            entries.put(key, entry);
+            for (int cz = entry.minZ >> 4; cz <= entry.maxZ >> 4; cz += 1) {
+                for (int cx = entry.minX >> 4; cx <= entry.maxX >> 4; cx += 1) {
+                    grid.computeIfAbsent(chunkKey(cx, cz), k -> new ArrayList<>(1)).add(entry);
+                }
+            }
+            dirty = true;
+        }
+    }
+
+    /**
+     * Get all structures whose bounding box contains a block.
+     */
+    public List<Structure> structuresAt(int x, int y, int z) {
+        List<Entry> cell = grid.get(chunkKey(x >> 4, z >> 4));
+        if (cell == null) return List.of();
+        List<Structure> result = null;
+        for (Entry entry : cell) {
+            if (!entry.contains(x, y, z)) continue;
+            if (result == null) result = new ArrayList<>(1);
+            result.add(entry.structure);
+        }
+        return result != null ? result : List.of();
+    }
+
+    public List<Structure> structuresAt(Location location) {
+        return structuresAt(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+    /**
+     * Get all structures whose bounding box intersects a box.
+     */
+    public List<Structure> structuresIntersecting(Box box) {
+        int ax = box.min.get(0);
+        int ay = box.min.get(1);
+        int az = box.min.get(2);
+        int bx = box.max.get(0);
+        int by = box.max.get(1);
+        int bz = box.max.get(2);
+        Set<Entry> seen = null;
+        List<Structure> result = new ArrayList<>();
+        for (int cz = az >> 4; cz <= bz >> 4; cz += 1) {
+            for (int cx = ax >> 4; cx <= bx >> 4; cx += 1) {
+                List<Entry> cell = grid.get(chunkKey(cx, cz));
+                if (cell == null) continue;
+                for (Entry entry : cell) {
+                    if (!entry.intersects(ax, ay, az, bx, by, bz)) continue;
+                    if (seen == null) seen = Collections.newSetFromMap(new IdentityHashMap<>());
+                    if (seen.add(entry)) result.add(entry.structure);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Load structures from a file written by save.  Missing files
+     * are ignored.
+     */
+    void load(File file) throws IOException {
+        if (!file.isFile()) return;
+        List<Structure> list;
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            list = GSON.fromJson(reader, new TypeToken<List<Structure>>() { }.getType());
+        }
+        if (list == null) return;
+        boolean wasDirty = dirty;
+        ingest(list);
+        dirty = wasDirty;
+    }
+
+    /**
+     * Save all structures to a file if anything changed.
+     */
+    void save(File file) throws IOException {
+        if (!dirty) return;
+        List<Structure> list = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) list.add(entry.structure);
+        file.getParentFile().mkdirs();
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            GSON.toJson(list, writer);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        dirty = false;
+    }
+
+    private static long chunkKey(int cx, int cz) {
+        return ((long) cx << 32) | (cz & 0xFFFFFFFFL);
+    }
+
+    /**
+     * A structure with its bounding box unpacked into ints.
+     */
+    private static final class Entry {
+        private final Structure structure;
+        private final int minX;
+        private final int minY;
+        private final int minZ;
+        private final int maxX;
+        private final int maxY;
+        private final int maxZ;
+
+        Entry(final Structure structure) {
+            this.structure = structure;
+            this.minX = structure.bb.min.get(0);
+            this.minY = structure.bb.min.get(1);
+            this.minZ = structure.bb.min.get(2);
+            this.maxX = structure.bb.max.get(0);
+            this.maxY = structure.bb.max.get(1);
+            this.maxZ = structure.bb.max.get(2);
+        }
+
+        boolean contains(int x, int y, int z) {
+            return x >= minX && x <= maxX
+                && y >= minY && y <= maxY
+                && z >= minZ && z <= maxZ;
+        }
+
+        boolean intersects(int ax, int ay, int az, int bx, int by, int bz) {
+            return ax <= maxX && bx >= minX
+                && ay <= maxY && by >= minY
+                && az <= maxZ && bz >= minZ;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.cavetale.dirty;
+
+import java.util.List;
+import java.util.Map;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+
+/**
+ * Convert NBT like Dirty.fromTag, but into immutable, compact maps
+ * and lists, and share equal subtrees and strings between results
+ * via a bounded hash-consing table.
+ *
+ * Keys are interned.  Arrays are copied but never shared, as they
+ * are mutable.
+ *
+ * The table is an LruCache, so concurrent callers rarely contend.
+ * The hash of each node is computed once, bottom up, from the hashes
+ * of its children, the same way Map and List define it, so looking up
+ * a subtree does not hash it all over again.
+ */
+final class TagCanonicalizer {
+    private static final int TABLE_SIZE = 16384;
+    private static final LruCache<Node, Node> TABLE = new LruCache<>(TABLE_SIZE, 64);
+
+    private TagCanonicalizer() { }
+
+    static Object canonical(NBTBase value) {
+        return value != null ? canonicalNode(value).value : null;
+    }
+
+    private static Node canonicalNode(NBTBase value) {
+        if (value instanceof NBTTagCompound nbtTagCompound) {
+            @SuppressWarnings("unchecked")
+            Map.Entry<String, Object>[] entries = new Map.Entry[nbtTagCompound.x.size()];
+            int i = 0;
+            int hash = 0;
+            for (Map.Entry<String, NBTBase> entry : nbtTagCompound.x.entrySet()) {
+                String key = entry.getKey().intern();
+                Node child = canonicalNode(entry.getValue());
+                entries[i++] = Map.entry(key, child.value);
+                hash += key.hashCode() ^ child.hash;
+            }
+            return share(new Node(Map.ofEntries(entries), hash));
+        } else if (value instanceof NBTTagList nbtTagList) {
+            Object[] elements = new Object[nbtTagList.size()];
+            int hash = 1;
+            for (int i = 0; i < elements.length; i += 1) {
+                Node child = canonicalNode(nbtTagList.get(i));
+                elements[i] = child.value;
+                hash = 31 * hash + child.hash;
+            }
+            return share(new Node(List.of(elements), hash));
+        } else if (value instanceof NBTTagString nbtTagString) {
+            String string = (String) nbtTagString.e_(); // asString
+            return share(new Node(string, string.hashCode()));
+        } else {
+            Object result = Dirty.fromTag0(value);
+            if (result instanceof byte[] bytes) result = bytes.clone();
+            if (result instanceof int[] ints) result = ints.clone();
+            if (result instanceof long[] longs) result = longs.clone();
+            return new Node(result, result.hashCode());
+        }
+    }
+
+    private static Node share(Node node) {
+        Node old = TABLE.putIfAbsent(node, node);
+        return old != null ? old : node;
+    }
+
+    static int size() {
+        return TABLE.size();
+    }
+
+    static void clear() {
+        TABLE.clear();
+    }
+
+    /**
+     * A canonical value with its hash, which equals value.hashCode()
+     * but is computed only once.
+     */
+    private static final class Node {
+        private final Object value;
+        private final int hash;
+
+        Node(final Object value, final int hash) {
+            this.value = value;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o == this || (o instanceof Node other && other.hash == hash && other.value.equals(value));
+        }
+    }
+}
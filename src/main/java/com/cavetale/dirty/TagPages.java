@@ -0,0 +1,307 @@
+package com.cavetale.dirty;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.JoinConfiguration;
+import net.kyori.adventure.text.event.ClickEvent;
+import net.kyori.adventure.text.event.HoverEvent;
+import net.kyori.adventure.text.format.NamedTextColor;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+
+/**
+ * One subtree of a tag, rendered into chat sized pages.
+ *
+ * Each line shows one key or list entry.  Values whose JSON is longer
+ * than COLLAPSE_BYTES are collapsed into a summary, which can be
+ * clicked to open the subtree as new pages.  A page holds at most
+ * PAGE_LINES lines and PAGE_BYTES bytes of text, no matter how large
+ * the tag.
+ *
+ * Open buttons run a short command naming these pages by id and the
+ * subtree by its index in childPaths, never the path itself, which
+ * could exceed the chat limit of 256 characters.
+ *
+ * Rendering only reads the tag, so it may run off-thread, as long as
+ * nobody modifies the tag.  The tag should be a copy.
+ */
+final class TagPages {
+    static final int PAGE_LINES = 16;
+    static final int PAGE_BYTES = 8192;
+    static final int COLLAPSE_BYTES = 160;
+    static final int KEY_BYTES = 64;
+    /** Dumps above this size go to a file instead of the console. */
+    static final int FILE_BYTES = 64 * 1024;
+    static final long EXPIRY_MILLIS = 5L * 60L * 1000L;
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+    final int id;
+    final String title;
+    final NBTBase root;
+    final String path;
+    final TagPages parent;
+    final List<Component> pages;
+    /** The paths of the collapsed subtrees, by open button. */
+    final List<String> childPaths;
+    /** The JSON of the whole tag, if it is at most FILE_BYTES long. */
+    String json;
+    /** The file holding the whole tag, if it is longer. */
+    File file;
+    int page;
+    long lastAccess;
+
+    private TagPages(final int id, final String title, final NBTBase root, final String path,
+                     final TagPages parent, final List<Component> pages, final List<String> childPaths) {
+        this.id = id;
+        this.title = title;
+        this.root = root;
+        this.path = path;
+        this.parent = parent;
+        this.pages = pages;
+        this.childPaths = childPaths;
+        this.lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * Render the root of a tag, and keep its JSON for the console, or
+     * write it to a file in the folder if it is too large.
+     */
+    static TagPages create(String title, NBTBase root, File folder, JsonOption... options) {
+        TagPages result = render(title, root, "", null);
+        NbtJsonWriter writer = NbtJsonWriter.of(options);
+        LimitedAppendable out = new LimitedAppendable(FILE_BYTES);
+        try {
+            writer.write(root, out);
+            result.json = out.sb.toString();
+        } catch (LimitedAppendable.Overflow overflow) {
+            folder.mkdirs();
+            File file = new File(folder, "tag-" + System.currentTimeMillis() + ".json");
+            try (Writer fileWriter = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+                writer.write(root, fileWriter);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+            result.file = file;
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        return result;
+    }
+
+    /**
+     * Render a collapsed subtree, for the open button.
+     * @param child The index into childPaths.
+     * @throws IllegalArgumentException if the index is out of range
+     */
+    TagPages open(int child) {
+        if (child < 0 || child >= childPaths.size()) {
+            throw new IllegalArgumentException("No such entry: " + child);
+        }
+        return render(title, root, childPaths.get(child), this);
+    }
+
+    /**
+     * Find these pages or one of their parents by id, so buttons on
+     * an older page still open what they show.
+     * @return The pages, or null if they are not among the parents.
+     */
+    TagPages find(int pagesId) {
+        for (TagPages it = this; it != null; it = it.parent) {
+            if (it.id == pagesId) return it;
+        }
+        return null;
+    }
+
+    private static TagPages render(String title, NBTBase root, String path, TagPages parent) {
+        NBTBase node = path.isEmpty() ? root : NbtPath.compile(path).get(root);
+        if (node == null) throw new IllegalArgumentException("Nothing at " + path);
+        final int id = NEXT_ID.incrementAndGet();
+        List<String> childPaths = new ArrayList<>();
+        Pager pager = new Pager();
+        if (node instanceof NBTTagCompound compound) {
+            for (Map.Entry<String, NBTBase> entry : compound.x.entrySet()) {
+                String key = entry.getKey();
+                String label = key.length() > KEY_BYTES ? key.substring(0, KEY_BYTES) + "..." : key;
+                String childPath = path.isEmpty()
+                    ? NbtPath.quoteKey(key)
+                    : path + "." + NbtPath.quoteKey(key);
+                pager.add(entryLine(label, entry.getValue(), childPath, id, childPaths));
+            }
+        } else if (node instanceof NBTTagList list) {
+            for (int i = 0; i < list.size(); i += 1) {
+                pager.add(entryLine("[" + i + "]", list.get(i), path + "[" + i + "]", id, childPaths));
+            }
+        } else {
+            // A long string or array: spread its JSON over pages.
+            String text = Dirty.toJson0(node);
+            int chunk = PAGE_BYTES / 3;
+            for (int i = 0; i < text.length(); i += chunk) {
+                String part = text.substring(i, Math.min(text.length(), i + chunk));
+                pager.add(new Line(Component.text(part), utf8Length(part)));
+            }
+        }
+        return new TagPages(id, title, root, path, parent, pager.finish(), childPaths);
+    }
+
+    private static Line entryLine(String label, NBTBase value, String childPath, int id, List<String> childPaths) {
+        Component key = Component.text(label + ": ", NamedTextColor.AQUA);
+        String preview = preview(value, COLLAPSE_BYTES);
+        if (preview != null) {
+            return new Line(key.append(Component.text(preview)), utf8Length(label) + 2 + utf8Length(preview));
+        }
+        String summary;
+        if (value instanceof NBTTagCompound compound) {
+            summary = "{" + compound.x.size() + " keys}";
+        } else if (value instanceof NBTTagList list) {
+            summary = "[" + list.size() + " entries]";
+        } else {
+            summary = "(long " + value.getClass().getSimpleName() + ")";
+        }
+        String command = "/dirty page open " + id + " " + childPaths.size();
+        childPaths.add(childPath);
+        Component button = Component.text(summary, NamedTextColor.YELLOW)
+            .hoverEvent(HoverEvent.showText(Component.text("Open " + childPath)))
+            .clickEvent(ClickEvent.runCommand(command));
+        return new Line(key.append(button),
+                        utf8Length(label) + 2 + utf8Length(summary) + utf8Length(childPath) + command.length());
+    }
+
+    /**
+     * The compact JSON of a value, or null if it is longer than the
+     * limit.  Large values are not written past the limit.
+     */
+    private static String preview(NBTBase value, int limit) {
+        LimitedAppendable out = new LimitedAppendable(limit);
+        try {
+            NbtJsonWriter.COMPACT.write(value, out);
+        } catch (LimitedAppendable.Overflow overflow) {
+            return null;
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        return out.sb.toString();
+    }
+
+    private static int utf8Length(String string) {
+        int result = 0;
+        for (int i = 0; i < string.length(); i += 1) {
+            char c = string.charAt(i);
+            result += c < 0x80 ? 1 : (c < 0x800 || Character.isSurrogate(c) ? 2 : 3);
+        }
+        return result;
+    }
+
+    /**
+     * Get a page, with a header and navigation buttons.
+     * @param index The page index, starting at 0.
+     */
+    Component getPage(int index) {
+        Component header = Component.text(title, NamedTextColor.GREEN);
+        if (!path.isEmpty()) header = header.append(Component.text(" " + path, NamedTextColor.GRAY));
+        Component nav = Component.empty();
+        if (index > 0) {
+            nav = nav.append(Component.text("[<] ", NamedTextColor.YELLOW)
+                             .clickEvent(ClickEvent.runCommand("/dirty page " + index)));
+        }
+        nav = nav.append(Component.text("Page " + (index + 1) + "/" + pages.size(), NamedTextColor.GRAY));
+        if (index + 1 < pages.size()) {
+            nav = nav.append(Component.text(" [>]", NamedTextColor.YELLOW)
+                             .clickEvent(ClickEvent.runCommand("/dirty page " + (index + 2))));
+        }
+        if (parent != null) {
+            nav = nav.append(Component.text(" [back]", NamedTextColor.YELLOW)
+                             .clickEvent(ClickEvent.runCommand("/dirty page back")));
+        }
+        return Component.join(JoinConfiguration.newlines(),
+                              header, pages.get(index), nav);
+    }
+
+    boolean isExpired(long now) {
+        return now - lastAccess > EXPIRY_MILLIS;
+    }
+
+    private record Line(Component component, int bytes) { }
+
+    /**
+     * Collects lines into pages of at most PAGE_LINES lines and
+     * PAGE_BYTES bytes.
+     */
+    private static final class Pager {
+        private final List<Component> pages = new ArrayList<>();
+        private final List<Component> lines = new ArrayList<>();
+        private int bytes;
+
+        void add(Line line) {
+            if (!lines.isEmpty() && (lines.size() >= PAGE_LINES || bytes + line.bytes() > PAGE_BYTES)) {
+                flush();
+            }
+            lines.add(line.component());
+            bytes += line.bytes() + 1;
+        }
+
+        private void flush() {
+            pages.add(Component.join(JoinConfiguration.newlines(), lines));
+            lines.clear();
+            bytes = 0;
+        }
+
+        List<Component> finish() {
+            if (!lines.isEmpty() || pages.isEmpty()) flush();
+            return pages;
+        }
+    }
+
+    /**
+     * StringBuilder which refuses to grow past a limit, to measure
+     * JSON without writing all of it.
+     */
+    private static final class LimitedAppendable implements Appendable {
+        private final StringBuilder sb = new StringBuilder();
+        private final int limit;
+
+        LimitedAppendable(final int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            if (sb.length() + (end - start) > limit) throw Overflow.INSTANCE;
+            sb.append(csq, start, end);
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            if (sb.length() + 1 > limit) throw Overflow.INSTANCE;
+            sb.append(c);
+            return this;
+        }
+
+        /**
+         * Thrown when the limit is reached.  Shared and without a
+         * stack trace, since it is expected.
+         */
+        private static final class Overflow extends IOException {
+            private static final Overflow INSTANCE = new Overflow();
+
+            @Override
+            public synchronized Throwable fillInStackTrace() {
+                return this;
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.cavetale.dirty;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+
+/**
+ * A Map view backed directly by an NBTTagCompound.  Values are
+ * converted like Dirty.fromTag, but only when accessed, and child
+ * compounds and lists become views themselves.  Writes go straight
+ * into the compound.
+ */
+final class TagView extends AbstractMap<String, Object> {
+    final NBTTagCompound tag;
+    private Set<Map.Entry<String, Object>> entrySet;
+
+    TagView(final NBTTagCompound tag) {
+        this.tag = tag;
+    }
+
+    static Object view(NBTBase value) {
+        if (value instanceof NBTTagCompound nbtTagCompound) {
+            return new TagView(nbtTagCompound);
+        } else if (value instanceof NBTTagList nbtTagList) {
+            return new ListView(nbtTagList);
+        } else {
+            return Dirty.fromTag0(value);
+        }
+    }
+
+    /**
+     * Turn a value into NBT for storing.  Views of other tags are
+     * copied so no compound ends up with two parents.
+     */
+    static NBTBase unview(Object value) {
+        if (value instanceof TagView tagView) return tagView.tag.c(); // copy
+        if (value instanceof ListView listView) return listView.list.c(); // copy
+        return (NBTBase) Dirty.toTag0(value);
+    }
+
+    @Override
+    public int size() {
+        return tag.x.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return tag.x.containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        return view(tag.x.get(key));
+    }
+
+    /**
+     * Putting null removes the key, as a compound cannot hold null.
+     */
+    @Override
+    public Object put(String key, Object value) {
+        if (value == null) return remove(key);
+        NBTBase old = tag.x.get(key);
+        tag.a(key, unview(value)); // set
+        return view(old);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return view(tag.x.remove(key));
+    }
+
+    @Override
+    public void clear() {
+        tag.x.clear();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (entrySet == null) entrySet = new EntrySet();
+        return entrySet;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+        @Override
+        public int size() {
+            return tag.x.size();
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            Iterator<Map.Entry<String, NBTBase>> iter = tag.x.entrySet().iterator();
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return iter.hasNext();
+                }
+
+                @Override
+                public Map.Entry<String, Object> next() {
+                    Map.Entry<String, NBTBase> entry = iter.next();
+                    return new ViewEntry(entry.getKey());
+                }
+
+                @Override
+                public void remove() {
+                    iter.remove();
+                }
+            };
+        }
+    }
+
+    private final class ViewEntry implements Map.Entry<String, Object> {
+        private final String key;
+
+        ViewEntry(final String key) {
+            this.key = key;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return view(tag.x.get(key));
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            if (value == null) throw new NullPointerException("TagView: Null value");
+            return put(key, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry<?, ?> other)) return false;
+            return key.equals(other.getKey()) && Objects.equals(getValue(), other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+    }
+
+    /**
+     * A List view backed directly by an NBTTagList.  Null elements
+     * are rejected.
+     */
+    static final class ListView extends AbstractList<Object> implements RandomAccess {
+        final NBTTagList list;
+
+        ListView(final NBTTagList list) {
+            this.list = list;
+        }
+
+        @Override
+        public int size() {
+            return list.size();
+        }
+
+        @Override
+        public Object get(int index) {
+            return view(list.get(index));
+        }
+
+        @Override
+        public Object set(int index, Object value) {
+            if (value == null) throw new NullPointerException("TagView.ListView: Null element");
+            return view(list.set(index, unview(value)));
+        }
+
+        @Override
+        public void add(int index, Object value) {
+            if (value == null) throw new NullPointerException("TagView.ListView: Null element");
+            list.add(index, unview(value));
+        }
+
+        @Override
+        public Object remove(int index) {
+            return view(list.remove(index));
+        }
+    }
+}
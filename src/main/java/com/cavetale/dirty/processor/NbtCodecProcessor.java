@@ -0,0 +1,416 @@
+package com.cavetale.dirty.processor;
+
+import com.cavetale.dirty.NbtName;
+import com.cavetale.dirty.NbtSerializable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.RecordComponentElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+
+/**
+ * Generate an NbtCodec for each type annotated with NbtSerializable.
+ * See there for the supported types.
+ *
+ * Each supported type maps to one encode expression, which turns a
+ * non-null value into an NBTBase, and one decode expression, which
+ * turns a possibly null NBTBase into the value.  Lists and maps nest
+ * these expressions in lambdas.
+ */
+@SupportedAnnotationTypes("com.cavetale.dirty.NbtSerializable")
+public final class NbtCodecProcessor extends AbstractProcessor {
+    private static final String SUPPORT = "com.cavetale.dirty.NbtCodecs";
+    private static final String NBT_BASE = "net.minecraft.nbt.NBTBase";
+    private static final String NBT_COMPOUND = "net.minecraft.nbt.NBTTagCompound";
+    private Elements elements;
+    private Filer filer;
+    private Messager messager;
+
+    /**
+     * Thrown for a field which cannot be generated.
+     */
+    private static final class Unsupported extends Exception {
+        private final transient Element element;
+
+        Unsupported(final String message, final Element element) {
+            super(message);
+            this.element = element;
+        }
+    }
+
+    private record Field(String name, String key, TypeMirror type, String getter, Element element) { }
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        this.elements = processingEnv.getElementUtils();
+        this.filer = processingEnv.getFiler();
+        this.messager = processingEnv.getMessager();
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(NbtSerializable.class)) {
+            try {
+                generate((TypeElement) element);
+            } catch (Unsupported unsupported) {
+                messager.printMessage(Diagnostic.Kind.ERROR, unsupported.getMessage(), unsupported.element);
+            } catch (IOException ioe) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Writing codec: " + ioe.getMessage(), element);
+            }
+        }
+        return true;
+    }
+
+    private void generate(TypeElement type) throws Unsupported, IOException {
+        boolean isRecord = type.getKind() == ElementKind.RECORD;
+        if (!isRecord && type.getKind() != ElementKind.CLASS) {
+            throw new Unsupported("@NbtSerializable requires a record or class", type);
+        }
+        if (!type.getTypeParameters().isEmpty()) {
+            throw new Unsupported("@NbtSerializable does not support type parameters", type);
+        }
+        if (type.getModifiers().contains(Modifier.PRIVATE)) {
+            throw new Unsupported("@NbtSerializable type must not be private", type);
+        }
+        List<Field> fields = isRecord ? recordFields(type) : classFields(type);
+        String packageName = elements.getPackageOf(type).getQualifiedName().toString();
+        String codecName = codecSimpleName(type);
+        String typeName = type.getQualifiedName().toString();
+        StringBuilder sb = new StringBuilder();
+        if (!packageName.isEmpty()) sb.append("package ").append(packageName).append(";\n\n");
+        sb.append("/**\n")
+            .append(" * NbtCodec for ").append(typeName).append(", generated by NbtCodecProcessor.\n")
+            .append(" */\n")
+            .append("@javax.annotation.processing.Generated(\"").append(getClass().getName()).append("\")\n")
+            .append(type.getModifiers().contains(Modifier.PUBLIC) ? "public " : "")
+            .append("final class ").append(codecName)
+            .append(" implements com.cavetale.dirty.NbtCodec<").append(typeName).append("> {\n")
+            .append("    public static final ").append(codecName).append(" INSTANCE = new ")
+            .append(codecName).append("();\n\n")
+            .append("    private ").append(codecName).append("() { }\n\n");
+        // encode
+        sb.append("    @Override\n")
+            .append("    public ").append(NBT_COMPOUND).append(" encode(").append(typeName).append(" value) {\n")
+            .append("        if (value == null) return null;\n")
+            .append("        ").append(NBT_COMPOUND).append(" tag = new ").append(NBT_COMPOUND).append("();\n");
+        for (Field field : fields) {
+            String put = SUPPORT + ".put(tag, " + literal(field.key()) + ", ";
+            if (field.type().getKind().isPrimitive()) {
+                sb.append("        ").append(put).append(encode(field.type(), field.getter(), 0, field.element()))
+                    .append(");\n");
+            } else if (isOptional(field.type())) {
+                TypeMirror inner = typeArgument(field.type(), 0, field.element());
+                sb.append("        {\n")
+                    .append("            ").append(field.type()).append(" it = ").append(field.getter()).append(";\n")
+                    .append("            if (it != null && it.isPresent()) ").append(put)
+                    .append(encode(inner, "it.get()", 0, field.element())).append(");\n")
+                    .append("        }\n");
+            } else {
+                sb.append("        {\n")
+                    .append("            ").append(field.type()).append(" it = ").append(field.getter()).append(";\n")
+                    .append("            if (it != null) ").append(put)
+                    .append(encode(field.type(), "it", 0, field.element())).append(");\n")
+                    .append("        }\n");
+            }
+        }
+        sb.append("        return tag;\n")
+            .append("    }\n\n");
+        // decode
+        sb.append("    @Override\n")
+            .append("    public ").append(typeName).append(" decode(").append(NBT_COMPOUND).append(" tag) {\n")
+            .append("        if (tag == null) return null;\n");
+        for (int i = 0; i < fields.size(); i += 1) {
+            Field field = fields.get(i);
+            String in = "n" + i;
+            sb.append("        ").append(NBT_BASE).append(' ').append(in).append(" = ")
+                .append(SUPPORT).append(".get(tag, ").append(literal(field.key())).append(");\n");
+            String expression;
+            if (isOptional(field.type())) {
+                TypeMirror inner = typeArgument(field.type(), 0, field.element());
+                expression = "java.util.Optional.ofNullable(" + decode(inner, in, 0, field.element()) + ")";
+            } else {
+                expression = decode(field.type(), in, 0, field.element());
+            }
+            sb.append("        ").append(field.type()).append(" v").append(i).append(" = ").append(expression).append(";\n");
+        }
+        if (isRecord) {
+            sb.append("        return new ").append(typeName).append('(');
+            for (int i = 0; i < fields.size(); i += 1) {
+                if (i > 0) sb.append(", ");
+                sb.append('v').append(i);
+            }
+            sb.append(");\n");
+        } else {
+            sb.append("        ").append(typeName).append(" result = new ").append(typeName).append("();\n");
+            for (int i = 0; i < fields.size(); i += 1) {
+                sb.append("        result.").append(fields.get(i).name()).append(" = v").append(i).append(";\n");
+            }
+            sb.append("        return result;\n");
+        }
+        sb.append("    }\n")
+            .append("}\n");
+        String qualifiedCodecName = packageName.isEmpty() ? codecName : packageName + "." + codecName;
+        try (Writer writer = filer.createSourceFile(qualifiedCodecName, type).openWriter()) {
+            writer.write(sb.toString());
+        }
+    }
+
+    private List<Field> recordFields(TypeElement type) {
+        List<Field> result = new ArrayList<>();
+        for (RecordComponentElement component : type.getRecordComponents()) {
+            String name = component.getSimpleName().toString();
+            result.add(new Field(name, key(component, name), component.asType(), "value." + name + "()", component));
+        }
+        return result;
+    }
+
+    private List<Field> classFields(TypeElement type) throws Unsupported {
+        boolean hasConstructor = false;
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                hasConstructor = true;
+            }
+        }
+        if (!hasConstructor) {
+            throw new Unsupported("@NbtSerializable class needs a non-private constructor without arguments", type);
+        }
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            throw new Unsupported("@NbtSerializable class must not be abstract", type);
+        }
+        if (type.getNestingKind().isNested() && !type.getModifiers().contains(Modifier.STATIC)) {
+            throw new Unsupported("@NbtSerializable class must not be an inner class", type);
+        }
+        List<Field> result = new ArrayList<>();
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            Set<Modifier> modifiers = field.getModifiers();
+            if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) continue;
+            if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL)) {
+                throw new Unsupported("@NbtSerializable field must not be private or final", field);
+            }
+            String name = field.getSimpleName().toString();
+            result.add(new Field(name, key(field, name), field.asType(), "value." + name, field));
+        }
+        return result;
+    }
+
+    private static String key(Element element, String name) {
+        NbtName nbtName = element.getAnnotation(NbtName.class);
+        return nbtName != null ? nbtName.value() : name;
+    }
+
+    /**
+     * Outer_InnerNbtCodec for a nested type Outer.Inner.
+     */
+    private static String codecSimpleName(TypeElement type) {
+        StringBuilder sb = new StringBuilder(type.getSimpleName());
+        for (Element it = type.getEnclosingElement(); !(it instanceof PackageElement); it = it.getEnclosingElement()) {
+            sb.insert(0, it.getSimpleName() + "_");
+        }
+        return sb.append("NbtCodec").toString();
+    }
+
+    private String codecName(TypeElement type) {
+        String packageName = elements.getPackageOf(type).getQualifiedName().toString();
+        String simpleName = codecSimpleName(type);
+        return packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+    }
+
+    /**
+     * Expression turning the non-null value of `in` into an NBTBase.
+     */
+    private String encode(TypeMirror type, String in, int depth, Element where) throws Unsupported {
+        switch (type.getKind()) {
+        case BOOLEAN: return SUPPORT + ".ofBoolean(" + in + ")";
+        case BYTE: return SUPPORT + ".ofByte(" + in + ")";
+        case SHORT: return SUPPORT + ".ofShort(" + in + ")";
+        case INT: return SUPPORT + ".ofInt(" + in + ")";
+        case LONG: return SUPPORT + ".ofLong(" + in + ")";
+        case FLOAT: return SUPPORT + ".ofFloat(" + in + ")";
+        case DOUBLE: return SUPPORT + ".ofDouble(" + in + ")";
+        case ARRAY: {
+            switch (((ArrayType) type).getComponentType().getKind()) {
+            case BYTE: return SUPPORT + ".ofByteArray(" + in + ")";
+            case INT: return SUPPORT + ".ofIntArray(" + in + ")";
+            case LONG: return SUPPORT + ".ofLongArray(" + in + ")";
+            default: throw unsupported(type, where);
+            }
+        }
+        case DECLARED: break;
+        default: throw unsupported(type, where);
+        }
+        TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+        String name = element.getQualifiedName().toString();
+        String e = "e" + depth;
+        switch (name) {
+        case "java.lang.Boolean": return SUPPORT + ".ofBoolean(" + in + ")";
+        case "java.lang.Byte": return SUPPORT + ".ofByte(" + in + ")";
+        case "java.lang.Short": return SUPPORT + ".ofShort(" + in + ")";
+        case "java.lang.Integer": return SUPPORT + ".ofInt(" + in + ")";
+        case "java.lang.Long": return SUPPORT + ".ofLong(" + in + ")";
+        case "java.lang.Float": return SUPPORT + ".ofFloat(" + in + ")";
+        case "java.lang.Double": return SUPPORT + ".ofDouble(" + in + ")";
+        case "java.lang.String": return SUPPORT + ".ofString(" + in + ")";
+        case "java.util.UUID": return SUPPORT + ".ofUuid(" + in + ")";
+        case NBT_COMPOUND: return SUPPORT + ".ofCompound(" + in + ")";
+        case "java.util.List": {
+            TypeMirror elementType = typeArgument(type, 0, where);
+            return SUPPORT + ".ofList(" + in + ", " + e + " -> " + encode(elementType, e, depth + 1, where) + ")";
+        }
+        case "java.util.Map": {
+            requireStringKeys(type, where);
+            TypeMirror valueType = typeArgument(type, 1, where);
+            return SUPPORT + ".ofMap(" + in + ", " + e + " -> " + encode(valueType, e, depth + 1, where) + ")";
+        }
+        default: break;
+        }
+        if (element.getKind() == ElementKind.ENUM) return SUPPORT + ".ofEnum(" + in + ")";
+        if (element.getAnnotation(NbtSerializable.class) != null) return codecName(element) + ".INSTANCE.encode(" + in + ")";
+        throw unsupported(type, where);
+    }
+
+    /**
+     * Expression turning the NBTBase in `in`, which may be null,
+     * into a value of the type.
+     */
+    private String decode(TypeMirror type, String in, int depth, Element where) throws Unsupported {
+        switch (type.getKind()) {
+        case BOOLEAN: return SUPPORT + ".asBoolean(" + in + ")";
+        case BYTE: return SUPPORT + ".asByte(" + in + ")";
+        case SHORT: return SUPPORT + ".asShort(" + in + ")";
+        case INT: return SUPPORT + ".asInt(" + in + ")";
+        case LONG: return SUPPORT + ".asLong(" + in + ")";
+        case FLOAT: return SUPPORT + ".asFloat(" + in + ")";
+        case DOUBLE: return SUPPORT + ".asDouble(" + in + ")";
+        case ARRAY: {
+            switch (((ArrayType) type).getComponentType().getKind()) {
+            case BYTE: return SUPPORT + ".asByteArray(" + in + ")";
+            case INT: return SUPPORT + ".asIntArray(" + in + ")";
+            case LONG: return SUPPORT + ".asLongArray(" + in + ")";
+            default: throw unsupported(type, where);
+            }
+        }
+        case DECLARED: break;
+        default: throw unsupported(type, where);
+        }
+        TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+        String name = element.getQualifiedName().toString();
+        String e = "e" + depth;
+        switch (name) {
+        case "java.lang.Boolean": return boxed(in, "Boolean", "asBoolean");
+        case "java.lang.Byte": return boxed(in, "Byte", "asByte");
+        case "java.lang.Short": return boxed(in, "Short", "asShort");
+        case "java.lang.Integer": return boxed(in, "Integer", "asInt");
+        case "java.lang.Long": return boxed(in, "Long", "asLong");
+        case "java.lang.Float": return boxed(in, "Float", "asFloat");
+        case "java.lang.Double": return boxed(in, "Double", "asDouble");
+        case "java.lang.String": return SUPPORT + ".asString(" + in + ")";
+        case "java.util.UUID": return SUPPORT + ".asUuid(" + in + ")";
+        case NBT_COMPOUND: return SUPPORT + ".asCompoundCopy(" + in + ")";
+        case "java.util.List": {
+            TypeMirror elementType = typeArgument(type, 0, where);
+            return SUPPORT + ".<" + elementType + ">asList(" + in + ", " + e + " -> "
+                + decode(elementType, e, depth + 1, where) + ")";
+        }
+        case "java.util.Map": {
+            requireStringKeys(type, where);
+            TypeMirror valueType = typeArgument(type, 1, where);
+            return SUPPORT + ".<" + valueType + ">asMap(" + in + ", " + e + " -> "
+                + decode(valueType, e, depth + 1, where) + ")";
+        }
+        default: break;
+        }
+        if (element.getKind() == ElementKind.ENUM) {
+            return SUPPORT + ".asEnum(" + in + ", " + element.getQualifiedName() + "::valueOf)";
+        }
+        if (element.getAnnotation(NbtSerializable.class) != null) {
+            return codecName(element) + ".INSTANCE.decode(" + SUPPORT + ".asCompound(" + in + "))";
+        }
+        throw unsupported(type, where);
+    }
+
+    private static String boxed(String in, String box, String method) {
+        return "(" + in + " != null ? java.lang." + box + ".valueOf(" + SUPPORT + "." + method + "(" + in + ")) : null)";
+    }
+
+    private static boolean isOptional(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED
+            && ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().contentEquals("java.util.Optional");
+    }
+
+    /**
+     * A type argument, which may be a class or an array, such as the
+     * byte[] of List<byte[]>, but not a wildcard or type variable.
+     */
+    private static TypeMirror typeArgument(TypeMirror type, int index, Element where) throws Unsupported {
+        List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+        if (arguments.size() <= index) {
+            throw new Unsupported("Type arguments must be concrete types: " + type, where);
+        }
+        TypeKind kind = arguments.get(index).getKind();
+        if (kind != TypeKind.DECLARED && kind != TypeKind.ARRAY) {
+            throw new Unsupported("Type arguments must be concrete types: " + type, where);
+        }
+        return arguments.get(index);
+    }
+
+    private static void requireStringKeys(TypeMirror type, Element where) throws Unsupported {
+        TypeMirror key = typeArgument(type, 0, where);
+        if (key.getKind() != TypeKind.DECLARED
+            || !((TypeElement) ((DeclaredType) key).asElement()).getQualifiedName().contentEquals("java.lang.String")) {
+            throw new Unsupported("Map keys must be String: " + type, where);
+        }
+    }
+
+    private static Unsupported unsupported(TypeMirror type, Element where) {
+        return new Unsupported("Type not supported by @NbtSerializable: " + type, where);
+    }
+
+    private static String literal(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i += 1) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"': sb.append("\\\""); break;
+            case '\\': sb.append("\\\\"); break;
+            case '\n': sb.append("\\n"); break;
+            case '\r': sb.append("\\r"); break;
+            case '\t': sb.append("\\t"); break;
+            default:
+                if (c < 0x20 || c > 0x7e) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
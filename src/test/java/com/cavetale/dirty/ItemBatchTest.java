@@ -0,0 +1,88 @@
+package com.cavetale.dirty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+final class ItemBatchTest {
+    static NBTTagCompound item(String id, int count) {
+        NBTTagCompound tag = new NBTTagCompound();
+        tag.a("id", NBTTagString.a(id)); // set
+        tag.a("Count", NBTTagByte.a((byte) count)); // set
+        return tag;
+    }
+
+    /**
+     * A shulker box holding the given number of distinct items.
+     */
+    static NBTTagCompound shulker(int size) {
+        NBTTagList items = new NBTTagList();
+        for (int i = 0; i < size; i += 1) items.add(item("minecraft:stone", i + 1));
+        NBTTagCompound blockEntityTag = new NBTTagCompound();
+        blockEntityTag.a("Items", items); // set
+        blockEntityTag.a("id", NBTTagString.a("minecraft:shulker_box")); // set
+        NBTTagCompound tag = new NBTTagCompound();
+        tag.a("BlockEntityTag", blockEntityTag); // set
+        NBTTagCompound result = item("minecraft:shulker_box", 1);
+        result.a("tag", tag); // set
+        return result;
+    }
+
+    /**
+     * An inventory with nulls, plain items and shulker boxes, well
+     * above the parallel threshold.
+     */
+    static List<NBTTagCompound> inventory() {
+        List<NBTTagCompound> result = new ArrayList<>();
+        for (int i = 0; i < 36; i += 1) {
+            result.add(i % 5 == 0 ? null : (i % 3 == 0 ? shulker(27) : item("minecraft:dirt", i)));
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Map<String, Object>> sequential(List<NBTTagCompound> tags) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (NBTTagCompound tag : tags) result.add((Map<String, Object>) Dirty.fromTag0(tag));
+        return result;
+    }
+
+    @Test
+    void small() {
+        List<NBTTagCompound> tags = Arrays.asList(item("minecraft:dirt", 1), null, shulker(2));
+        List<Map<String, Object>> maps = ItemBatch.fromTags(tags);
+        assertEquals(sequential(tags), maps);
+        assertEquals(tags, ItemBatch.toTags(maps));
+    }
+
+    @Test
+    void parallel() {
+        List<NBTTagCompound> tags = inventory();
+        List<Map<String, Object>> maps = ItemBatch.fromTags(tags);
+        assertEquals(sequential(inventory()), maps);
+        // The Items lists were taken out temporarily and put back.
+        assertEquals(inventory(), tags);
+        assertEquals(inventory(), ItemBatch.toTags(maps));
+        // The input maps are not modified.
+        assertEquals(sequential(inventory()), maps);
+    }
+
+    @Test
+    void results() {
+        List<Map<String, Object>> maps = ItemBatch.fromTags(inventory());
+        assertEquals(36, maps.size());
+        assertNull(maps.get(0));
+        maps.set(0, maps.get(1));
+        List<NBTTagCompound> tags = ItemBatch.toTags(maps);
+        assertEquals(36, tags.size());
+        assertEquals(tags.get(1), tags.get(0));
+        assertNotSame(tags.get(1), tags.get(0));
+    }
+}
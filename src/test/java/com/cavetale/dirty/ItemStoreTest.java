@@ -0,0 +1,72 @@
+package com.cavetale.dirty;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagInt;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+final class ItemStoreTest {
+    static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) delete(child);
+        }
+        file.delete();
+    }
+
+    @Test
+    void putTwice() throws IOException {
+        File folder = Files.createTempDirectory("itemstore").toFile();
+        try {
+            NbtHash ref;
+            try (ItemStore store = ItemStore.open(folder)) {
+                ref = store.put(NbtBinaryTest.sample());
+                assertEquals(NbtHash.of(NbtBinaryTest.sample()), ref);
+                assertEquals(ref, store.put(NbtBinaryTest.sample()));
+                NBTTagCompound other = NbtBinaryTest.sample();
+                other.a("Damage", NBTTagInt.a(1)); // set
+                assertNotEquals(ref, store.put(other));
+                assertEquals(2, store.size());
+            }
+            try (ItemStore store = ItemStore.open(folder)) {
+                assertEquals(2, store.size());
+                assertTrue(store.contains(ref));
+                assertEquals(ref, store.put(NbtBinaryTest.sample()));
+                assertEquals(2, store.size());
+            }
+        } finally {
+            delete(folder);
+        }
+    }
+
+    /**
+     * NaN is not equal to itself, but a stored item with NaN must
+     * still be found again instead of appended once more.
+     */
+    @Test
+    void putNaN() throws IOException {
+        File folder = Files.createTempDirectory("itemstore").toFile();
+        try (ItemStore store = ItemStore.open(folder)) {
+            NbtHash ref = store.put(NbtHashTest.withNaN());
+            for (int i = 0; i < 3; i += 1) {
+                assertEquals(ref, store.put(NbtHashTest.withNaN()));
+            }
+            assertEquals(1, store.size());
+        } finally {
+            delete(folder);
+        }
+    }
+
+    @Test
+    void locked() throws IOException {
+        File folder = Files.createTempDirectory("itemstore").toFile();
+        try (ItemStore store = ItemStore.open(folder)) {
+            assertThrows(IOException.class, () -> ItemStore.open(folder));
+        } finally {
+            delete(folder);
+        }
+    }
+}
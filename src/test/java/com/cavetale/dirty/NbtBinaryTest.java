@@ -0,0 +1,143 @@
+package com.cavetale.dirty;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLong;
+import net.minecraft.nbt.NBTTagLongArray;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+final class NbtBinaryTest {
+    static NBTTagCompound sample() {
+        NBTTagCompound tag = new NBTTagCompound();
+        tag.a("id", NBTTagString.a("minecraft:diamond_sword")); // set
+        tag.a("Count", NBTTagByte.a((byte) 1)); // set
+        tag.a("Short", NBTTagShort.a((short) -300)); // set
+        tag.a("Int", NBTTagInt.a(Integer.MIN_VALUE)); // set
+        tag.a("Long", NBTTagLong.a(Long.MAX_VALUE)); // set
+        tag.a("Float", NBTTagFloat.a(1.5f)); // set
+        tag.a("Double", NBTTagDouble.a(-0.25)); // set
+        tag.a("Bytes", new NBTTagByteArray(new byte[] {1, -2, 3})); // set
+        tag.a("Ints", new NBTTagIntArray(new int[] {-1, 0, 65536})); // set
+        tag.a("Longs", new NBTTagLongArray(new long[] {Long.MIN_VALUE, 7L})); // set
+        NBTTagList lore = new NBTTagList();
+        lore.add(NBTTagString.a("{\"text\":\"Sharp\"}"));
+        lore.add(NBTTagString.a("minecraft:diamond_sword"));
+        NBTTagCompound display = new NBTTagCompound();
+        display.a("Lore", lore); // set
+        tag.a("display", display); // set
+        NBTTagList enchantments = new NBTTagList();
+        NBTTagCompound sharpness = new NBTTagCompound();
+        sharpness.a("id", NBTTagString.a("minecraft:sharpness")); // set
+        sharpness.a("lvl", NBTTagShort.a((short) 5)); // set
+        enchantments.add(sharpness);
+        tag.a("Enchantments", enchantments); // set
+        tag.a("Empty", new NBTTagList()); // set
+        return tag;
+    }
+
+    @Test
+    void roundTrip() {
+        List<NBTTagCompound> tags = Arrays.asList(sample(), null, new NBTTagCompound());
+        assertEquals(tags, NbtBinary.decode(NbtBinary.encode(tags, false)));
+        assertEquals(tags, NbtBinary.decode(NbtBinary.encode(tags, true)));
+        assertEquals(List.of(), NbtBinary.decode(NbtBinary.encode(List.of(), true)));
+    }
+
+    @Test
+    void badHeader() {
+        byte[] data = NbtBinary.encode(List.of(sample()), false);
+        assertThrows(IllegalArgumentException.class, () -> NbtBinary.decode(new byte[0]));
+        byte[] badMagic = data.clone();
+        badMagic[0] = 'X';
+        assertThrows(IllegalArgumentException.class, () -> NbtBinary.decode(badMagic));
+        byte[] badVersion = data.clone();
+        badVersion[3] = 99;
+        assertThrows(IllegalArgumentException.class, () -> NbtBinary.decode(badVersion));
+    }
+
+    @Test
+    void truncated() {
+        for (boolean deflate : new boolean[] {false, true}) {
+            byte[] data = NbtBinary.encode(List.of(sample()), deflate);
+            for (int len = 0; len < data.length; len += 1) {
+                byte[] prefix = Arrays.copyOf(data, len);
+                assertThrows(IllegalArgumentException.class, () -> NbtBinary.decode(prefix),
+                             "length " + len + " of " + data.length);
+            }
+        }
+    }
+
+    /**
+     * Every single byte corruption either decodes to something or is
+     * rejected with IllegalArgumentException.
+     */
+    @Test
+    void corrupt() {
+        byte[] data = NbtBinary.encode(List.of(sample()), false);
+        for (int i = 5; i < data.length; i += 1) {
+            for (int b : new int[] {0x00, 0x01, 0x7F, 0x80, 0xFF, data[i] ^ 0x40}) {
+                byte[] corrupt = data.clone();
+                corrupt[i] = (byte) b;
+                try {
+                    NbtBinary.decode(corrupt);
+                } catch (IllegalArgumentException iae) {
+                    // Rejected, as expected
+                }
+            }
+        }
+    }
+
+    @Test
+    void hostileCounts() {
+        // Header, then a string count of Integer.MAX_VALUE.
+        byte[] strings = {'D', 'N', 'B', 1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07};
+        assertThrows(IllegalArgumentException.class, () -> NbtBinary.decode(strings));
+        // Header, no strings, one compound with a negative entry count.
+        byte[] entries = {'D', 'N', 'B', 1, 0, 0, 1, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F};
+        assertThrows(IllegalArgumentException.class, () -> NbtBinary.decode(entries));
+        // Header, no strings, one compound with a key index out of range.
+        byte[] key = {'D', 'N', 'B', 1, 0, 0, 1, 1, 1, 5, 1, 0};
+        assertThrows(IllegalArgumentException.class, () -> NbtBinary.decode(key));
+    }
+
+    @Test
+    void deflateBomb() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(new byte[] {'D', 'N', 'B', 1, 1});
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bytes)) {
+            byte[] zeros = new byte[1 << 20];
+            for (int i = 0; i <= NbtBinary.MAX_INFLATED_SIZE >> 20; i += 1) out.write(zeros);
+        }
+        byte[] data = bytes.toByteArray();
+        assertTrue(data.length < 1 << 20);
+        assertThrows(IllegalArgumentException.class, () -> NbtBinary.decode(data));
+    }
+
+    @Test
+    void tooDeep() {
+        NBTTagList list = new NBTTagList();
+        for (int i = 0; i < 1000; i += 1) {
+            NBTTagList outer = new NBTTagList();
+            outer.add(list);
+            list = outer;
+        }
+        NBTTagCompound tag = new NBTTagCompound();
+        tag.a("deep", list); // set
+        byte[] data = NbtBinary.encode(List.of(tag), true);
+        assertThrows(IllegalArgumentException.class, () -> NbtBinary.decode(data));
+    }
+}
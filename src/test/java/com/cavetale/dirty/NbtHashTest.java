@@ -0,0 +1,79 @@
+package com.cavetale.dirty;
+
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+final class NbtHashTest {
+    static NBTTagCompound withNaN() {
+        NBTTagCompound tag = NbtBinaryTest.sample();
+        tag.a("Float", NBTTagFloat.a(Float.NaN)); // set
+        NBTTagList pos = new NBTTagList();
+        pos.add(NBTTagDouble.a(Double.NaN));
+        tag.a("Pos", pos); // set
+        return tag;
+    }
+
+    @Test
+    void keyOrder() {
+        NBTTagCompound a = new NBTTagCompound();
+        a.a("x", NBTTagInt.a(1)); // set
+        a.a("y", NBTTagString.a("2")); // set
+        NBTTagCompound b = new NBTTagCompound();
+        b.a("y", NBTTagString.a("2")); // set
+        b.a("x", NBTTagInt.a(1)); // set
+        assertEquals(NbtHash.of(a), NbtHash.of(b));
+        assertTrue(NbtHash.equal(a, b));
+    }
+
+    @Test
+    void types() {
+        assertNotEquals(NbtHash.of(NBTTagInt.a(1)), NbtHash.of(NBTTagByte.a((byte) 1)));
+        assertFalse(NbtHash.equal(NBTTagInt.a(1), NBTTagByte.a((byte) 1)));
+        assertNotEquals(NbtHash.of(NBTTagString.a("1")), NbtHash.of(NBTTagInt.a(1)));
+        NBTTagCompound swapped = new NBTTagCompound();
+        swapped.a("a", NBTTagString.a("b")); // set
+        NBTTagCompound other = new NBTTagCompound();
+        other.a("b", NBTTagString.a("a")); // set
+        assertNotEquals(NbtHash.of(swapped), NbtHash.of(other));
+        assertFalse(NbtHash.equal(swapped, other));
+        assertFalse(NbtHash.equal(swapped, null));
+        assertTrue(NbtHash.equal(null, null));
+    }
+
+    @Test
+    void bitwiseFloats() {
+        assertNotEquals(withNaN(), withNaN());
+        assertTrue(NbtHash.equal(withNaN(), withNaN()));
+        assertEquals(NbtHash.of(withNaN()), NbtHash.of(withNaN()));
+        assertFalse(NbtHash.equal(NBTTagDouble.a(0.0), NBTTagDouble.a(-0.0)));
+        assertNotEquals(NbtHash.of(NBTTagDouble.a(0.0)), NbtHash.of(NBTTagDouble.a(-0.0)));
+    }
+
+    @Test
+    void deepEqual() {
+        NBTTagCompound a = NbtBinaryTest.sample();
+        NBTTagCompound b = NbtBinaryTest.sample();
+        assertTrue(NbtHash.equal(a, b));
+        assertEquals(NbtHash.of(a), NbtHash.of(b));
+        ((NBTTagList) ((NBTTagCompound) b.x.get("display")).x.get("Lore")).add(NBTTagString.a("x"));
+        assertFalse(NbtHash.equal(a, b));
+        assertNotEquals(NbtHash.of(a), NbtHash.of(b));
+    }
+
+    @Test
+    void string() {
+        NbtHash hash = NbtHash.of(NbtBinaryTest.sample());
+        assertEquals(32, hash.toString().length());
+        assertEquals(hash, NbtHash.parse(hash.toString()));
+        assertEquals("0000000000000001000000000000000f", new NbtHash(1L, 15L).toString());
+        assertThrows(IllegalArgumentException.class, () -> NbtHash.parse("12"));
+        assertThrows(IllegalArgumentException.class, () -> NbtHash.parse("x".repeat(32)));
+    }
+}
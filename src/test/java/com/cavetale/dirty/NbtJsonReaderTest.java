@@ -0,0 +1,123 @@
+package com.cavetale.dirty;
+
+import com.google.gson.stream.JsonReader;
+import java.io.IOException;
+import java.io.StringReader;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLong;
+import net.minecraft.nbt.NBTTagLongArray;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+final class NbtJsonReaderTest {
+    static NBTTagCompound read(String json) throws IOException {
+        return NbtJsonReader.readCompound(new JsonReader(new StringReader(json)));
+    }
+
+    static NBTBase get(String json, String key) throws IOException {
+        return read(json).x.get(key);
+    }
+
+    @Test
+    void scalarHints() throws IOException {
+        assertEquals(NBTTagByte.a((byte) 1), get("{\"a#b\":1}", "a"));
+        assertEquals(NBTTagShort.a((short) -2), get("{\"a#s\":-2}", "a"));
+        assertEquals(NBTTagInt.a(3), get("{\"a#i\":3}", "a"));
+        assertEquals(NBTTagLong.a(4L), get("{\"a#l\":4}", "a"));
+        assertEquals(NBTTagFloat.a(0.5f), get("{\"a#f\":0.5}", "a"));
+        assertEquals(NBTTagDouble.a(6.0), get("{\"a#d\":6}", "a"));
+        assertEquals(NBTTagString.a("7"), get("{\"a#t\":7}", "a"));
+        assertEquals(new NBTTagCompound(), get("{\"a#c\":{}}", "a"));
+    }
+
+    @Test
+    void stringNumbers() throws IOException {
+        // Typed JSON writes non-finite and long values as strings.
+        assertEquals(NBTTagLong.a(Long.MAX_VALUE), get("{\"a#l\":\"9223372036854775807\"}", "a"));
+        assertEquals(NBTTagDouble.a(Double.POSITIVE_INFINITY), get("{\"a#d\":\"Infinity\"}", "a"));
+        assertEquals(NBTTagString.a("1"), get("{\"a\":\"1\"}", "a"));
+    }
+
+    @Test
+    void arrayHints() throws IOException {
+        assertEquals(new NBTTagByteArray(new byte[] {1, 2}), get("{\"a#B\":[1,2]}", "a"));
+        assertEquals(new NBTTagIntArray(new int[] {3}), get("{\"a#I\":[3]}", "a"));
+        assertEquals(new NBTTagLongArray(new long[0]), get("{\"a#L\":[]}", "a"));
+    }
+
+    @Test
+    void listHints() throws IOException {
+        NBTTagList shorts = new NBTTagList();
+        shorts.add(NBTTagShort.a((short) 1));
+        shorts.add(NBTTagShort.a((short) 2));
+        assertEquals(shorts, get("{\"a#[s\":[1,2]}", "a"));
+        NBTTagList inner = new NBTTagList();
+        inner.add(NBTTagByte.a((byte) 5));
+        NBTTagList nested = new NBTTagList();
+        nested.add(inner);
+        assertEquals(nested, get("{\"a#[[b\":[[5]]}", "a"));
+        assertEquals(new NBTTagList(), get("{\"a#[\":[]}", "a"));
+    }
+
+    @Test
+    void inference() throws IOException {
+        assertEquals(NBTTagInt.a(1), get("{\"a\":1}", "a"));
+        assertEquals(NBTTagLong.a(3000000000L), get("{\"a\":3000000000}", "a"));
+        assertEquals(NBTTagDouble.a(1.5), get("{\"a\":1.5}", "a"));
+        assertEquals(NBTTagInt.a(1), get("{\"a\":true}", "a"));
+        assertNull(get("{\"a\":null}", "a"));
+        NBTTagList doubles = new NBTTagList();
+        doubles.add(NBTTagDouble.a(1.0));
+        doubles.add(NBTTagDouble.a(2.5));
+        assertEquals(doubles, get("{\"a\":[1,2.5]}", "a"));
+        NBTTagList longs = new NBTTagList();
+        longs.add(NBTTagLong.a(1L));
+        longs.add(NBTTagLong.a(3000000000L));
+        assertEquals(longs, get("{\"a\":[1,3000000000]}", "a"));
+    }
+
+    @Test
+    void keys() throws IOException {
+        // Not a hint, so part of the key.
+        assertEquals(NBTTagInt.a(1), get("{\"a#x\":1}", "a#x"));
+        assertEquals(NBTTagInt.a(1), get("{\"#\":1}", "#"));
+        // Only the last '#' starts a hint.
+        assertEquals(NBTTagByte.a((byte) 1), get("{\"a#b#b\":1}", "a#b"));
+    }
+
+    @Test
+    void rejected() {
+        assertThrows(IllegalArgumentException.class, () -> read("{\"a#b\":\"x\"}"));
+        assertThrows(IllegalArgumentException.class, () -> read("{\"a#c\":1}"));
+        assertThrows(IllegalArgumentException.class, () -> read("{\"a\":[1,\"x\"]}"));
+        assertThrows(IllegalArgumentException.class, () -> read("{\"a#i\":\"-\"}"));
+        assertThrows(IllegalArgumentException.class, () -> read("{\"a#d\":\"-\"}"));
+        assertThrows(IllegalArgumentException.class, () -> read("{\"a#f\":\"\"}"));
+    }
+
+    @Test
+    void ranges() throws IOException {
+        assertEquals(NBTTagByte.a((byte) -128), get("{\"a#b\":-128}", "a"));
+        assertEquals(NBTTagShort.a((short) 32767), get("{\"a#s\":32767}", "a"));
+        assertEquals(NBTTagInt.a(Integer.MIN_VALUE), get("{\"a#i\":-2147483648}", "a"));
+        assertEquals(NBTTagLong.a(Long.MIN_VALUE), get("{\"a#l\":-9223372036854775808}", "a"));
+        // Fractions are truncated toward zero.
+        assertEquals(NBTTagInt.a(-2), get("{\"a#i\":-2.9}", "a"));
+        assertEquals(NBTTagByte.a((byte) 127), get("{\"a#b\":127.5}", "a"));
+        for (String json : new String[] {"{\"a#b\":128}", "{\"a#s\":-32769}", "{\"a#i\":2147483648}",
+                                         "{\"a#i\":3e9}", "{\"a#l\":9223372036854775808}",
+                                         "{\"a#l\":1e19}", "{\"a#i\":\"NaN\"}", "{\"a#B\":[128]}"}) {
+            assertThrows(IllegalArgumentException.class, () -> read(json), json);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.cavetale.dirty;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+final class NbtPatchTest {
+    static NBTTagCompound enchantment(String id, int lvl) {
+        NBTTagCompound tag = new NBTTagCompound();
+        tag.a("id", NBTTagString.a(id)); // set
+        tag.a("lvl", NBTTagShort.a((short) lvl)); // set
+        return tag;
+    }
+
+    static NBTTagCompound from() {
+        NBTTagCompound tag = NbtBinaryTest.sample();
+        NBTTagList enchantments = (NBTTagList) tag.x.get("Enchantments");
+        enchantments.add(enchantment("minecraft:unbreaking", 3));
+        enchantments.add(enchantment("minecraft:mending", 1));
+        tag.a("Damage", NBTTagInt.a(10)); // set
+        return tag;
+    }
+
+    static NBTTagCompound to() {
+        NBTTagCompound tag = from();
+        tag.x.remove("Damage");
+        tag.a("Unbreakable", NBTTagInt.a(1)); // set
+        tag.a("id", NBTTagString.a("minecraft:netherite_sword")); // set
+        ((NBTTagCompound) tag.x.get("display")).a("Name", NBTTagString.a("{\"text\":\"Blade\"}")); // set
+        NBTTagList enchantments = (NBTTagList) tag.x.get("Enchantments");
+        enchantments.remove(1);
+        enchantments.add(1, enchantment("minecraft:looting", 2));
+        enchantments.add(2, enchantment("minecraft:fire_aspect", 2));
+        return tag;
+    }
+
+    static void assertTransforms(NbtPatch patch, NBTTagCompound from, NBTTagCompound to) {
+        NBTTagCompound target = (NBTTagCompound) from.c(); // copy
+        patch.apply(target);
+        assertEquals(to, target);
+    }
+
+    @Test
+    void diffApply() {
+        NbtPatch patch = NbtPatch.diff(from(), to());
+        assertFalse(patch.isEmpty());
+        assertTransforms(patch, from(), to());
+        assertTransforms(NbtPatch.diff(to(), from()), to(), from());
+        assertTrue(NbtPatch.diff(from(), from()).isEmpty());
+    }
+
+    @Test
+    void diffLists() {
+        NbtPatch patch = NbtPatch.diff(from(), to());
+        // One splice of the changed middle of the list, not a new list.
+        assertEquals(5, patch.size());
+        NBTTagCompound shorter = from();
+        ((NBTTagList) shorter.x.get("Enchantments")).remove(0);
+        assertTransforms(NbtPatch.diff(from(), shorter), from(), shorter);
+        assertTransforms(NbtPatch.diff(shorter, from()), shorter, from());
+    }
+
+    @Test
+    void applyCopies() {
+        NbtPatch patch = NbtPatch.diff(new NBTTagCompound(), from());
+        NBTTagCompound a = new NBTTagCompound();
+        NBTTagCompound b = new NBTTagCompound();
+        patch.apply(a);
+        patch.apply(b);
+        ((NBTTagCompound) a.x.get("display")).x.clear();
+        assertEquals(from(), b);
+    }
+
+    @Test
+    void serialize() {
+        NbtPatch patch = NbtPatch.diff(from(), to());
+        assertTransforms(NbtPatch.fromNbt(patch.toNbt()), from(), to());
+        assertTransforms(NbtPatch.fromBytes(patch.toBytes()), from(), to());
+        assertEquals(patch.toNbt(), NbtPatch.fromBytes(patch.toBytes()).toNbt());
+    }
+
+    @Test
+    void malformed() {
+        assertThrows(IllegalArgumentException.class, () -> NbtPatch.fromNbt(new NBTTagCompound()));
+        NBTTagCompound tag = NbtPatch.diff(from(), to()).toNbt();
+        NBTTagCompound op = (NBTTagCompound) ((NBTTagList) tag.x.get("ops")).get(0);
+        op.a("op", NBTTagString.a("move")); // set
+        assertThrows(IllegalArgumentException.class, () -> NbtPatch.fromNbt(tag));
+        op.a("op", NBTTagString.a("set")); // set
+        op.a("path", NBTTagString.a("a[")); // set
+        assertThrows(IllegalArgumentException.class, () -> NbtPatch.fromNbt(tag));
+        assertThrows(IllegalArgumentException.class, () -> NbtPatch.fromBytes(new byte[] {1, 2, 3}));
+    }
+}
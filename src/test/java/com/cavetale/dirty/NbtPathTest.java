@@ -0,0 +1,133 @@
+package com.cavetale.dirty;
+
+import java.util.List;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+final class NbtPathTest {
+    /**
+     * A chest with stone, diamond and stone, counts 5, 15 and 25.
+     */
+    static NBTTagCompound chest() {
+        NBTTagCompound root = new NBTTagCompound();
+        root.a("id", NBTTagString.a("minecraft:chest")); // set
+        NBTTagList items = new NBTTagList();
+        for (int i = 0; i < 3; i += 1) {
+            NBTTagCompound item = new NBTTagCompound();
+            item.a("id", NBTTagString.a(i == 1 ? "minecraft:diamond" : "minecraft:stone")); // set
+            item.a("Count", NBTTagByte.a((byte) (10 * i + 5))); // set
+            items.add(item);
+        }
+        root.a("Items", items); // set
+        root.a("CustomName", NBTTagString.a("{\"text\":\"Chest\"}")); // set
+        return root;
+    }
+
+    static NBTBase get(String expression) {
+        return NbtPath.compile(expression).get(chest());
+    }
+
+    static NBTTagCompound item(NBTTagCompound root, int index) {
+        return (NBTTagCompound) ((NBTTagList) root.x.get("Items")).get(index);
+    }
+
+    @Test
+    void keys() {
+        assertEquals(NBTTagString.a("minecraft:chest"), get("id"));
+        assertNull(get("Lock"));
+        assertNull(get("id.x"));
+        NBTTagCompound root = new NBTTagCompound();
+        NBTTagCompound inner = new NBTTagCompound();
+        inner.a("a.b", NBTTagString.a("dot")); // set
+        root.a("*", inner); // set
+        assertEquals(NBTTagString.a("dot"), NbtPath.compile("\"*\".\"a.b\"").get(root));
+    }
+
+    @Test
+    void indexes() {
+        assertEquals(NBTTagString.a("minecraft:stone"), get("Items[0].id"));
+        assertEquals(NBTTagString.a("minecraft:diamond"), get("Items[1].id"));
+        assertEquals(NBTTagByte.a((byte) 25), get("Items[-1].Count"));
+        assertNull(get("Items[3]"));
+        assertNull(get("Items[-4]"));
+        assertNull(get("id[0]"));
+    }
+
+    @Test
+    void wildcards() {
+        NBTTagCompound root = chest();
+        assertEquals(3, NbtPath.compile("Items[*]").getAll(root).size());
+        assertEquals(List.of(NBTTagByte.a((byte) 5), NBTTagByte.a((byte) 15), NBTTagByte.a((byte) 25)),
+                     NbtPath.compile("Items[*].Count").getAll(root));
+        assertEquals(3, NbtPath.compile("*").getAll(root).size());
+        assertTrue(NbtPath.compile("Items[*].id").exists(root));
+        assertFalse(NbtPath.compile("Items[*].tag").exists(root));
+    }
+
+    @Test
+    void filters() {
+        assertEquals(NBTTagByte.a((byte) 15), get("Items[id=minecraft:diamond].Count"));
+        assertEquals(NBTTagString.a("minecraft:diamond"), get("Items[Count=15].id"));
+        assertEquals(NBTTagString.a("minecraft:diamond"), get("Items[Count=15.0].id"));
+        assertEquals(NBTTagByte.a((byte) 5), get("Items[id=\"minecraft:stone\"].Count"));
+        assertNull(get("Items[id=minecraft:air]"));
+        assertEquals(2, NbtPath.compile("Items[id=minecraft:stone]").getAll(chest()).size());
+    }
+
+    @Test
+    void set() {
+        NBTTagCompound root = chest();
+        assertEquals(3, NbtPath.compile("Items[*].Count").set(root, NBTTagByte.a((byte) 1)));
+        assertEquals(NBTTagByte.a((byte) 1), item(root, 2).x.get("Count"));
+        // Missing compounds are created.
+        assertEquals(1, NbtPath.compile("display.Name").set(root, NBTTagString.a("x")));
+        assertEquals(NBTTagString.a("x"), NbtPath.compile("display.Name").get(root));
+        // Every match but the first gets a copy.
+        NBTTagCompound tag = new NBTTagCompound();
+        NbtPath.compile("Items[*].tag").set(root, tag);
+        assertSame(tag, item(root, 0).x.get("tag"));
+        assertNotSame(tag, item(root, 1).x.get("tag"));
+        assertEquals(tag, item(root, 1).x.get("tag"));
+        assertEquals(0, NbtPath.compile("Items[5].id").set(root, NBTTagString.a("x")));
+    }
+
+    @Test
+    void remove() {
+        NBTTagCompound root = chest();
+        assertEquals(2, NbtPath.compile("Items[id=minecraft:stone]").remove(root));
+        assertEquals(1, ((NBTTagList) root.x.get("Items")).size());
+        assertEquals(NBTTagString.a("minecraft:diamond"), item(root, 0).x.get("id"));
+        assertEquals(1, NbtPath.compile("CustomName").remove(root));
+        assertEquals(0, NbtPath.compile("CustomName").remove(root));
+    }
+
+    @Test
+    void quoteKey() {
+        for (String key : new String[] {"plain", "a.b", "[x]", "*", "", "say \"hi\"", "back\\slash"}) {
+            NBTTagCompound root = new NBTTagCompound();
+            root.a(key, NBTTagString.a("v")); // set
+            String expression = NbtPath.quoteKey(key);
+            assertEquals(NBTTagString.a("v"), NbtPath.compile(expression).get(root), expression);
+        }
+        assertEquals("plain", NbtPath.quoteKey("plain"));
+    }
+
+    @Test
+    void malformed() {
+        for (String expression : new String[] {"", ".", "a.", "a..b", ".a", "a[", "a[x]", "\"a", "a[0]b"}) {
+            assertThrows(IllegalArgumentException.class, () -> NbtPath.compile(expression), expression);
+        }
+    }
+
+    @Test
+    void cached() {
+        assertSame(NbtPath.compile("Items[0].id"), NbtPath.compile("Items[0].id"));
+        assertNotSame(NbtPath.compileUncached("id"), NbtPath.compileUncached("id"));
+        assertEquals("Items[0].id", NbtPath.compile("Items[0].id").toString());
+    }
+}
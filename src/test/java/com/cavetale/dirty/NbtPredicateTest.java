@@ -0,0 +1,84 @@
+package com.cavetale.dirty;
+
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+final class NbtPredicateTest {
+    static NBTTagCompound chest() {
+        NBTTagCompound root = new NBTTagCompound();
+        root.a("id", NBTTagString.a("minecraft:chest")); // set
+        NBTTagList items = new NBTTagList();
+        for (int i = 0; i < 3; i += 1) {
+            NBTTagCompound item = new NBTTagCompound();
+            item.a("id", NBTTagString.a(i == 1 ? "minecraft:diamond" : "minecraft:stone")); // set
+            item.a("Count", NBTTagByte.a((byte) (10 * i + 5))); // set
+            items.add(item);
+        }
+        root.a("Items", items); // set
+        root.a("CustomName", NBTTagString.a("{\"text\":\"Dragon Loot\"}")); // set
+        return root;
+    }
+
+    static boolean test(String expression) {
+        return NbtPredicate.compile(expression).test(chest());
+    }
+
+    @Test
+    void exists() {
+        assertTrue(test("Items"));
+        assertFalse(test("Lock"));
+        assertTrue(test("!Lock"));
+        assertFalse(test("!Items"));
+    }
+
+    @Test
+    void equality() {
+        assertTrue(test("id=minecraft:chest"));
+        assertFalse(test("id=minecraft:barrel"));
+        assertTrue(test("Items[*].id=minecraft:diamond"));
+        assertTrue(test("Items[*].Count=15"));
+        assertTrue(test("Items[*].Count=15.0"));
+        assertTrue(test("Items[*].id!=minecraft:air"));
+        assertFalse(test("Items[*].id!=minecraft:stone"));
+        assertTrue(test("CustomName=\"{\\\"text\\\":\\\"Dragon Loot\\\"}\""));
+    }
+
+    @Test
+    void comparison() {
+        assertTrue(test("Items[*].Count>20"));
+        assertFalse(test("Items[*].Count>=26"));
+        assertTrue(test("Items[*].Count>=25"));
+        assertTrue(test("Items[*].Count<6"));
+        assertFalse(test("Items[*].Count<5"));
+        assertTrue(test("Items[*].Count<=5"));
+        assertFalse(test("id>0"));
+    }
+
+    @Test
+    void regex() {
+        assertTrue(test("CustomName~(?i)dragon"));
+        assertFalse(test("CustomName~^dragon"));
+    }
+
+    @Test
+    void conjunction() {
+        assertTrue(test("Items[id=minecraft:diamond].Count<16 && id=minecraft:chest"));
+        assertFalse(test("Items[id=minecraft:diamond].Count<16 && id=minecraft:barrel"));
+    }
+
+    @Test
+    void malformed() {
+        for (String expression : new String[] {"", "a && ", "&& a", "x>abc", "x~(", "a["}) {
+            assertThrows(IllegalArgumentException.class, () -> NbtPredicate.compile(expression), expression);
+        }
+    }
+
+    @Test
+    void string() {
+        assertEquals("id=minecraft:chest && !Lock", NbtPredicate.compile("id=minecraft:chest && !Lock").toString());
+    }
+}
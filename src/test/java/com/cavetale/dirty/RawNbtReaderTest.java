@@ -0,0 +1,65 @@
+package com.cavetale.dirty;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+final class RawNbtReaderTest {
+    /**
+     * A root compound with one entry of the given type, followed by
+     * the given ints, as the start of its payload.
+     */
+    static byte[] root(int type, int... ints) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(10);
+        out.writeUTF("");
+        out.writeByte(type);
+        out.writeUTF("a");
+        if (type == 9) out.writeByte(1);
+        for (int i : ints) out.writeInt(i);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void read() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(10);
+        out.writeUTF("");
+        out.writeByte(8);
+        out.writeUTF("id");
+        out.writeUTF("minecraft:chest");
+        out.writeByte(9);
+        out.writeUTF("list");
+        out.writeByte(3);
+        out.writeInt(2);
+        out.writeInt(1);
+        out.writeInt(2);
+        out.writeByte(11);
+        out.writeUTF("ints");
+        out.writeInt(1);
+        out.writeInt(7);
+        out.writeByte(0);
+        Map<String, Object> root = RawNbtReader.readRoot(bytes.toByteArray());
+        assertEquals("minecraft:chest", root.get("id"));
+        assertEquals(List.of(1, 2), root.get("list"));
+        assertArrayEquals(new int[] {7}, (int[]) root.get("ints"));
+    }
+
+    @Test
+    void hostileLengths() {
+        for (int type : new int[] {7, 9, 11, 12}) {
+            for (int length : new int[] {-1, Integer.MAX_VALUE, 1 << 20}) {
+                assertThrows(IOException.class, () -> RawNbtReader.readRoot(root(type, length)),
+                             type + ": " + length);
+            }
+        }
+        // Two ints announced, one present.
+        assertThrows(IOException.class, () -> RawNbtReader.readRoot(root(11, 2, 0)));
+    }
+}
@@ -0,0 +1,17 @@
+package com.cavetale.dirty;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+final class RegionScannerTest {
+    @Test
+    void structureNames() {
+        assertEquals("jigsaw", RegionScanner.structureName("minecraft:village_plains"));
+        assertEquals("jigsaw", RegionScanner.structureName("minecraft:bastion_remnant"));
+        assertEquals("ocean_monument", RegionScanner.structureName("minecraft:monument"));
+        assertEquals("nether_fortress", RegionScanner.structureName("fortress"));
+        assertEquals("woodland_mansion", RegionScanner.structureName("minecraft:mansion"));
+        assertEquals("ruined_portal", RegionScanner.structureName("minecraft:ruined_portal_nether"));
+        assertEquals("my_pack:tower", RegionScanner.structureName("my_pack:tower"));
+    }
+}
@@ -0,0 +1,157 @@
+package com.cavetale.dirty;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+final class RegionSnapshotTest {
+    static final List<String> PALETTE = List.of("minecraft:air", "minecraft:stone", "minecraft:dirt",
+                                                "minecraft:chest[facing=north]");
+
+    /**
+     * A 20x3x5 box at -8,60,0, spanning two sections: one mixed, one
+     * all dirt, with a chest and an entity.
+     */
+    static RegionSnapshot sample() {
+        int[] values = new int[4096];
+        for (int i = 0; i < values.length; i += 1) values[i] = i % 3;
+        int[] sectionPalette = {0, 1, 3};
+        int bits = RegionSnapshot.bitsFor(sectionPalette.length);
+        RegionSnapshot.Section mixed = new RegionSnapshot.Section(-1, 3, 0, sectionPalette, bits,
+                                                                  RegionSnapshot.pack(values, bits));
+        RegionSnapshot.Section dirt = new RegionSnapshot.Section(0, 3, 0, new int[] {2}, 0, null);
+        NBTTagCompound chest = new NBTTagCompound();
+        chest.a("id", NBTTagString.a("minecraft:chest")); // set
+        chest.a("Items", new NBTTagList()); // set
+        NBTTagCompound entity = new NBTTagCompound();
+        entity.a("id", NBTTagString.a("minecraft:pig")); // set
+        NBTTagList pos = new NBTTagList();
+        pos.add(NBTTagDouble.a(1.5));
+        pos.add(NBTTagDouble.a(0.0));
+        pos.add(NBTTagDouble.a(2.5));
+        entity.a("Pos", pos); // set
+        return new RegionSnapshot(-8, 60, 0, 20, 3, 5, PALETTE, List.of(mixed, dirt),
+                                  Map.of(2 + 20 * (1 + 5 * 1), chest), List.of(entity));
+    }
+
+    static byte[] write(RegionSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        snapshot.write(out);
+        return out.toByteArray();
+    }
+
+    static RegionSnapshot read(byte[] data) throws IOException {
+        return RegionSnapshot.read(new ByteArrayInputStream(data));
+    }
+
+    @Test
+    void pack() {
+        for (int paletteSize : new int[] {2, 3, 5, 16, 17, 300}) {
+            int bits = RegionSnapshot.bitsFor(paletteSize);
+            int[] palette = new int[paletteSize];
+            for (int i = 0; i < paletteSize; i += 1) palette[i] = i;
+            int[] values = new int[4096];
+            for (int i = 0; i < values.length; i += 1) values[i] = (i * 7) % paletteSize;
+            RegionSnapshot.Section section = new RegionSnapshot.Section(0, 0, 0, palette, bits,
+                                                                        RegionSnapshot.pack(values, bits));
+            for (int i = 0; i < values.length; i += 1) assertEquals(values[i], section.get(i));
+        }
+        assertEquals(0, RegionSnapshot.bitsFor(1));
+        assertNull(RegionSnapshot.pack(new int[4096], 0));
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        RegionSnapshot snapshot = sample();
+        RegionSnapshot copy = read(write(snapshot));
+        assertEquals(snapshot.getPalette(), copy.getPalette());
+        assertEquals(snapshot.getSections().size(), copy.getSections().size());
+        for (int y = 0; y < 3; y += 1) {
+            for (int z = 0; z < 5; z += 1) {
+                for (int x = 0; x < 20; x += 1) {
+                    assertEquals(snapshot.getBlockData(x, y, z), copy.getBlockData(x, y, z));
+                }
+            }
+        }
+        assertEquals("minecraft:dirt", copy.getBlockData(19, 0, 0));
+        assertEquals(snapshot.getBlockEntities(), copy.getBlockEntities());
+        assertEquals(snapshot.getEntities(), copy.getEntities());
+        assertArrayEquals(write(snapshot), write(copy));
+    }
+
+    @Test
+    void rejected() throws IOException {
+        byte[] data = write(sample());
+        byte[] badMagic = data.clone();
+        badMagic[0] = 'X';
+        assertThrows(IOException.class, () -> read(badMagic));
+        // Reading stops at the end of the entities, before the zlib
+        // trailer, so a prefix missing only the trailer reads fine.
+        for (int len = 0; len < data.length; len += 1) {
+            RegionSnapshot copy;
+            try {
+                copy = read(Arrays.copyOf(data, len));
+            } catch (IOException ioe) {
+                continue;
+            }
+            assertTrue(len > data.length - 8, "length " + len + " of " + data.length);
+            assertEquals(sample().getEntities(), copy.getEntities());
+        }
+    }
+
+    /**
+     * Write a container of a 1x1x1 box without palette or sections,
+     * then the given tile entity indexes.
+     */
+    static byte[] withIndexes(int count, int... indexes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[] {'D', 'R', 'S', 1});
+        DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out);
+        DataOutputStream data = new DataOutputStream(deflaterOut);
+        for (int i : new int[] {0, 0, 0, 1, 1, 1, 0, 0, count}) data.writeInt(i);
+        for (int i : indexes) data.writeInt(i);
+        data.flush();
+        deflaterOut.finish();
+        return out.toByteArray();
+    }
+
+    @Test
+    void hostileIndexes() throws IOException {
+        assertThrows(IOException.class, () -> read(withIndexes(Integer.MAX_VALUE)));
+        assertThrows(IOException.class, () -> read(withIndexes(-1)));
+        assertThrows(IOException.class, () -> read(withIndexes(1, 1)));
+        assertThrows(IOException.class, () -> read(withIndexes(1, -1)));
+    }
+
+    /**
+     * A section of 3 palette entries takes 2 bits per block, so a
+     * packed value of 3 is past its palette.
+     */
+    @Test
+    void hostileBlockIndex() throws IOException {
+        int[] values = new int[4096];
+        values[4095] = 3;
+        RegionSnapshot.Section section = new RegionSnapshot.Section(0, 3, 0, new int[] {0, 1, 2}, 2,
+                                                                    RegionSnapshot.pack(values, 2));
+        RegionSnapshot snapshot = new RegionSnapshot(0, 60, 0, 1, 1, 1, PALETTE, List.of(section),
+                                                     Map.of(), List.of());
+        byte[] data = write(snapshot);
+        IOException ioe = assertThrows(IOException.class, () -> read(data));
+        assertEquals("RegionSnapshot.read: Bad block index: 3", ioe.getMessage());
+        values[4095] = 2;
+        RegionSnapshot.Section valid = new RegionSnapshot.Section(0, 3, 0, new int[] {0, 1, 2}, 2,
+                                                                  RegionSnapshot.pack(values, 2));
+        read(write(new RegionSnapshot(0, 60, 0, 1, 1, 1, PALETTE, List.of(valid), Map.of(), List.of())));
+    }
+}
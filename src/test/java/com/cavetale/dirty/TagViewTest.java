@@ -0,0 +1,93 @@
+package com.cavetale.dirty;
+
+import java.util.List;
+import java.util.Map;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+final class TagViewTest {
+    static NBTTagCompound sample() {
+        NBTTagCompound tag = new NBTTagCompound();
+        tag.a("id", NBTTagString.a("minecraft:chest")); // set
+        tag.a("Count", NBTTagInt.a(3)); // set
+        NBTTagList lore = new NBTTagList();
+        lore.add(NBTTagString.a("a"));
+        lore.add(NBTTagString.a("b"));
+        NBTTagCompound display = new NBTTagCompound();
+        display.a("Lore", lore); // set
+        tag.a("display", display); // set
+        return tag;
+    }
+
+    @Test
+    void read() {
+        Map<String, Object> view = new TagView(sample());
+        assertEquals(3, view.size());
+        assertEquals("minecraft:chest", view.get("id"));
+        assertEquals(3, view.get("Count"));
+        assertNull(view.get("Lock"));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> display = (Map<String, Object>) view.get("display");
+        assertEquals(List.of("a", "b"), display.get("Lore"));
+    }
+
+    @Test
+    void writeThrough() {
+        NBTTagCompound tag = sample();
+        Map<String, Object> view = new TagView(tag);
+        assertEquals(3, view.put("Count", 5));
+        assertEquals(NBTTagInt.a(5), tag.x.get("Count"));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> display = (Map<String, Object>) view.get("display");
+        @SuppressWarnings("unchecked")
+        List<Object> lore = (List<Object>) display.get("Lore");
+        lore.add(1, "c");
+        lore.set(0, "d");
+        assertEquals("b", lore.remove(2));
+        NBTTagList expected = new NBTTagList();
+        expected.add(NBTTagString.a("d"));
+        expected.add(NBTTagString.a("c"));
+        assertEquals(expected, ((NBTTagCompound) tag.x.get("display")).x.get("Lore"));
+        assertEquals("minecraft:chest", view.remove("id"));
+        assertFalse(tag.x.containsKey("id"));
+    }
+
+    @Test
+    void putNullRemoves() {
+        NBTTagCompound tag = sample();
+        Map<String, Object> view = new TagView(tag);
+        assertEquals("minecraft:chest", view.put("id", null));
+        assertFalse(tag.x.containsKey("id"));
+        assertNull(view.put("Lock", null));
+        assertFalse(tag.x.containsKey("Lock"));
+        assertEquals(2, view.size());
+    }
+
+    @Test
+    void nullElementsRejected() {
+        NBTTagCompound tag = sample();
+        Map<String, Object> view = new TagView(tag);
+        @SuppressWarnings("unchecked")
+        List<Object> lore = (List<Object>) ((Map<String, Object>) view.get("display")).get("Lore");
+        assertThrows(NullPointerException.class, () -> lore.add(null));
+        assertThrows(NullPointerException.class, () -> lore.add(0, null));
+        assertThrows(NullPointerException.class, () -> lore.set(0, null));
+        assertEquals(List.of("a", "b"), lore);
+        Map.Entry<String, Object> entry = view.entrySet().iterator().next();
+        assertThrows(NullPointerException.class, () -> entry.setValue(null));
+        assertEquals(3, tag.x.size());
+    }
+
+    @Test
+    void viewsAreCopied() {
+        NBTTagCompound tag = sample();
+        Map<String, Object> view = new TagView(tag);
+        view.put("copy", view.get("display"));
+        assertEquals(tag.x.get("display"), tag.x.get("copy"));
+        assertNotSame(tag.x.get("display"), tag.x.get("copy"));
+    }
+}
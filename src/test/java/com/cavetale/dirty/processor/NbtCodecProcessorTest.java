@@ -0,0 +1,207 @@
+package com.cavetale.dirty.processor;
+
+import com.cavetale.dirty.NbtCodec;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagString;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+final class NbtCodecProcessorTest {
+    static final String QUEST = String.join("\n",
+        "package demo;",
+        "import com.cavetale.dirty.NbtName;",
+        "import com.cavetale.dirty.NbtSerializable;",
+        "import java.util.*;",
+        "@NbtSerializable",
+        "public record Quest(@NbtName(\"quest_id\") String id, int level, boolean done, Optional<Integer> bonus,",
+        "                    List<Step> steps, Map<String, List<Double>> scores, UUID owner, Color color) {",
+        "    public enum Color { RED, BLUE; }",
+        "    @NbtSerializable",
+        "    public static final class Step {",
+        "        public String name;",
+        "        @NbtName(\"n\") public long count;",
+        "        public transient int cache;",
+        "        public boolean equals(Object o) {",
+        "            return o instanceof Step s && Objects.equals(s.name, name) && s.count == count;",
+        "        }",
+        "        public int hashCode() {",
+        "            return Objects.hash(name, count);",
+        "        }",
+        "    }",
+        "    public static Quest sample(UUID owner) {",
+        "        Step step = new Step();",
+        "        step.name = \"a\";",
+        "        step.count = 5L;",
+        "        step.cache = 9;",
+        "        return new Quest(\"q1\", 3, true, Optional.of(7), List.of(step),",
+        "                         Map.of(\"k\", List.of(1.5, 2.5)), owner, Color.BLUE);",
+        "    }",
+        "}");
+
+    /**
+     * Source held in memory.
+     */
+    static final class Source extends SimpleJavaFileObject {
+        final String code;
+
+        Source(final String className, final String code) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.code = code;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return code;
+        }
+    }
+
+    record Result(boolean success, List<Diagnostic<? extends JavaFileObject>> diagnostics, File output) {
+        String errors() {
+            List<String> result = new ArrayList<>();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR) result.add(diagnostic.getMessage(null));
+            }
+            return String.join("\n", result);
+        }
+
+        ClassLoader classLoader() throws IOException {
+            return new URLClassLoader(new URL[] {output.toURI().toURL()},
+                                      NbtCodecProcessorTest.class.getClassLoader());
+        }
+    }
+
+    /**
+     * The folder or jar a class was loaded from.  The generated code
+     * needs the plugin and the NBT classes.
+     */
+    static String location(Class<?> type) {
+        try {
+            return new File(type.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        } catch (URISyntaxException use) {
+            throw new IllegalStateException(use);
+        }
+    }
+
+    static Result compile(String className, String code) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        File output = Files.createTempDirectory("nbtcodec").toFile();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        String classpath = location(NbtCodec.class) + File.pathSeparator + location(NBTTagCompound.class);
+        List<String> options = List.of("-d", output.getPath(), "-classpath", classpath);
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics, options, null,
+                                                             List.of(new Source(className, code)));
+        task.setProcessors(List.of(new NbtCodecProcessor()));
+        boolean success = task.call();
+        return new Result(success, diagnostics.getDiagnostics(), output);
+    }
+
+    static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) delete(child);
+        }
+        file.delete();
+    }
+
+    @SuppressWarnings("unchecked")
+    static NbtCodec<Object> codec(ClassLoader classLoader, String codecName) throws ReflectiveOperationException {
+        return (NbtCodec<Object>) classLoader.loadClass(codecName).getField("INSTANCE").get(null);
+    }
+
+    @Test
+    void roundTrip() throws Exception {
+        Result result = compile("demo.Quest", QUEST);
+        try {
+            assertTrue(result.success(), result.errors());
+            roundTrip(result.classLoader());
+        } finally {
+            delete(result.output());
+        }
+    }
+
+    static void roundTrip(ClassLoader classLoader) throws Exception {
+        UUID owner = UUID.randomUUID();
+        Object quest = classLoader.loadClass("demo.Quest").getMethod("sample", UUID.class).invoke(null, owner);
+        NbtCodec<Object> codec = codec(classLoader, "demo.QuestNbtCodec");
+        NBTTagCompound tag = codec.encode(quest);
+        assertEquals(NBTTagString.a("q1"), tag.x.get("quest_id"));
+        assertFalse(tag.x.containsKey("id"));
+        assertEquals(quest, codec.decode(tag));
+        assertNull(codec.encode(null));
+        assertNull(codec.decode(null));
+        // The nested class gets its own codec, without transient fields.
+        NbtCodec<Object> stepCodec = codec(classLoader, "demo.Quest_StepNbtCodec");
+        Object step = ((List<?>) quest.getClass().getMethod("steps").invoke(quest)).get(0);
+        NBTTagCompound stepTag = stepCodec.encode(step);
+        assertEquals(2, stepTag.x.size());
+        assertTrue(stepTag.x.containsKey("n"));
+    }
+
+    @Test
+    void missingKeys() throws Exception {
+        Result result = compile("demo.Quest", QUEST);
+        try {
+            assertTrue(result.success(), result.errors());
+            missingKeys(result.classLoader());
+        } finally {
+            delete(result.output());
+        }
+    }
+
+    static void missingKeys(ClassLoader classLoader) throws Exception {
+        Object quest = codec(classLoader, "demo.QuestNbtCodec").decode(new NBTTagCompound());
+        Class<?> type = quest.getClass();
+        assertNull(type.getMethod("id").invoke(quest));
+        assertEquals(0, type.getMethod("level").invoke(quest));
+        assertEquals(false, type.getMethod("done").invoke(quest));
+        assertEquals(Optional.empty(), type.getMethod("bonus").invoke(quest));
+        assertNull(type.getMethod("steps").invoke(quest));
+        assertNull(type.getMethod("scores").invoke(quest));
+        assertNull(type.getMethod("owner").invoke(quest));
+        assertNull(type.getMethod("color").invoke(quest));
+    }
+
+    @Test
+    void rejected() throws IOException {
+        Map<String, String> sources = Map.of(
+            "private int x;", "must not be private or final",
+            "final int x = 0;", "must not be private or final",
+            "Object x;", "Type not supported",
+            "Map<Integer, String> x;", "Map keys must be String",
+            "List<?> x;", "Type arguments must be concrete types",
+            "char[] x;", "Type not supported");
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            String code = "package demo;\n"
+                + "import java.util.*;\n"
+                + "@com.cavetale.dirty.NbtSerializable\n"
+                + "class Bad { " + entry.getKey() + " }\n";
+            Result result = compile("demo.Bad", code);
+            delete(result.output());
+            assertFalse(result.success(), entry.getKey());
+            assertTrue(result.errors().contains(entry.getValue()), entry.getKey() + ": " + result.errors());
+        }
+        Result noConstructor = compile("demo.Bad", "package demo;\n"
+                                       + "@com.cavetale.dirty.NbtSerializable\n"
+                                       + "class Bad { int x; Bad(int x) { this.x = x; } }\n");
+        delete(noConstructor.output());
+        assertTrue(noConstructor.errors().contains("constructor without arguments"), noConstructor.errors());
+    }
+}